@@ -0,0 +1,22 @@
+plugins {
+    `java-library`
+}
+
+dependencies {
+    // Java has no nullable types
+    compileOnly(libs.jetbrains.annotations)
+    // the processor reads the annotations by name and needs neither Vaadin nor this library on the processor path.
+
+    // tests
+    testImplementation(project(":vaadin-simple-security"))
+    testImplementation(libs.junit.jupiter.engine)
+    testImplementation(kotlin("test"))
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    testImplementation(libs.vaadin.core)
+    testImplementation(libs.bundles.jakarta)
+    // remember this is a Java project :) Kotlin only for tests
+    testImplementation(kotlin("stdlib"))
+}
+
+val configureMavenCentral = ext["configureMavenCentral"] as (artifactId: String) -> Unit
+configureMavenCentral("vaadin-simple-security-annotation-processor")
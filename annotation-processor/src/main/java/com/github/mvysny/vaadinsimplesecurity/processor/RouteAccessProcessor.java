@@ -0,0 +1,422 @@
+package com.github.mvysny.vaadinsimplesecurity.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the <code>@Route</code>, <code>@RouteAlias</code>, <code>@Layout</code> and <code>@ParentLayout</code>
+ * annotations at compile time, together with the security annotations of the routes and their layouts, and generates
+ * a <code>RouteAccessRules</code> implementation named {@value #GENERATED_CLASS}, registered in
+ * <code>META-INF/services</code>. <code>RouteAccessTable</code> then knows the access rules of all routes without
+ * reflection.
+ * <p></p>
+ * Reports compiler errors for routes and layouts which carry conflicting security annotations, e.g. both
+ * <code>@PermitAll</code> and <code>@RolesAllowed</code>; for routes and layouts which carry no security annotation
+ * at all, since Vaadin denies access to them; for <code>@RolesAllowed</code> with no roles; and for blank
+ * <code>@RolesExpression</code>s.
+ * <p></p>
+ * Options:
+ * <ul>
+ *     <li><code>-A{@value #OPTION_PACKAGE}=com.example</code>: the package of the generated class. Defaults to the
+ *     common package of all routes.</li>
+ *     <li><code>-A{@value #OPTION_ALLOW_UNANNOTATED}=true</code>: report classes with no security annotation as
+ *     warnings rather than errors.</li>
+ * </ul>
+ * Reads the annotations by name, so it needs neither Vaadin nor Vaadin-Simple-Security on the processor path.
+ */
+public final class RouteAccessProcessor extends AbstractProcessor {
+    /**
+     * The simple name of the generated class.
+     */
+    public static final String GENERATED_CLASS = "GeneratedRouteAccessRules";
+    /**
+     * The package of the generated class.
+     */
+    public static final String OPTION_PACKAGE = "vaadinsimplesecurity.package";
+    /**
+     * If true, classes with no security annotation are reported as warnings rather than errors.
+     */
+    public static final String OPTION_ALLOW_UNANNOTATED = "vaadinsimplesecurity.allowUnannotated";
+
+    private static final String ROUTE = "com.vaadin.flow.router.Route";
+    private static final String ROUTE_ALIAS = "com.vaadin.flow.router.RouteAlias";
+    private static final String ROUTE_ALIAS_CONTAINER = "com.vaadin.flow.router.RouteAlias.Container";
+    private static final String LAYOUT = "com.vaadin.flow.router.Layout";
+    private static final String PARENT_LAYOUT = "com.vaadin.flow.router.ParentLayout";
+    /**
+     * The default value of <code>@Route(layout)</code>, meaning no layout.
+     */
+    private static final String UI = "com.vaadin.flow.component.UI";
+    private static final String ROUTE_ACCESS_RULES = "com.github.mvysny.vaadinsimplesecurity.access.RouteAccessRules";
+    private static final String ACCESS_RULE = "com.github.mvysny.vaadinsimplesecurity.access.AccessRule";
+    private static final String ROLE_EXPRESSION = "com.github.mvysny.vaadinsimplesecurity.roles.RoleExpression";
+
+    /**
+     * The security annotations, in the order <code>AccessRule.of(Class)</code> lists them.
+     */
+    private static final List<String> SECURITY_ANNOTATIONS = List.of(
+            "jakarta.annotation.security.DenyAll", "com.vaadin.flow.server.auth.AnonymousAllowed",
+            "jakarta.annotation.security.PermitAll", "jakarta.annotation.security.RolesAllowed",
+            "com.github.mvysny.vaadinsimplesecurity.access.RolesExpression");
+    /**
+     * The names of the <code>AccessRule.Kind</code> constants of {@link #SECURITY_ANNOTATIONS}.
+     */
+    private static final List<String> KINDS = List.of("DENY_ALL", "ANONYMOUS_ALLOWED", "PERMIT_ALL", "ROLES_ALLOWED", "ROLES_EXPRESSION");
+
+    /**
+     * The access rule of a route or a layout.
+     * @param annotatedClass the class carrying the security annotation; may be a superclass of the route.
+     * @param kind the name of the <code>AccessRule.Kind</code> constant.
+     * @param roles the roles of <code>@RolesAllowed</code>, or the expression of <code>@RolesExpression</code>;
+     * empty for other kinds.
+     */
+    private record Rule(@NotNull TypeElement annotatedClass, @NotNull String kind, @NotNull List<String> roles) {
+    }
+
+    /**
+     * True once the rules have been generated. Routes generated later, by other annotation processors,
+     * can't be added anymore.
+     */
+    private boolean generated = false;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Set.of(ROUTE, ROUTE_ALIAS, ROUTE_ALIAS_CONTAINER, LAYOUT);
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Set.of(OPTION_PACKAGE, OPTION_ALLOW_UNANNOTATED);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            return false;
+        }
+        // the routes and all of their layouts, in the order they've been found.
+        final Map<String, TypeElement> classes = new LinkedHashMap<>();
+        final Set<TypeElement> routes = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement type) {
+                    routes.add(type);
+                    collect(type, classes);
+                }
+            }
+        }
+        if (routes.isEmpty()) {
+            return false;
+        }
+        if (generated) {
+            for (TypeElement route : routes) {
+                warning(route, route.getQualifiedName() + " was generated after " + GENERATED_CLASS
+                        + "; its access rules will be read at runtime");
+            }
+            return false;
+        }
+        generated = true;
+
+        final Map<TypeElement, Rule> rules = new LinkedHashMap<>();
+        boolean valid = true;
+        for (TypeElement clazz : classes.values()) {
+            final Rule rule = readRule(clazz);
+            if (rule == null) {
+                valid = false;
+            } else if (isAccessible(clazz) && isAccessible(rule.annotatedClass())) {
+                rules.put(clazz, rule);
+            }
+        }
+        if (valid) {
+            generate(getPackage(routes), rules, List.copyOf(routes));
+        }
+        return false;
+    }
+
+    /**
+     * Adds given route or layout and all of its parent layouts to <code>classes</code>.
+     */
+    private void collect(@NotNull TypeElement clazz, @NotNull Map<String, TypeElement> classes) {
+        if (classes.putIfAbsent(clazz.getQualifiedName().toString(), clazz) != null) {
+            return;
+        }
+        for (AnnotationMirror annotation : clazz.getAnnotationMirrors()) {
+            final String name = nameOf(annotation);
+            switch (name) {
+                case ROUTE, ROUTE_ALIAS -> collectLayout(typeValue(annotation, "layout"), classes);
+                case PARENT_LAYOUT -> collectLayout(typeValue(annotation, "value"), classes);
+                case ROUTE_ALIAS_CONTAINER -> {
+                    final AnnotationValue value = valueOf(annotation, "value");
+                    if (value != null && value.getValue() instanceof List<?> aliases) {
+                        for (Object alias : aliases) {
+                            if (((AnnotationValue) alias).getValue() instanceof AnnotationMirror routeAlias) {
+                                collectLayout(typeValue(routeAlias, "layout"), classes);
+                            }
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private void collectLayout(@Nullable TypeElement layout, @NotNull Map<String, TypeElement> classes) {
+        if (layout != null && !layout.getQualifiedName().contentEquals(UI)) {
+            collect(layout, classes);
+        }
+    }
+
+    /**
+     * Reads the access rule of given class the same way <code>AccessRule.of(Class)</code> does at runtime:
+     * from the class or from its nearest annotated superclass. Reports problems as compiler errors.
+     * @return the rule, or null if the class carries conflicting annotations.
+     */
+    @Nullable
+    private Rule readRule(@NotNull TypeElement clazz) {
+        for (TypeElement c = clazz; c != null && !c.getQualifiedName().contentEquals("java.lang.Object"); c = superclassOf(c)) {
+            // getAllAnnotationMirrors() includes @Inherited annotations such as @AnonymousAllowed, like Class.isAnnotationPresent()
+            final Map<String, AnnotationMirror> annotations = new LinkedHashMap<>();
+            for (AnnotationMirror annotation : processingEnv.getElementUtils().getAllAnnotationMirrors(c)) {
+                annotations.put(nameOf(annotation), annotation);
+            }
+            final List<String> names = new ArrayList<>();
+            AnnotationMirror found = null;
+            String kind = null;
+            for (int i = 0; i < SECURITY_ANNOTATIONS.size(); i++) {
+                final AnnotationMirror annotation = annotations.get(SECURITY_ANNOTATIONS.get(i));
+                if (annotation != null) {
+                    found = annotation;
+                    names.add("@" + annotation.getAnnotationType().asElement().getSimpleName());
+                    kind = KINDS.get(i);
+                }
+            }
+            if (names.size() > 1) {
+                error(clazz, c.getQualifiedName() + " has conflicting security annotations " + names
+                        + (c == clazz ? "" : ", inherited by " + clazz.getQualifiedName()) + "; keep only one of them");
+                return null;
+            }
+            if (found != null) {
+                final List<String> roles = new ArrayList<>();
+                if ("ROLES_ALLOWED".equals(kind)) {
+                    final AnnotationValue value = valueOf(found, "value");
+                    if (value != null && value.getValue() instanceof List<?> values) {
+                        for (Object role : values) {
+                            roles.add((String) ((AnnotationValue) role).getValue());
+                        }
+                    }
+                    if (roles.isEmpty()) {
+                        error(clazz, c.getQualifiedName() + " has @RolesAllowed with no roles, which denies access to everybody; use @DenyAll instead");
+                        return null;
+                    }
+                } else if ("ROLES_EXPRESSION".equals(kind)) {
+                    final AnnotationValue value = valueOf(found, "value");
+                    final String expression = value == null ? "" : String.valueOf(value.getValue());
+                    if (expression.isBlank()) {
+                        error(clazz, c.getQualifiedName() + " has a blank @RolesExpression");
+                        return null;
+                    }
+                    roles.add(expression);
+                }
+                return new Rule(c, kind, List.copyOf(roles));
+            }
+        }
+        final String message = clazz.getQualifiedName() + " has no security annotation, so Vaadin denies access to it;"
+                + " add one of @AnonymousAllowed, @PermitAll, @RolesAllowed, @RolesExpression or @DenyAll";
+        if (Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_ALLOW_UNANNOTATED))) {
+            warning(clazz, message);
+            return new Rule(clazz, "NONE", List.of());
+        }
+        error(clazz, message);
+        return null;
+    }
+
+    /**
+     * @return the package of the generated class: the {@link #OPTION_PACKAGE} option, or the common package of all
+     * routes.
+     */
+    @NotNull
+    private String getPackage(@NotNull Set<TypeElement> routes) {
+        final String option = processingEnv.getOptions().get(OPTION_PACKAGE);
+        if (option != null && !option.isBlank()) {
+            return option.trim();
+        }
+        List<String> common = null;
+        for (TypeElement route : routes) {
+            final String pkg = processingEnv.getElementUtils().getPackageOf(route).getQualifiedName().toString();
+            final List<String> segments = pkg.isEmpty() ? List.of() : List.of(pkg.split("\\."));
+            if (common == null) {
+                common = segments;
+            } else {
+                int i = 0;
+                while (i < common.size() && i < segments.size() && common.get(i).equals(segments.get(i))) {
+                    i++;
+                }
+                common = common.subList(0, i);
+            }
+        }
+        return common == null || common.isEmpty() ? "vaadinsimplesecurity.generated" : String.join(".", common);
+    }
+
+    private void generate(@NotNull String pkg, @NotNull Map<TypeElement, Rule> rules, @NotNull List<TypeElement> routes) {
+        final String className = pkg + "." + GENERATED_CLASS;
+        final Element[] originatingElements = routes.toArray(new Element[0]);
+        try {
+            try (Writer out = processingEnv.getFiler().createSourceFile(className, originatingElements).openWriter()) {
+                out.write("package " + pkg + ";\n\n");
+                if (processingEnv.getElementUtils().getTypeElement("javax.annotation.processing.Generated") != null) {
+                    out.write("@javax.annotation.processing.Generated(\"" + RouteAccessProcessor.class.getName() + "\")\n");
+                }
+                out.write("public final class " + GENERATED_CLASS + " implements " + ROUTE_ACCESS_RULES + " {\n");
+                out.write("    @Override\n");
+                out.write("    public java.util.Map<Class<?>, " + ACCESS_RULE + "> getRules() {\n");
+                out.write("        return java.util.Map.ofEntries(");
+                String separator = "\n";
+                for (Map.Entry<TypeElement, Rule> entry : rules.entrySet()) {
+                    final Rule rule = entry.getValue();
+                    out.write(separator + "                ");
+                    if (rule.kind().equals("ROLES_EXPRESSION")) {
+                        // the expression is parsed when the rules are loaded, and a malformed one fails the startup
+                        out.write("expression(" + entry.getKey().getQualifiedName() + ".class, "
+                                + rule.annotatedClass().getQualifiedName() + ".class, " + quote(rule.roles().get(0)));
+                    } else {
+                        out.write("rule(" + entry.getKey().getQualifiedName() + ".class, "
+                                + rule.annotatedClass().getQualifiedName() + ".class, " + ACCESS_RULE + ".Kind." + rule.kind());
+                        for (String role : rule.roles()) {
+                            out.write(", " + quote(role));
+                        }
+                    }
+                    out.write(")");
+                    separator = ",\n";
+                }
+                out.write("\n        );\n");
+                out.write("    }\n\n");
+                out.write("    private static java.util.Map.Entry<Class<?>, " + ACCESS_RULE + "> rule(Class<?> clazz, Class<?> annotatedClass, "
+                        + ACCESS_RULE + ".Kind kind, String... roles) {\n");
+                out.write("        return java.util.Map.entry(clazz, " + ACCESS_RULE + ".of(annotatedClass, kind, roles));\n");
+                out.write("    }\n\n");
+                out.write("    private static java.util.Map.Entry<Class<?>, " + ACCESS_RULE + "> expression(Class<?> clazz, Class<?> annotatedClass, String expression) {\n");
+                out.write("        return java.util.Map.entry(clazz, " + ACCESS_RULE + ".of(annotatedClass, " + ROLE_EXPRESSION + ".parse(expression)));\n");
+                out.write("    }\n");
+                out.write("}\n");
+            }
+            try (Writer out = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/" + ROUTE_ACCESS_RULES, originatingElements).openWriter()) {
+                out.write(className + "\n");
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to generate " + className + ": " + ex);
+        }
+    }
+
+    /**
+     * @return true if the generated class can refer to given class: the class and all classes enclosing it are public.
+     * Other classes are left out of the generated rules, and their annotations are read at runtime.
+     */
+    private static boolean isAccessible(@NotNull TypeElement clazz) {
+        for (Element e = clazz; e instanceof TypeElement type; e = e.getEnclosingElement()) {
+            if (!type.getModifiers().contains(Modifier.PUBLIC) || type.getNestingKind() == NestingKind.LOCAL
+                    || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static TypeElement superclassOf(@NotNull TypeElement clazz) {
+        return asTypeElement(clazz.getSuperclass());
+    }
+
+    @Nullable
+    private static TypeElement asTypeElement(@Nullable TypeMirror type) {
+        if (type == null || type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) type).asElement();
+    }
+
+    @NotNull
+    private static String nameOf(@NotNull AnnotationMirror annotation) {
+        return ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    @Nullable
+    private AnnotationValue valueOf(@NotNull AnnotationMirror annotation, @NotNull String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : processingEnv.getElementUtils().getElementValuesWithDefaults(annotation).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the class stored in given annotation attribute, or null if there's none or it doesn't compile.
+     */
+    @Nullable
+    private TypeElement typeValue(@NotNull AnnotationMirror annotation, @NotNull String name) {
+        final AnnotationValue value = valueOf(annotation, name);
+        return value != null && value.getValue() instanceof TypeMirror type ? asTypeElement(type) : null;
+    }
+
+    @NotNull
+    private static String quote(@NotNull String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private void error(@NotNull Element element, @NotNull String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void warning(@NotNull Element element, @NotNull String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+}
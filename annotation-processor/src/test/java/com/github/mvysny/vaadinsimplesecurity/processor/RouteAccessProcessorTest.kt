@@ -0,0 +1,208 @@
+package com.github.mvysny.vaadinsimplesecurity.processor
+
+import com.github.mvysny.vaadinsimplesecurity.access.AccessRule
+import com.github.mvysny.vaadinsimplesecurity.access.RouteAccessRules
+import org.junit.jupiter.api.Nested
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.net.URLClassLoader
+import java.nio.file.Path
+import javax.tools.Diagnostic
+import javax.tools.DiagnosticCollector
+import javax.tools.JavaFileObject
+import javax.tools.ToolProvider
+import kotlin.io.path.createDirectories
+import kotlin.io.path.exists
+import kotlin.io.path.writeText
+import kotlin.test.expect
+
+class RouteAccessProcessorTest {
+    @TempDir lateinit var dir: Path
+
+    /**
+     * Compiles given sources with the processor into [dir]/classes.
+     * @param sources maps the fully-qualified class name to its source code.
+     * @return the errors and warnings reported by the compiler.
+     */
+    private fun compile(sources: Map<String, String>, vararg options: String): List<String> {
+        val src = dir.resolve("src")
+        val files = sources.map { (className, source) ->
+            val file = src.resolve(className.replace('.', '/') + ".java")
+            file.parent.createDirectories()
+            file.writeText(source)
+            file.toFile()
+        }
+        val classes = dir.resolve("classes").createDirectories()
+        val compiler = ToolProvider.getSystemJavaCompiler()
+        val diagnostics = DiagnosticCollector<JavaFileObject>()
+        compiler.getStandardFileManager(diagnostics, null, null).use { fileManager ->
+            val args = listOf("-classpath", System.getProperty("java.class.path"), "-d", classes.toString(),
+                "-processor", RouteAccessProcessor::class.java.name) + options
+            compiler.getTask(null, fileManager, diagnostics, args, null, fileManager.getJavaFileObjectsFromFiles(files)).call()
+        }
+        return diagnostics.diagnostics
+            .filter { it.kind == Diagnostic.Kind.ERROR || it.kind == Diagnostic.Kind.WARNING }
+            .map { "${it.kind}: ${it.getMessage(null)}" }
+    }
+
+    /**
+     * Loads the generated rules from [dir]/classes.
+     */
+    private fun loadRules(): Map<String, AccessRule> =
+        URLClassLoader(arrayOf(dir.resolve("classes").toUri().toURL()), javaClass.classLoader).use { classLoader ->
+            RouteAccessRules.load(classLoader).entries.associate { it.key.name to it.value }
+        }
+
+    @Nested inner class generated {
+        @Test fun rules() {
+            expect(listOf()) {
+                compile(mapOf(
+                    "com.example.MainLayout" to """
+                        package com.example;
+                        @jakarta.annotation.security.PermitAll
+                        public class MainLayout extends com.vaadin.flow.component.html.Div implements com.vaadin.flow.router.RouterLayout {}
+                    """.trimIndent(),
+                    "com.example.admin.AdminRoute" to """
+                        package com.example.admin;
+                        @com.vaadin.flow.router.Route(value = "admin", layout = com.example.MainLayout.class)
+                        @jakarta.annotation.security.RolesAllowed({"ROLE_ADMIN", "ROLE_\"ROOT\""})
+                        public class AdminRoute extends com.vaadin.flow.component.html.Div {}
+                    """.trimIndent(),
+                    "com.example.login.LoginRoute" to """
+                        package com.example.login;
+                        @com.vaadin.flow.router.Route("login")
+                        public class LoginRoute extends AnonymousRoute {}
+                    """.trimIndent(),
+                    "com.example.login.AnonymousRoute" to """
+                        package com.example.login;
+                        @com.vaadin.flow.server.auth.AnonymousAllowed
+                        public class AnonymousRoute extends com.vaadin.flow.component.html.Div {}
+                    """.trimIndent(),
+                ))
+            }
+            val rules = loadRules()
+            expect(setOf("com.example.MainLayout", "com.example.admin.AdminRoute", "com.example.login.LoginRoute")) { rules.keys }
+            expect("AccessRule{MainLayout: PERMIT_ALL}") { rules["com.example.MainLayout"].toString() }
+            expect("AccessRule{AdminRoute: ROLES_ALLOWED [ROLE_ADMIN, ROLE_\"ROOT\"]}") { rules["com.example.admin.AdminRoute"].toString() }
+            // @AnonymousAllowed is @Inherited, exactly like AccessRule.of() sees it at runtime
+            for (rule in rules.values) {
+                expect(AccessRule.of(rule.annotatedClass)) { rule }
+            }
+            expect(true) { dir.resolve("classes/com/example/GeneratedRouteAccessRules.class").exists() }
+        }
+
+        @Test fun `package option`() {
+            expect(listOf()) {
+                compile(mapOf("com.example.AdminRoute" to """
+                    package com.example;
+                    @com.vaadin.flow.router.Route("admin")
+                    @jakarta.annotation.security.DenyAll
+                    public class AdminRoute extends com.vaadin.flow.component.html.Div {}
+                """.trimIndent()), "-Avaadinsimplesecurity.package=com.example.security")
+            }
+            expect(true) { dir.resolve("classes/com/example/security/GeneratedRouteAccessRules.class").exists() }
+            expect(AccessRule.Kind.DENY_ALL) { loadRules()["com.example.AdminRoute"]!!.kind }
+        }
+
+        @Test fun `roles expression`() {
+            expect(listOf()) {
+                compile(mapOf("com.example.AuditRoute" to """
+                    package com.example;
+                    @com.vaadin.flow.router.Route("audit")
+                    @com.github.mvysny.vaadinsimplesecurity.access.RolesExpression("ROLE_ADMIN or (ROLE_AUDITOR and not ROLE_CONTRACTOR)")
+                    public class AuditRoute extends com.vaadin.flow.component.html.Div {}
+                """.trimIndent()))
+            }
+            val rule = loadRules()["com.example.AuditRoute"]!!
+            expect(AccessRule.Kind.ROLES_EXPRESSION) { rule.kind }
+            expect("ROLE_ADMIN or (ROLE_AUDITOR and not ROLE_CONTRACTOR)") { rule.expression!!.source }
+        }
+
+        @Test fun `non-public routes are left out`() {
+            expect(listOf()) {
+                compile(mapOf("com.example.AdminRoute" to """
+                    package com.example;
+                    @com.vaadin.flow.router.Route("admin")
+                    @jakarta.annotation.security.PermitAll
+                    class AdminRoute extends com.vaadin.flow.component.html.Div {}
+                """.trimIndent()))
+            }
+            expect(mapOf()) { loadRules() }
+        }
+    }
+
+    @Nested inner class errors {
+        @Test fun `conflicting roles expression`() {
+            expect(listOf("ERROR: com.example.AdminRoute has conflicting security annotations [@RolesAllowed, @RolesExpression]; keep only one of them")) {
+                compile(mapOf("com.example.AdminRoute" to """
+                    package com.example;
+                    @com.vaadin.flow.router.Route("admin")
+                    @jakarta.annotation.security.RolesAllowed("ROLE_ADMIN")
+                    @com.github.mvysny.vaadinsimplesecurity.access.RolesExpression("ROLE_ADMIN")
+                    public class AdminRoute extends com.vaadin.flow.component.html.Div {}
+                """.trimIndent()))
+            }
+        }
+
+        @Test fun `conflicting annotations`() {
+            expect(listOf("ERROR: com.example.AdminRoute has conflicting security annotations [@PermitAll, @RolesAllowed]; keep only one of them")) {
+                compile(mapOf("com.example.AdminRoute" to """
+                    package com.example;
+                    @com.vaadin.flow.router.Route("admin")
+                    @jakarta.annotation.security.PermitAll
+                    @jakarta.annotation.security.RolesAllowed("ROLE_ADMIN")
+                    public class AdminRoute extends com.vaadin.flow.component.html.Div {}
+                """.trimIndent()))
+            }
+            expect(false) { dir.resolve("classes/com/example/GeneratedRouteAccessRules.class").exists() }
+        }
+
+        @Test fun `inherited conflicting annotations`() {
+            expect(listOf("ERROR: com.example.AdminRoute has conflicting security annotations [@AnonymousAllowed, @RolesAllowed]; keep only one of them")) {
+                compile(mapOf(
+                    "com.example.AnonymousRoute" to """
+                        package com.example;
+                        @com.vaadin.flow.server.auth.AnonymousAllowed
+                        public class AnonymousRoute extends com.vaadin.flow.component.html.Div {}
+                    """.trimIndent(),
+                    "com.example.AdminRoute" to """
+                        package com.example;
+                        @com.vaadin.flow.router.Route("admin")
+                        @jakarta.annotation.security.RolesAllowed("ROLE_ADMIN")
+                        public class AdminRoute extends AnonymousRoute {}
+                    """.trimIndent(),
+                ))
+            }
+        }
+
+        @Test fun `missing annotation on a parent layout`() {
+            val message = "com.example.MainLayout has no security annotation, so Vaadin denies access to it; add one of @AnonymousAllowed, @PermitAll, @RolesAllowed, @RolesExpression or @DenyAll"
+            val sources = mapOf(
+                "com.example.MainLayout" to """
+                    package com.example;
+                    public class MainLayout extends com.vaadin.flow.component.html.Div implements com.vaadin.flow.router.RouterLayout {}
+                """.trimIndent(),
+                "com.example.AdminRoute" to """
+                    package com.example;
+                    @com.vaadin.flow.router.Route(value = "admin", layout = MainLayout.class)
+                    @jakarta.annotation.security.PermitAll
+                    public class AdminRoute extends com.vaadin.flow.component.html.Div {}
+                """.trimIndent(),
+            )
+            expect(listOf("ERROR: $message")) { compile(sources) }
+            expect(listOf("WARNING: $message")) { compile(sources, "-Avaadinsimplesecurity.allowUnannotated=true") }
+            expect(AccessRule.Kind.NONE) { loadRules()["com.example.MainLayout"]!!.kind }
+        }
+
+        @Test fun `RolesAllowed with no roles`() {
+            expect(listOf("ERROR: com.example.AdminRoute has @RolesAllowed with no roles, which denies access to everybody; use @DenyAll instead")) {
+                compile(mapOf("com.example.AdminRoute" to """
+                    package com.example;
+                    @com.vaadin.flow.router.Route("admin")
+                    @jakarta.annotation.security.RolesAllowed({})
+                    public class AdminRoute extends com.vaadin.flow.component.html.Div {}
+                """.trimIndent()))
+            }
+        }
+    }
+}
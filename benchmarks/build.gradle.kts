@@ -0,0 +1,23 @@
+plugins {
+    alias(libs.plugins.jmh)
+}
+
+dependencies {
+    jmh(project(":vaadin-simple-security"))
+    // the access-control benchmarks need a Vaadin Router; Karibu-Testing provides one without a servlet container.
+    jmh(libs.vaadin.core)
+    jmh(libs.bundles.jakarta)
+    jmh(libs.karibu.testing)
+    jmh(libs.slf4j.simple)
+}
+
+// run via ./gradlew :benchmarks:jmh ; pass -PjmhIncludes=PasswordHash to only run matching benchmarks.
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+    fork = 1
+    warmupIterations = 2
+    iterations = 5
+    if (project.hasProperty("jmhIncludes")) {
+        includes = listOf(project.property("jmhIncludes") as String)
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.mvysny.vaadinsimplesecurity.benchmarks;
+
+import com.github.mvysny.kaributesting.v10.MockVaadin;
+import com.github.mvysny.kaributesting.v10.Routes;
+import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl;
+import com.github.mvysny.vaadinsimplesecurity.SimpleUserWithRoles;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.BeforeEnterEvent;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.router.NavigationTrigger;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.router.RouteParameters;
+import com.vaadin.flow.router.Router;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.auth.AnonymousAllowed;
+import jakarta.annotation.security.PermitAll;
+import jakarta.annotation.security.RolesAllowed;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link SimpleNavigationAccessControl} decision made on every navigation: resolving the principal and
+ * the roles checker, then evaluating the route's security annotations. Drives
+ * {@link SimpleNavigationAccessControl#beforeEnter(BeforeEnterEvent)}, just like the Vaadin router does, so that
+ * the user is resolved once per navigation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class AccessControlBenchmark {
+    @Route("public")
+    @AnonymousAllowed
+    public static class PublicView extends VerticalLayout {
+    }
+
+    @PermitAll
+    public static class MainLayout extends VerticalLayout implements RouterLayout {
+    }
+
+    @Route(value = "", layout = MainLayout.class)
+    @PermitAll
+    public static class WelcomeView extends VerticalLayout {
+    }
+
+    @Route(value = "user", layout = MainLayout.class)
+    @RolesAllowed("user")
+    public static class UserView extends VerticalLayout {
+    }
+
+    @Route("admin")
+    @RolesAllowed({"admin", "superuser"})
+    public static class AdminView extends VerticalLayout {
+    }
+
+    @Param({"PublicView", "WelcomeView", "UserView", "AdminView"})
+    public String view;
+
+    @Param({"anonymous", "user", "admin"})
+    public String principal;
+
+    private Router router;
+    private UI ui;
+    private Class<?> target;
+    private Location location;
+    private SimpleNavigationAccessControl accessControl;
+
+    @Setup
+    public void setup() throws ClassNotFoundException {
+        MockVaadin.setup(new Routes().autoDiscoverViews(AccessControlBenchmark.class.getPackageName()));
+        ui = UI.getCurrent();
+        router = ui.getInternals().getRouter();
+        target = Class.forName(AccessControlBenchmark.class.getName() + "$" + view);
+        location = new Location(target.getAnnotation(Route.class).value());
+        final SimpleUserWithRoles user = switch (principal) {
+            case "anonymous" -> null;
+            case "user" -> new SimpleUserWithRoles("user", Set.of("user"));
+            default -> new SimpleUserWithRoles("admin", Set.of("admin", "user"));
+        };
+        accessControl = new SimpleNavigationAccessControl(() -> user);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MockVaadin.tearDown();
+        if (accessControl.getSupplierInvocationCount() != accessControl.getNavigationCount()) {
+            throw new IllegalStateException("Expected one user lookup per navigation, got "
+                    + accessControl.getSupplierInvocationCount() + " for " + accessControl.getNavigationCount());
+        }
+    }
+
+    @Benchmark
+    public BeforeEnterEvent beforeEnter() {
+        // a denied navigation only records the reroute in the event
+        final BeforeEnterEvent event = new BeforeEnterEvent(router, NavigationTrigger.UI_NAVIGATE, location, target,
+                RouteParameters.empty(), ui, List.of());
+        accessControl.beforeEnter(event);
+        return event;
+    }
+}
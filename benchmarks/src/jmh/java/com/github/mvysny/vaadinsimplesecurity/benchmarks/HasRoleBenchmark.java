@@ -0,0 +1,44 @@
+package com.github.mvysny.vaadinsimplesecurity.benchmarks;
+
+import com.github.mvysny.vaadinsimplesecurity.SimpleUserWithRoles;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SimpleUserWithRoles#hasRole(String)}, called for every <code>@RolesAllowed</code> role on every
+ * navigation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class HasRoleBenchmark {
+    @Param({"1", "5", "50"})
+    public int roles;
+
+    private SimpleUserWithRoles user;
+    private String grantedRole;
+
+    @Setup
+    public void setup() {
+        final Set<String> roleSet = new HashSet<>();
+        for (int i = 0; i < roles; i++) {
+            roleSet.add("role" + i);
+        }
+        user = new SimpleUserWithRoles("user", roleSet);
+        // a fresh String instance, as if it came from an annotation in another class
+        grantedRole = new String(("role" + (roles - 1)).toCharArray());
+    }
+
+    @Benchmark
+    public boolean granted() {
+        return user.hasRole(grantedRole);
+    }
+
+    @Benchmark
+    public boolean notGranted() {
+        return user.hasRole("superuser");
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.mvysny.vaadinsimplesecurity.benchmarks;
+
+import com.github.mvysny.vaadinsimplesecurity.util.Pbkdf2;
+import com.github.mvysny.vaadinsimplesecurity.util.Pbkdf2PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Pbkdf2}, which digests the HMAC pads once per password, with the JDK
+ * <code>PBKDF2WithHmacSHA*</code> {@link SecretKeyFactory} provider, which re-digests both pads on every iteration.
+ * Run with <code>-prof gc</code> to compare the allocation rates as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class Pbkdf2Benchmark {
+    @Param({"SHA1", "SHA256", "SHA512"})
+    public Pbkdf2PasswordHasher.Prf prf;
+
+    @Param({"185000"})
+    public int iterations;
+
+    private final char[] password = "password".toCharArray();
+    private final byte[] salt = new byte[24];
+
+    @Benchmark
+    public byte[] provider() throws GeneralSecurityException {
+        final PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, 32 * 8);
+        return SecretKeyFactory.getInstance(prf.getAlgorithm()).generateSecret(spec).getEncoded();
+    }
+
+    @Benchmark
+    public byte[] precomputedPads() {
+        return Pbkdf2.derive(prf, password, salt, iterations, 32);
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.mvysny.vaadinsimplesecurity.benchmarks;
+
+import com.github.mvysny.vaadinsimplesecurity.util.ScryptPasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU cost of a single login (password verification) with the memory-hard scrypt, per cost parameter
+ * <code>N = 2^ln</code>. Every step of <code>ln</code> doubles both the time and the memory (<code>128 * r * N</code>
+ * bytes) needed to verify a password. Compare with {@link PasswordHashBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ScryptBenchmark {
+    @Param({"14", "15", "16"})
+    public int ln;
+
+    private ScryptPasswordHasher hasher;
+    private String hash;
+
+    @Setup
+    public void setup() {
+        hasher = new ScryptPasswordHasher(ln, 8, 1);
+        hash = hasher.createHash("password".toCharArray());
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return hasher.verify("password".toCharArray(), hash);
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.mvysny.vaadinsimplesecurity.benchmarks;
+
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUser;
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUserRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link InMemoryUserRegistry#findByUsername(String)}, which runs on every login and, via
+ * <code>InMemoryLoginService</code>, whenever the current user is resolved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class UserRegistryBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int users;
+
+    private String existingUsername;
+
+    @Setup
+    public void setup() {
+        final List<InMemoryUser> list = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            // no password: hashing a million passwords would take hours.
+            list.add(new InMemoryUser("user" + i, null, Set.of("user")));
+        }
+        InMemoryUserRegistry.get().clear();
+        InMemoryUserRegistry.get().registerUsers(list);
+        // a fresh String instance, so that equals() can't take the identity shortcut
+        existingUsername = new String(("user" + users / 2).toCharArray());
+    }
+
+    @TearDown
+    public void tearDown() {
+        InMemoryUserRegistry.get().clear();
+    }
+
+    @Benchmark
+    public InMemoryUser findExisting() {
+        return InMemoryUserRegistry.get().findByUsername(existingUsername);
+    }
+
+    @Benchmark
+    public InMemoryUser findMissing() {
+        return InMemoryUserRegistry.get().findByUsername("nobody");
+    }
+}
@@ -1,5 +1,7 @@
 include(
     "vaadin-simple-security",
+    "annotation-processor",
     "testapp",
     "externalauth:google",
+    "benchmarks",
 )
@@ -5,6 +5,7 @@ plugins {
 
 dependencies {
     implementation(project(":vaadin-simple-security"))
+    annotationProcessor(project(":annotation-processor"))
 
     // Vaadin
     implementation(libs.vaadin.core)
@@ -17,5 +17,7 @@ public class ApplicationServiceInitListener implements VaadinServiceInitListener
     @Override
     public void serviceInit(@NotNull ServiceInitEvent event) {
         event.getSource().addUIInitListener(e -> e.getUI().addBeforeEnterListener(accessControl));
+        // uses the access rules generated by the annotation processor
+        SimpleNavigationAccessControl.precompileRouteAccess(event.getSource());
     }
 }
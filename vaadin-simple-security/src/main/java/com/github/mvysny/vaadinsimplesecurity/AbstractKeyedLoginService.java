@@ -0,0 +1,59 @@
+package com.github.mvysny.vaadinsimplesecurity;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+
+/**
+ * A login service which stores only a compact key of the logged-in user in the session (e.g. the database ID),
+ * together with the {@link SimpleUserWithRoles} principal, instead of the whole user. Use it when the user is
+ * a large database entity and the session is replicated.
+ * <p></p>
+ * {@link #getCurrentUser()} reloads the user via {@link #loadUser(Serializable)} at most once per request; the access
+ * checks only use the principal and never reload the user. If the reload finds that the user no longer exists,
+ * the session is logged out. To log the user out of all sessions right away after deleting the user, call
+ * {@link ActiveSessionRegistry#forceLogoutEverywhere(String)}.
+ * @param <U> the type of the User object, for example a database entity holding user information.
+ * @param <K> the type of the user key, for example {@link Long}.
+ */
+public abstract class AbstractKeyedLoginService<U extends Serializable, K extends Serializable> extends AbstractLoginService<U> {
+    protected AbstractKeyedLoginService() {
+    }
+
+    /**
+     * @param mainRoutePath The main "Welcome" route of the app. {@link #login(Serializable)} will navigate here.
+     */
+    protected AbstractKeyedLoginService(@NotNull String mainRoutePath) {
+        super(mainRoutePath);
+    }
+
+    /**
+     * Returns a compact key identifying given user, e.g. its database ID. Stored in the session instead of the user.
+     * @param user the user being logged in, not null.
+     * @return the user key, not null.
+     */
+    @NotNull
+    protected abstract K toUserKey(@NotNull U user);
+
+    /**
+     * Loads the user by the key returned by {@link #toUserKey(Serializable)}.
+     * @param userKey the user key, not null.
+     * @return the user, or null if the user no longer exists.
+     */
+    @Nullable
+    protected abstract U loadUser(@NotNull K userKey);
+
+    @Override
+    @NotNull
+    final Serializable toStoredKey(@NotNull U user) {
+        return toUserKey(user);
+    }
+
+    @Override
+    @Nullable
+    @SuppressWarnings("unchecked")
+    final U loadStoredUser(@NotNull Serializable userKey) {
+        return loadUser((K) userKey);
+    }
+}
@@ -2,15 +2,26 @@ package com.github.mvysny.vaadinsimplesecurity;
 
 import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryLoginService;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.VaadinRequest;
 import com.vaadin.flow.server.VaadinServletRequest;
 import com.vaadin.flow.server.VaadinSession;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 
 /**
@@ -27,18 +38,50 @@ import java.util.function.Supplier;
  * </ul>
  * You can of course implement your service from scratch if you need, or if this skeletal implementation
  * doesn't suit your needs. We still recommend to go with a session-scoped service though.
+ * <p></p>
+ * The whole user object is stored in the session, which may be expensive to serialize if it's
+ * a large database entity and the session is replicated. Extend {@link AbstractKeyedLoginService} instead to store
+ * only a compact user key (e.g. the database ID) together with the {@link SimpleUserWithRoles} principal.
+ * <p></p>
+ * The logged-in user state is serialized in a compact versioned form rather than field-by-field, so that
+ * replicating a session doesn't write the descriptors of the fields of this class.
  * @param <U> the type of the User object, for example a database entity holding user information.
  */
 public abstract class AbstractLoginService<U extends Serializable> implements Serializable {
+    /**
+     * Runs the credential checks passed to {@link #loginAsync(Callable)}. Defaults to virtual threads,
+     * so that a burst of logins doesn't tie up the servlet threads.
+     */
+    @NotNull
+    private static volatile Executor loginExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
     /**
      * The main "Welcome" route of the app. {@link #login(Serializable)} will navigate here. Defaults to "".
      */
     @NotNull
     private final String mainRoutePath;
+    /**
+     * The logged-in user; always null if {@link #userKey} is used instead.
+     */
+    @Nullable
+    private transient U currentUser = null;
+    /**
+     * The key of the logged-in user, as returned by {@link AbstractKeyedLoginService#toUserKey(Serializable)}.
+     * Null if no user is logged in, or if the whole user is stored in {@link #currentUser}.
+     */
     @Nullable
-    private U currentUser = null;
+    private transient Serializable userKey = null;
     @Nullable
-    private SimpleUserWithRoles currentUserWithRoles = null;
+    private transient SimpleUserWithRoles currentUserWithRoles = null;
+    /**
+     * True if this service has been deserialized with a user logged in, and the session hasn't been registered
+     * in the {@link ActiveSessionRegistry} again yet. See {@link #restoreRegistration()}.
+     */
+    private transient boolean registrationPending = false;
+    /**
+     * The version of the serialized form written by {@link #writeObject(ObjectOutputStream)}.
+     */
+    private static final byte SERIAL_VERSION = 1;
 
     protected AbstractLoginService() {
         this("");
@@ -55,37 +98,190 @@ public abstract class AbstractLoginService<U extends Serializable> implements Se
 
     /**
      * Returns the currently logged-in user, or null if there's no user logged in.
+     * <p></p>
+     * If the service stores only the user key (see {@link AbstractKeyedLoginService}), the user is reloaded via
+     * {@link AbstractKeyedLoginService#loadUser(Serializable)} once per request and then remembered until the request ends. Outside of
+     * a request, e.g. in {@link UI#access(com.vaadin.flow.server.Command)} called from a background thread, the user
+     * is reloaded on every call. If the user no longer exists, the session is logged out: the principal is cleared,
+     * so that {@link #isLoggedIn()} returns false and the next navigation is redirected to the login page.
      * @return logged-in user, may be null.
      */
     @Nullable
     public U getCurrentUser() {
-        return currentUser;
+        restoreRegistration();
+        final Serializable key = userKey;
+        if (key == null) {
+            return currentUser;
+        }
+        final VaadinRequest request = VaadinRequest.getCurrent();
+        if (request == null) {
+            return reload(key);
+        }
+        @SuppressWarnings("unchecked")
+        Optional<U> user = (Optional<U>) request.getAttribute(getRequestAttributeName());
+        if (user == null) {
+            user = Optional.ofNullable(reload(key));
+            request.setAttribute(getRequestAttributeName(), user);
+        }
+        return user.orElse(null);
+    }
+
+    /**
+     * Reloads the user via {@link #loadStoredUser(Serializable)}. If the user no longer exists, clears the logged-in
+     * state and unregisters the session, provided that the session lock is held.
+     * @return the user, or null if the user no longer exists.
+     */
+    @Nullable
+    private U reload(@NotNull Serializable key) {
+        final U user = loadStoredUser(key);
+        if (user == null) {
+            final VaadinSession session = VaadinSession.getCurrent();
+            if (session != null && session.hasLock() && key.equals(userKey)) {
+                userKey = null;
+                currentUserWithRoles = null;
+                ActiveSessionRegistry.get().unregister(session);
+            }
+        }
+        return user;
     }
 
+    /**
+     * @return the name of the request attribute remembering the user loaded via {@link #loadStoredUser(Serializable)}.
+     */
+    @NotNull
+    private String getRequestAttributeName() {
+        return getClass().getName() + ".currentUser";
+    }
+
+    /**
+     * Returns the key to store in the session instead of given user. Overridden by {@link AbstractKeyedLoginService};
+     * package-private, so that the key and {@link #loadStoredUser(Serializable)} can only be overridden together.
+     * @param user the user being logged in, not null.
+     * @return the key, or null to store the whole user.
+     */
+    @Nullable
+    Serializable toStoredKey(@NotNull U user) {
+        return null;
+    }
+
+    /**
+     * Loads the user by the key returned by {@link #toStoredKey(Serializable)}. Overridden by {@link AbstractKeyedLoginService};
+     * only called if {@link #toStoredKey(Serializable)} returned a key.
+     * @param userKey the key, not null.
+     * @return the user, or null if the user no longer exists.
+     */
+    @Nullable
+    U loadStoredUser(@NotNull Serializable userKey) {
+        throw new IllegalStateException(getClass().getName() + " doesn't store user keys");
+    }
+
+    /**
+     * Returns the principal of the currently logged-in user, or null if there's no user logged in.
+     * Never reloads the user, so that the access checks stay cheap.
+     * @return the principal, may be null.
+     */
     @Nullable
     public SimpleUserWithRoles getCurrentPrincipal() {
+        restoreRegistration();
         return currentUserWithRoles;
     }
 
     /**
-     * Returns true if the user is logged in (the {@link #getCurrentUser()} is not null), false if not.
+     * Replaces the principal of the logged-in user, e.g. after an admin changed the user's roles, so that the
+     * change takes effect without the user logging in again. Does nothing if no user or a different user is logged in.
+     * <p></p>
+     * If the roles changed, the current route of every UI of the session is refreshed via
+     * {@link UI#refreshCurrentRoute(boolean)}, so that the access checks run again with the new roles; the following
+     * navigations check the new roles as well. The browser only sees the refresh on the next round-trip, unless
+     * <code>@Push</code> is enabled.
+     * <p></p>
+     * Only the principal is replaced: {@link #getCurrentUser()} keeps returning the user object passed to {@link #login(Serializable)},
+     * unless that object is the principal itself, as with {@link DirectLoginService}.
+     * <p></p>
+     * Must be called with the session lock held. See {@link ActiveSessionRegistry#updatePrincipal(Class, SimpleUserWithRoles)}
+     * to update all sessions of the user.
+     * @param principal the new principal, not null.
+     * @return true if the principal was replaced, false if the user isn't logged in.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean updateCurrentPrincipal(@NotNull SimpleUserWithRoles principal) {
+        final SimpleUserWithRoles previous = currentUserWithRoles;
+        if (previous == null || !previous.getUsername().equals(principal.getUsername())) {
+            return false;
+        }
+        if (currentUser == previous) {
+            currentUser = (U) principal;
+        }
+        currentUserWithRoles = principal;
+        final VaadinSession session = VaadinSession.getCurrent();
+        // role sets are canonical
+        if (previous.getRoleSet() != principal.getRoleSet() && session != null) {
+            for (UI ui : session.getUIs()) {
+                ui.access(() -> ui.refreshCurrentRoute(false));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the user is logged in, false if not. Doesn't reload the user; see {@link #getCurrentUser()}
+     * on how a deleted user gets logged out.
      */
     public boolean isLoggedIn() {
-        return getCurrentUser() != null;
+        return getCurrentPrincipal() != null;
     }
 
     /**
-     * Logs in given user.
+     * A deserialized session is a new object, unknown to the {@link ActiveSessionRegistry}. Registers it again the first
+     * time this service is used in the session after being deserialized, so that
+     * {@link ActiveSessionRegistry#forceLogout(String)} reaches it.
+     */
+    private void restoreRegistration() {
+        if (!registrationPending) {
+            return;
+        }
+        final VaadinSession session = VaadinSession.getCurrent();
+        if (session != null && session.hasLock() && session.getAttribute(getClass()) == this) {
+            registrationPending = false;
+            ActiveSessionRegistry.get().restore(session, serviceClass());
+        }
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private Class<? extends AbstractLoginService<?>> serviceClass() {
+        return (Class<? extends AbstractLoginService<?>>) getClass();
+    }
+
+    /**
+     * Logs in given user, and registers the session in the {@link ActiveSessionRegistry}.
      * @param user the user to log in.
      */
     protected void login(@NotNull U user) {
-        this.currentUser = user;
-        this.currentUserWithRoles = toUserWithRoles(user);
-
         // creates a new session after login, to prevent session fixation attack.
         // All session attributes (including the instance of this service) are carried
         // over to the new session.
-        VaadinServletRequest.getCurrent().getHttpServletRequest().changeSessionId();
+        changeSessionId();
+        completeLogin(user);
+    }
+
+    /**
+     * Logs in given user, assuming that the session ID has already been changed.
+     * @param user the user to log in.
+     */
+    private void completeLogin(@NotNull U user) {
+        this.userKey = toStoredKey(user);
+        this.currentUser = userKey == null ? user : null;
+        this.currentUserWithRoles = toUserWithRoles(user);
+        final VaadinRequest request = VaadinRequest.getCurrent();
+        if (userKey != null && request != null) {
+            // no need to reload the user during this request
+            request.setAttribute(getRequestAttributeName(), Optional.of(user));
+        }
+        final VaadinSession session = VaadinSession.getCurrent();
+        if (session != null) {
+            ActiveSessionRegistry.get().register(session, currentUserWithRoles.getUsername(), serviceClass());
+        }
 
         // navigate the user away from the LoginView and to the landing page.
         // all logged-in users must be able to see the landing page, otherwise they will
@@ -94,10 +290,107 @@ public abstract class AbstractLoginService<U extends Serializable> implements Se
     }
 
     /**
-     * Logs out the user, clears the session and reloads the page. Since no user
+     * Runs given credential check outside the Vaadin session lock, then logs in the returned user via {@link #login(Serializable)}.
+     * <p></p>
+     * Password verification (see {@link HasPassword#passwordMatches(String)}) is intentionally slow; when called
+     * from a regular login listener it holds the Vaadin session lock for hundreds of milliseconds, blocking
+     * all other requests of the session including heartbeats. This function runs the <code>authenticator</code>
+     * on the executor configured via {@link #setLoginExecutor(Executor)} instead, and only takes the UI lock
+     * (via {@link UI#access(com.vaadin.flow.server.Command)}) to actually log in the user and navigate to the main route.
+     * <p></p>
+     * The returned future completes (successfully or exceptionally) while holding the UI lock, so that you can
+     * update the UI directly from its callbacks, for example:
+     * <pre>
+     * MyLoginService.get().loginAsync(username, password).whenComplete((user, ex) -&gt; {
+     *     if (ex != null) loginForm.setError(true);
+     * });
+     * </pre>
+     * The navigation to the main route is only visible in the browser on the next round-trip; enable
+     * <code>@Push</code> or UI polling so that it happens immediately.
+     * <p></p>
+     * The session ID is changed right away, in the calling request thread, before the credentials are checked:
+     * the session fixation protection therefore doesn't depend on whichever request arrives next.
+     * @param authenticator looks up the user and checks the credentials. Runs in a background thread: must not
+     *                      touch Vaadin components nor the Vaadin session. Fails with {@link javax.security.auth.login.LoginException}
+     *                      if the credentials are invalid.
+     * @return a future which completes with the logged-in user.
+     * @throws IllegalStateException if not called from a servlet request of the Vaadin UI, e.g. from
+     * {@link UI#access(com.vaadin.flow.server.Command)} ran by a background thread.
+     */
+    @NotNull
+    protected CompletableFuture<U> loginAsync(@NotNull Callable<U> authenticator) {
+        Objects.requireNonNull(authenticator);
+        final UI ui = Objects.requireNonNull(UI.getCurrent(), "Not called from Vaadin UI thread");
+        changeSessionId();
+        final CompletableFuture<U> result = new CompletableFuture<>();
+        loginExecutor.execute(() -> {
+            U user = null;
+            Throwable failure = null;
+            try {
+                user = Objects.requireNonNull(authenticator.call(), "authenticator returned null");
+            } catch (Throwable t) {
+                failure = t;
+            }
+            final U authenticatedUser = user;
+            final Throwable authenticationFailure = failure;
+            try {
+                ui.access(() -> {
+                    if (authenticationFailure != null) {
+                        result.completeExceptionally(authenticationFailure);
+                        return;
+                    }
+                    try {
+                        completeLogin(authenticatedUser);
+                        result.complete(authenticatedUser);
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+            } catch (Throwable t) {
+                // the UI has been detached in the meantime
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Changes the session ID, to prevent the session fixation attack. Called from {@link #login(Serializable)}
+     * and {@link #loginAsync(Callable)}.
+     * @throws IllegalStateException if not called from a servlet request.
+     */
+    private static void changeSessionId() {
+        final VaadinServletRequest request = VaadinServletRequest.getCurrent();
+        if (request == null) {
+            throw new IllegalStateException("Not called from a servlet request: the session ID can't be changed");
+        }
+        request.getHttpServletRequest().changeSessionId();
+    }
+
+    /**
+     * Sets the executor which runs the credential checks passed to {@link #loginAsync(Callable)}.
+     * Defaults to virtual threads.
+     * @param executor the new executor, not null.
+     */
+    public static void setLoginExecutor(@NotNull Executor executor) {
+        loginExecutor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * @return the executor which runs the credential checks passed to {@link #loginAsync(Callable)}.
+     */
+    @NotNull
+    public static Executor getLoginExecutor() {
+        return loginExecutor;
+    }
+
+    /**
+     * Logs out the user, unregisters the session from the {@link ActiveSessionRegistry}, clears the session and reloads the page. Since no user
      * is logged in, {@link SimpleNavigationAccessControl} will redirect Vaadin to the login page.
      */
     public void logout() {
+        ActiveSessionRegistry.get().unregister(VaadinSession.getCurrent());
+
         // closes the Vaadin session
         VaadinSession.getCurrent().close();
 
@@ -112,10 +405,11 @@ public abstract class AbstractLoginService<U extends Serializable> implements Se
 
     @NotNull
     public Set<String> getCurrentUserRoles() {
-        if (currentUserWithRoles == null) {
+        final SimpleUserWithRoles principal = getCurrentPrincipal();
+        if (principal == null) {
             return Collections.emptySet();
         }
-        return currentUserWithRoles.getRoles();
+        return principal.getRoles();
     }
 
     /**
@@ -130,6 +424,36 @@ public abstract class AbstractLoginService<U extends Serializable> implements Se
         return getCurrentUserRoles().contains(role);
     }
 
+    @Serial
+    private void writeObject(@NotNull ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeByte(SERIAL_VERSION);
+        out.writeObject(currentUserWithRoles);
+        if (currentUserWithRoles != null) {
+            out.writeBoolean(userKey != null);
+            out.writeObject(userKey != null ? userKey : currentUser);
+        }
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(@NotNull ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final byte version = in.readByte();
+        if (version != SERIAL_VERSION) {
+            throw new InvalidObjectException("Unsupported serialized form version " + version);
+        }
+        currentUserWithRoles = (SimpleUserWithRoles) in.readObject();
+        registrationPending = currentUserWithRoles != null;
+        if (currentUserWithRoles != null) {
+            if (in.readBoolean()) {
+                userKey = (Serializable) in.readObject();
+            } else {
+                currentUser = (U) in.readObject();
+            }
+        }
+    }
+
     /**
      * Returns the service instance from Vaadin Session, creating it if it doesn't exist yet.
      * You should define the <code>get()</code> static function which simply calls this one:
@@ -0,0 +1,437 @@
+package com.github.mvysny.vaadinsimplesecurity;
+
+import com.github.mvysny.vaadinsimplesecurity.cluster.Invalidation;
+import com.github.mvysny.vaadinsimplesecurity.cluster.InvalidationBus;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.SessionDestroyEvent;
+import com.vaadin.flow.server.SessionDestroyListener;
+import com.vaadin.flow.server.VaadinContext;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A singleton index of the live {@link VaadinSession}s by the username of the user logged into them. Tells how many
+ * users are logged in and which sessions a user is logged into, logs a user out of all of their sessions, e.g.
+ * after the account has been disabled, and pushes changed roles to all of their sessions.
+ * <p></p>
+ * Maintained automatically: {@link AbstractLoginService#login(Serializable)} registers the session,
+ * {@link AbstractLoginService#logout()} unregisters it, and sessions are removed when Vaadin destroys them.
+ * The sessions are only weakly referenced, so that a session which the servlet container drops without
+ * Vaadin destroying it doesn't leak.
+ * <p></p>
+ * A session which has been deserialized, e.g. after a failover to another node or a restart with persistent sessions,
+ * is a new object which the registry doesn't know about. The login service registers it again via
+ * {@link #restore(VaadinSession)} the first time it's used in that session; until then, {@link #forceLogout(String)}
+ * and {@link #updatePrincipal(SimpleUserWithRoles)} miss the session.
+ * <p></p>
+ * Only knows about the sessions logged in on this JVM. To reach the sessions on all nodes of a cluster, set an
+ * {@link InvalidationBus} via {@link #setInvalidationBus(InvalidationBus)} and use {@link #forceLogoutEverywhere(String)}
+ * and {@link #updatePrincipalEverywhere(SimpleUserWithRoles)}.
+ * <p></p>
+ * Thread-safe; the lookups by username are O(1).
+ */
+public final class ActiveSessionRegistry {
+    /**
+     * Singleton instance of this registry.
+     */
+    @NotNull
+    private static final ActiveSessionRegistry INSTANCE = new ActiveSessionRegistry();
+
+    /**
+     * Returns the singleton instance of this registry.
+     * @return the singleton instance.
+     */
+    @NotNull
+    public static ActiveSessionRegistry get() {
+        return INSTANCE;
+    }
+
+    private ActiveSessionRegistry() {
+    }
+
+    /**
+     * The session attribute holding the username the session is registered under.
+     */
+    @NotNull
+    private static final String USERNAME_ATTRIBUTE = ActiveSessionRegistry.class.getName() + ".username";
+
+    /**
+     * The sessions keyed by username. Users with no sessions are removed, so that the size of the map is the number
+     * of logged-in users. The sets are only modified within {@link ConcurrentHashMap#compute} and friends.
+     */
+    @NotNull
+    private final ConcurrentHashMap<String, Set<SessionRef>> sessionsByUser = new ConcurrentHashMap<>();
+    /**
+     * Receives the references to the garbage-collected sessions, see {@link #expungeCollected()}.
+     */
+    @NotNull
+    private final ReferenceQueue<VaadinSession> collected = new ReferenceQueue<>();
+
+    /**
+     * Applies the invalidations received via {@link #invalidationBus} to the sessions on this JVM.
+     */
+    @NotNull
+    private final InvalidationBus.Listener invalidationListener = batch -> {
+        for (Invalidation invalidation : batch) {
+            switch (invalidation.type()) {
+                case LOGOUT -> forceLogout(invalidation.username());
+                case PRINCIPAL -> updatePrincipal(invalidation.toPrincipal());
+            }
+        }
+    };
+    @Nullable
+    private volatile InvalidationBus invalidationBus = null;
+
+    /**
+     * A weak reference to a session, remembering the username the session is registered under.
+     */
+    private static final class SessionRef extends WeakReference<VaadinSession> {
+        @NotNull
+        private final String username;
+        /**
+         * The class of the login service which logged the user in, null if unknown.
+         */
+        @Nullable
+        private final Class<? extends AbstractLoginService<?>> serviceClass;
+
+        private SessionRef(@NotNull VaadinSession session, @NotNull String username,
+                           @Nullable Class<? extends AbstractLoginService<?>> serviceClass, @NotNull ReferenceQueue<VaadinSession> queue) {
+            super(session, queue);
+            this.username = username;
+            this.serviceClass = serviceClass;
+        }
+    }
+
+    /**
+     * Registers given session as logged in by given user. If another user was logged into the session, the session
+     * is unregistered from that user first. Called by {@link AbstractLoginService#login(Serializable)}.
+     * <p></p>
+     * Must be called with the session lock held.
+     * @param session the session, not null.
+     * @param username the username, not null.
+     */
+    public void register(@NotNull VaadinSession session, @NotNull String username) {
+        register(session, username, null);
+    }
+
+    /**
+     * Registers given session as logged in by given user via given login service, so that
+     * {@link #updatePrincipal(SimpleUserWithRoles)} knows which service to update.
+     */
+    void register(@NotNull VaadinSession session, @NotNull String username, @Nullable Class<? extends AbstractLoginService<?>> serviceClass) {
+        Objects.requireNonNull(username);
+        expungeCollected();
+        unregister(session);
+        installDestroyListener(session.getService());
+        session.setAttribute(USERNAME_ATTRIBUTE, username);
+        sessionsByUser.compute(username, (key, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+            }
+            sessions.add(new SessionRef(session, username, serviceClass, collected));
+            return sessions;
+        });
+    }
+
+    /**
+     * Registers given session again under the username it was registered under, unless it's registered already.
+     * Needed after the session has been deserialized: the session still carries the username, but the registry only
+     * knows the original session object. Called by {@link AbstractLoginService} the first time it's used after
+     * being deserialized; call it yourself for the sessions registered via {@link #register(VaadinSession, String)}.
+     * <p></p>
+     * Must be called with the session lock held.
+     * @param session the session, not null.
+     * @return true if the session has been registered, false if no user is logged into it or it's registered already.
+     */
+    public boolean restore(@NotNull VaadinSession session) {
+        return restore(session, null);
+    }
+
+    /**
+     * Registers given session again, like {@link #restore(VaadinSession)} does, remembering given login service.
+     */
+    boolean restore(@NotNull VaadinSession session, @Nullable Class<? extends AbstractLoginService<?>> serviceClass) {
+        final String username = (String) session.getAttribute(USERNAME_ATTRIBUTE);
+        if (username == null) {
+            return false;
+        }
+        expungeCollected();
+        installDestroyListener(session.getService());
+        final boolean[] added = {false};
+        sessionsByUser.compute(username, (key, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+            }
+            for (SessionRef ref : sessions) {
+                if (ref.get() == session) {
+                    return sessions;
+                }
+            }
+            sessions.add(new SessionRef(session, username, serviceClass, collected));
+            added[0] = true;
+            return sessions;
+        });
+        return added[0];
+    }
+
+    /**
+     * Unregisters given session. Does nothing if the session isn't registered. Called by
+     * {@link AbstractLoginService#logout()} and when Vaadin destroys the session.
+     * <p></p>
+     * Must be called with the session lock held.
+     * @param session the session, not null.
+     */
+    public void unregister(@NotNull VaadinSession session) {
+        final String username = (String) session.getAttribute(USERNAME_ATTRIBUTE);
+        if (username != null) {
+            session.setAttribute(USERNAME_ATTRIBUTE, null);
+            remove(username, ref -> ref.get() == session);
+        }
+    }
+
+    /**
+     * Returns the sessions given user is logged into.
+     * @param username the username, not null.
+     * @return the live sessions, may be empty. A snapshot: not updated as the user logs in and out.
+     */
+    @NotNull
+    public List<VaadinSession> getSessions(@NotNull String username) {
+        expungeCollected();
+        final Set<SessionRef> sessions = sessionsByUser.get(username);
+        if (sessions == null) {
+            return Collections.emptyList();
+        }
+        final List<VaadinSession> result = new ArrayList<>(sessions.size());
+        for (SessionRef ref : sessions) {
+            final VaadinSession session = ref.get();
+            if (session != null) {
+                result.add(session);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param username the username, not null.
+     * @return true if given user is logged into at least one session.
+     */
+    public boolean isLoggedIn(@NotNull String username) {
+        expungeCollected();
+        return sessionsByUser.containsKey(username);
+    }
+
+    /**
+     * @return the number of distinct users logged into at least one session.
+     */
+    public int getActiveUserCount() {
+        expungeCollected();
+        return sessionsByUser.size();
+    }
+
+    /**
+     * @return the usernames of the users logged into at least one session. Unmodifiable, reflects the changes
+     * of the registry.
+     */
+    @NotNull
+    public Set<String> getActiveUsernames() {
+        expungeCollected();
+        return Collections.unmodifiableSet(sessionsByUser.keySet());
+    }
+
+    /**
+     * Logs given user out of all of their sessions: each session is closed via {@link VaadinSession#access(com.vaadin.flow.server.Command)},
+     * together with the underlying HTTP session, and all of its UIs are reloaded so that they show the login view.
+     * The browser only sees the reload on the next round-trip, unless <code>@Push</code> is enabled.
+     * <p></p>
+     * Doesn't block: the sessions are closed asynchronously, as soon as their locks are available.
+     * @param username the username, not null.
+     * @return the number of sessions being logged out.
+     */
+    public int forceLogout(@NotNull String username) {
+        final List<VaadinSession> sessions = getSessions(username);
+        for (VaadinSession session : sessions) {
+            session.access(() -> {
+                unregister(session);
+                for (UI ui : session.getUIs()) {
+                    ui.getPage().reload();
+                }
+                session.close();
+                final WrappedSession httpSession = session.getSession();
+                if (httpSession != null) {
+                    httpSession.invalidate();
+                }
+            });
+        }
+        return sessions.size();
+    }
+
+    /**
+     * Pushes a new principal to all sessions of the user, e.g. after an admin changed the user's roles: calls
+     * {@link AbstractLoginService#updateCurrentPrincipal(SimpleUserWithRoles)} on the login service of each session
+     * via {@link VaadinSession#access(com.vaadin.flow.server.Command)}. The open UIs re-run the access checks of their
+     * current route, and the following navigations use the new roles without reloading the user.
+     * <p></p>
+     * Doesn't block: the sessions are updated asynchronously, as soon as their locks are available.
+     * @param serviceClass the class of the login service, as stored in the session by {@link AbstractLoginService#get(Class, java.util.function.Supplier)}.
+     * @param principal the new principal, not null. {@link SimpleUserWithRoles#getUsername()} identifies the user.
+     * @return the number of sessions being updated.
+     */
+    public int updatePrincipal(@NotNull Class<? extends AbstractLoginService<?>> serviceClass, @NotNull SimpleUserWithRoles principal) {
+        Objects.requireNonNull(serviceClass);
+        final List<VaadinSession> sessions = getSessions(principal.getUsername());
+        for (VaadinSession session : sessions) {
+            session.access(() -> {
+                final AbstractLoginService<?> service = session.getAttribute(serviceClass);
+                if (service != null) {
+                    service.updateCurrentPrincipal(principal);
+                }
+            });
+        }
+        return sessions.size();
+    }
+
+    /**
+     * Pushes a new principal to all sessions of the user, like {@link #updatePrincipal(Class, SimpleUserWithRoles)}
+     * does, updating the login service which logged the user into each session. Sessions registered directly
+     * via {@link #register(VaadinSession, String)} are skipped, since their login service is unknown.
+     * @param principal the new principal, not null. {@link SimpleUserWithRoles#getUsername()} identifies the user.
+     * @return the number of sessions being updated.
+     */
+    public int updatePrincipal(@NotNull SimpleUserWithRoles principal) {
+        expungeCollected();
+        final Set<SessionRef> refs = sessionsByUser.get(principal.getUsername());
+        if (refs == null) {
+            return 0;
+        }
+        int count = 0;
+        for (SessionRef ref : refs) {
+            final VaadinSession session = ref.get();
+            if (session != null && ref.serviceClass != null) {
+                session.access(() -> {
+                    final AbstractLoginService<?> service = session.getAttribute(ref.serviceClass);
+                    if (service != null) {
+                        service.updateCurrentPrincipal(principal);
+                    }
+                });
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets the bus delivering the invalidations to all nodes of the cluster. The invalidations received via the bus
+     * are applied to the sessions on this JVM, via {@link #forceLogout(String)} and {@link #updatePrincipal(SimpleUserWithRoles)}.
+     * @param bus the bus, or null to only reach the sessions on this JVM. The previous bus is not closed.
+     */
+    public void setInvalidationBus(@Nullable InvalidationBus bus) {
+        synchronized (invalidationListener) {
+            final InvalidationBus previous = invalidationBus;
+            if (previous != null) {
+                previous.removeListener(invalidationListener);
+            }
+            if (bus != null) {
+                bus.addListener(invalidationListener);
+            }
+            invalidationBus = bus;
+        }
+    }
+
+    /**
+     * @return the bus set via {@link #setInvalidationBus(InvalidationBus)}, or null if there's none.
+     */
+    @Nullable
+    public InvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    /**
+     * Logs given user out of all of their sessions on all nodes, e.g. after a password reset. Publishes the logout
+     * to the {@link #setInvalidationBus(InvalidationBus) invalidation bus}; calls {@link #forceLogout(String)}
+     * directly if there's no bus.
+     * <p></p>
+     * Doesn't block: the sessions are closed asynchronously.
+     * @param username the username, not null.
+     */
+    public void forceLogoutEverywhere(@NotNull String username) {
+        final InvalidationBus bus = invalidationBus;
+        if (bus == null) {
+            forceLogout(username);
+        } else {
+            bus.publish(Invalidation.logout(username));
+        }
+    }
+
+    /**
+     * Pushes a new principal to all sessions of the user on all nodes. Publishes the principal to the
+     * {@link #setInvalidationBus(InvalidationBus) invalidation bus}; calls {@link #updatePrincipal(SimpleUserWithRoles)}
+     * directly if there's no bus.
+     * <p></p>
+     * Doesn't block: the sessions are updated asynchronously.
+     * @param principal the new principal, not null. {@link SimpleUserWithRoles#getUsername()} identifies the user.
+     */
+    public void updatePrincipalEverywhere(@NotNull SimpleUserWithRoles principal) {
+        final InvalidationBus bus = invalidationBus;
+        if (bus == null) {
+            updatePrincipal(principal);
+        } else {
+            bus.publish(Invalidation.updatePrincipal(principal));
+        }
+    }
+
+    /**
+     * Removes the sessions matching given filter from given user; removes the user if no sessions remain.
+     */
+    private void remove(@NotNull String username, @NotNull Predicate<SessionRef> filter) {
+        sessionsByUser.computeIfPresent(username, (key, sessions) -> {
+            sessions.removeIf(filter);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * Removes the sessions which have been garbage-collected without being destroyed by Vaadin.
+     */
+    private void expungeCollected() {
+        for (Reference<? extends VaadinSession> ref = collected.poll(); ref != null; ref = collected.poll()) {
+            final SessionRef sessionRef = (SessionRef) ref;
+            remove(sessionRef.username, r -> r == sessionRef);
+        }
+    }
+
+    /**
+     * Makes sure that the sessions of given service are unregistered when Vaadin destroys them.
+     */
+    private static void installDestroyListener(@NotNull VaadinService service) {
+        final VaadinContext context = service.getContext();
+        synchronized (context) {
+            if (context.getAttribute(DestroyListener.class) == null) {
+                final DestroyListener listener = new DestroyListener();
+                service.addSessionDestroyListener(listener);
+                context.setAttribute(DestroyListener.class, listener);
+            }
+        }
+    }
+
+    private static final class DestroyListener implements SessionDestroyListener {
+        @Override
+        public void sessionDestroy(@NotNull SessionDestroyEvent event) {
+            get().unregister(event.getSession());
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.github.mvysny.vaadinsimplesecurity;
 
-import com.github.mvysny.vaadinsimplesecurity.util.PasswordHash;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordCheckResult;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashers;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashingOverloadedException;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashingService;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -41,24 +44,47 @@ public interface HasPassword {
 
     /**
      * Checks if the password provided by the user at login matches with whatever password user provided during the registration.
+     * The check goes through {@link PasswordHashingService#get()} which limits the number of concurrent checks.
      * @param password the password provided by the user at login.
+     * @throws PasswordHashingOverloadedException if there are too many concurrent password checks; the password
+     * hasn't been checked at all. Ask the user to try again later.
      */
     default boolean passwordMatches(@NotNull String password) {
+        return checkPassword(password).matches();
+    }
+
+    /**
+     * Checks if the password provided by the user at login matches with whatever password user provided during the registration.
+     * Unlike {@link #passwordMatches(String)}, this also reports whether the stored hash has been computed by an outdated
+     * algorithm or with weaker parameters than {@link PasswordHashers#getDefault()}; in such case call
+     * {@link #setPassword(String)} with the password and store the user, to transparently upgrade the hash.
+     * @param password the password provided by the user at login.
+     * @return the result of the check. {@link PasswordCheckResult#MISMATCH} if there's no password stored.
+     * @throws PasswordHashingOverloadedException if there are too many concurrent password checks; the password
+     * hasn't been checked at all. Ask the user to try again later.
+     */
+    @NotNull
+    default PasswordCheckResult checkPassword(@NotNull String password) {
         Objects.requireNonNull(password);
         final String hashedPassword = getHashedPassword();
-        return hashedPassword != null && PasswordHash.validatePassword(password, hashedPassword);
+        if (hashedPassword == null) {
+            return PasswordCheckResult.MISMATCH;
+        }
+        return PasswordHashingService.get().checkPassword(password, hashedPassword);
     }
 
     /**
      * When the user attempts to change the password, or a new user is created, call this function with the user-provided password;
-     * the function will in turn call {@link #setHashedPassword(String)}.
+     * the function will hash the password with {@link PasswordHashers#getDefault()} and will in turn call {@link #setHashedPassword(String)}.
      * @param password the new password. Nullable: SSO-only users may not have a password stored in this system.
+     * @throws PasswordHashingOverloadedException if there are too many concurrent password hash computations;
+     * the password hasn't been changed.
      */
     default void setPassword(@Nullable String password) {
         if (password == null) {
             setHashedPassword(null);
         } else {
-            setHashedPassword(PasswordHash.createHash(password));
+            setHashedPassword(PasswordHashingService.get().createHash(password));
         }
     }
 }
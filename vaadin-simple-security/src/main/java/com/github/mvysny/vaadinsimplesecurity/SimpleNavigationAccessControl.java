@@ -1,18 +1,28 @@
 package com.github.mvysny.vaadinsimplesecurity;
 
+import com.github.mvysny.vaadinsimplesecurity.access.AccessDecisionCache;
+import com.github.mvysny.vaadinsimplesecurity.access.RolesExpression;
+import com.github.mvysny.vaadinsimplesecurity.access.RouteAccessTable;
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.function.SerializableSupplier;
+import com.vaadin.flow.router.BeforeEnterEvent;
 import com.vaadin.flow.router.BeforeEnterListener;
+import com.vaadin.flow.router.RouteAlias;
 import com.vaadin.flow.server.UIInitListener;
 import com.vaadin.flow.server.VaadinRequest;
 import com.vaadin.flow.server.VaadinService;
 import com.vaadin.flow.server.VaadinServiceInitListener;
+import com.vaadin.flow.server.auth.AccessCheckResult;
 import com.vaadin.flow.server.auth.NavigationAccessControl;
+import com.vaadin.flow.server.auth.NavigationContext;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.security.Principal;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 
 /**
@@ -24,10 +34,47 @@ import java.util.function.Predicate;
  * The best way to do that is to register your {@link VaadinServiceInitListener},
  * then install {@link UIInitListener} via {@link VaadinService#addUIInitListener(UIInitListener)},
  * then register this to your UI.
+ * <p></p>
+ * The access decisions are cached in the {@link AccessDecisionCache} of this class, keyed by the route and the user's
+ * effective roles.
+ * Subclasses which override {@link #getPrincipal(VaadinRequest)} or {@link #getRolesChecker(VaadinRequest)} in a way
+ * which doesn't follow {@link SimpleUserWithRoles#getEffectiveRoles()}, or which add other access checkers, must turn
+ * the cache off via {@link #setDecisionCacheEnabled(boolean)}.
+ * <p></p>
+ * The {@link #loggedInUserSupplier} is called at most once per navigation: {@link #getPrincipal(VaadinRequest)}
+ * and {@link #getRolesChecker(VaadinRequest)} share the user resolved for the ongoing {@link BeforeEnterEvent}.
+ * See {@link #getSupplierInvocationCount()} and {@link #getNavigationCount()}.
  */
 public class SimpleNavigationAccessControl extends NavigationAccessControl {
     @NotNull
     private final SerializableSupplier<SimpleUserWithRoles> loggedInUserSupplier;
+    private boolean decisionCacheEnabled = true;
+    @NotNull
+    private final LongAdder navigations = new LongAdder();
+    @NotNull
+    private final LongAdder supplierInvocations = new LongAdder();
+
+    /**
+     * The navigation being checked by this thread. Static since this class is serializable; the navigations are
+     * told apart by {@link Navigation#owner}.
+     */
+    @NotNull
+    private static final ThreadLocal<Navigation> CURRENT_NAVIGATION = new ThreadLocal<>();
+
+    /**
+     * Remembers the user for the duration of a single {@link #beforeEnter(BeforeEnterEvent)} call.
+     */
+    private static final class Navigation {
+        @NotNull
+        private final SimpleNavigationAccessControl owner;
+        private boolean resolved = false;
+        @Nullable
+        private SimpleUserWithRoles user;
+
+        private Navigation(@NotNull SimpleNavigationAccessControl owner) {
+            this.owner = owner;
+        }
+    }
 
     /**
      * Creates the checker.
@@ -37,19 +84,198 @@ public class SimpleNavigationAccessControl extends NavigationAccessControl {
         this.loggedInUserSupplier = loggedInUserSupplier;
     }
 
+    @Override
+    public void beforeEnter(@NotNull BeforeEnterEvent event) {
+        navigations.increment();
+        final Navigation previous = CURRENT_NAVIGATION.get();
+        CURRENT_NAVIGATION.set(new Navigation(this));
+        try {
+            super.beforeEnter(event);
+        } finally {
+            if (previous == null) {
+                CURRENT_NAVIGATION.remove();
+            } else {
+                CURRENT_NAVIGATION.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Returns the currently logged-in user. During navigation, the user is obtained from the
+     * {@link #loggedInUserSupplier} only once and then reused for all checks of that navigation.
+     * @return the currently logged-in user, or null if no user is logged in.
+     */
+    @Nullable
+    protected final SimpleUserWithRoles getCurrentUser() {
+        final Navigation navigation = CURRENT_NAVIGATION.get();
+        if (navigation == null || navigation.owner != this) {
+            return loadUser();
+        }
+        if (!navigation.resolved) {
+            navigation.user = loadUser();
+            navigation.resolved = true;
+        }
+        return navigation.user;
+    }
+
+    @Nullable
+    private SimpleUserWithRoles loadUser() {
+        supplierInvocations.increment();
+        return loggedInUserSupplier.get();
+    }
+
+    /**
+     * @return how many times the {@link #loggedInUserSupplier} has been called.
+     */
+    public long getSupplierInvocationCount() {
+        return supplierInvocations.sum();
+    }
+
+    /**
+     * @return how many navigations this instance has checked. Compare with {@link #getSupplierInvocationCount()}
+     * to see the number of user lookups per navigation.
+     */
+    public long getNavigationCount() {
+        return navigations.sum();
+    }
+
     @Override
     @Nullable
     protected Principal getPrincipal(@Nullable VaadinRequest request) {
-        return loggedInUserSupplier.get();
+        return getCurrentUser();
     }
 
     @Override
     @NotNull
     protected Predicate<String> getRolesChecker(@Nullable VaadinRequest request) {
-        return role -> {
-            final SimpleUserWithRoles user = loggedInUserSupplier.get();
-            return user != null && user.hasRole(role);
-        };
+        final SimpleUserWithRoles user = getCurrentUser();
+        if (user == null) {
+            return role -> false;
+        }
+        // resolves the role hierarchy once, then every role check is a bit test
+        return user.getEffectiveRoles()::contains;
+    }
+
+    /**
+     * @param decisionCacheEnabled whether to cache the access decisions in {@link AccessDecisionCache}. Defaults to true.
+     */
+    public void setDecisionCacheEnabled(boolean decisionCacheEnabled) {
+        this.decisionCacheEnabled = decisionCacheEnabled;
+    }
+
+    /**
+     * @return whether the access decisions are cached in {@link AccessDecisionCache}.
+     */
+    public boolean isDecisionCacheEnabled() {
+        return decisionCacheEnabled;
+    }
+
+    @Override
+    @NotNull
+    protected AccessCheckResult checkAccess(@NotNull NavigationContext context, boolean productionMode) {
+        final AccessDecisionCache.Key key = decisionCacheKey(context, productionMode);
+        final VaadinService service = VaadinService.getCurrent();
+        if (key == null || service == null) {
+            return decide(context, productionMode);
+        }
+        return AccessDecisionCache.get(service, getClass()).get(key, () -> decide(context, productionMode));
+    }
+
+    @NotNull
+    private AccessCheckResult decide(@NotNull NavigationContext context, boolean productionMode) {
+        final VaadinService service = VaadinService.getCurrent();
+        RouteAccessTable table = RouteAccessTable.get(service);
+        if (table == null && service != null && context.getNavigationTarget().isAnnotationPresent(RolesExpression.class)) {
+            // Vaadin doesn't know @RolesExpression and would deny access. If the table can't be built, Vaadin
+            // checks the annotations and denies access.
+            table = RouteAccessTable.getOrInstall(service);
+        }
+        final Principal principal = context.getPrincipal();
+        if (table != null && !context.isErrorHandling() && context.getNavigationTarget() != getLoginView()
+                && (principal == null || principal instanceof SimpleUserWithRoles)) {
+            final RoleSet roles = principal == null ? null : ((SimpleUserWithRoles) principal).getEffectiveRoles();
+            final AccessCheckResult result = table.check(context.getNavigationTarget(), roles);
+            if (result != null) {
+                return result;
+            }
+        }
+        return super.checkAccess(context, productionMode);
+    }
+
+    /**
+     * @return the cache key, or null if the decision must not be cached.
+     */
+    @Nullable
+    private AccessDecisionCache.Key decisionCacheKey(@NotNull NavigationContext context, boolean productionMode) {
+        if (!decisionCacheEnabled) {
+            return null;
+        }
+        final Class<?> target = context.getNavigationTarget();
+        // the parent layouts of a route alias depend on the path, which is not part of the key
+        if (target.isAnnotationPresent(RouteAlias.class) || target.isAnnotationPresent(RouteAlias.Container.class)) {
+            return null;
+        }
+        final Principal principal = context.getPrincipal();
+        if (principal == null) {
+            return new AccessDecisionCache.Key(target, null, context.isErrorHandling(), productionMode);
+        }
+        if (principal instanceof SimpleUserWithRoles user) {
+            return new AccessDecisionCache.Key(target, user.getEffectiveRoles(), context.isErrorHandling(), productionMode);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the access annotations of all registered routes and their parent layouts into a {@link RouteAccessTable},
+     * so that the access checks become table lookups. Call from your <code>VaadinServiceInitListener</code>:
+     * <pre>
+     * public void serviceInit(ServiceInitEvent event) {
+     *     SimpleNavigationAccessControl.precompileRouteAccess(event.getSource());
+     * }
+     * </pre>
+     * If the <code>vaadin-simple-security-annotation-processor</code> ran at compile time, the access rules it
+     * generated are used, and the annotations aren't read via reflection at all.
+     * @param service the Vaadin service.
+     * @throws IllegalStateException if some routes or layouts have conflicting security annotations, so that the
+     * application fails to start rather than guessing which annotation applies.
+     */
+    public static void precompileRouteAccess(@NotNull VaadinService service) {
+        RouteAccessTable.install(service);
+    }
+
+    /**
+     * Lists the routes the currently logged-in user has access to, e.g. to build a navigation menu.
+     * See {@link #getAccessibleRoutes(SimpleUserWithRoles)} for details.
+     * @return the accessible routes in the order they were registered, unmodifiable.
+     */
+    @NotNull
+    public List<Class<?>> getAccessibleRoutes() {
+        return getAccessibleRoutes(getCurrentUser());
+    }
+
+    /**
+     * Lists the routes given user has access to, e.g. to build a navigation menu. Takes into account the access rules
+     * of both the routes and their parent layouts. The list is computed once per set of effective roles and then
+     * cached, so calling this when creating every UI is a single map lookup.
+     * <p></p>
+     * Reads the routes from the {@link RouteAccessTable}; calls {@link #precompileRouteAccess(VaadinService)} if it
+     * hasn't been called yet. Routes reachable with different parent layouts aren't listed.
+     * @param user the user, or null for the anonymous user.
+     * @return the accessible routes in the order they were registered, unmodifiable.
+     * @throws IllegalStateException if called outside of a Vaadin request, or if some routes or layouts have
+     * conflicting security annotations.
+     */
+    @NotNull
+    public List<Class<?>> getAccessibleRoutes(@Nullable SimpleUserWithRoles user) {
+        final VaadinService service = VaadinService.getCurrent();
+        if (service == null) {
+            throw new IllegalStateException("No VaadinService available; call this from a Vaadin request");
+        }
+        final RouteAccessTable table = RouteAccessTable.getOrInstall(service);
+        if (table == null) {
+            throw new IllegalStateException("Some routes or layouts have conflicting security annotations, see the log for details");
+        }
+        return table.getAccessibleRoutes(user == null ? null : user.getEffectiveRoles());
     }
 
     /**
@@ -1,8 +1,18 @@
 package com.github.mvysny.vaadinsimplesecurity;
 
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleHierarchy;
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet;
+import com.github.mvysny.vaadinsimplesecurity.util.CompactIO;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.Serial;
 import java.io.Serializable;
 import java.security.Principal;
 import java.util.Objects;
@@ -13,6 +23,9 @@ import java.util.Set;
  * <p></p>
  * Since {@link #username} uniquely identifies the user, this object {@link #equals(Object) equality}
  * is based on username alone - roles are ignored.
+ * <p></p>
+ * Stored in the session, and therefore serialized compactly: just the username and the role names,
+ * without class descriptors.
  */
 public final class SimpleUserWithRoles implements Principal, Serializable {
     /**
@@ -22,10 +35,10 @@ public final class SimpleUserWithRoles implements Principal, Serializable {
     private final String username;
     /**
      * The roles assigned to this user. See <a href="https://en.wikipedia.org/wiki/Role-based_access_control">Role-Based Access Control (RBAC)</a>
-     * for more details.
+     * for more details. Canonical, shared by all users with the same roles.
      */
     @NotNull
-    private final Set<String> roles;
+    private final RoleSet roles;
 
     /**
      * Creates a user.
@@ -34,7 +47,7 @@ public final class SimpleUserWithRoles implements Principal, Serializable {
      */
     public SimpleUserWithRoles(@NotNull String username, @Nullable Set<String> roles) {
         this.username = username;
-        this.roles = roles == null ? Set.of() : Set.copyOf(roles);
+        this.roles = roles == null ? RoleSet.EMPTY : RoleSet.of(roles);
     }
 
     /**
@@ -60,8 +73,32 @@ public final class SimpleUserWithRoles implements Principal, Serializable {
         return roles;
     }
 
+    /**
+     * Returns the roles assigned to this user, as a bitset.
+     * @return user's roles. May be empty. Immutable, shared by all users with the same roles.
+     */
+    @NotNull
+    public RoleSet getRoleSet() {
+        return roles;
+    }
+
+    /**
+     * Returns the roles assigned to this user together with the roles they imply, as defined by
+     * {@link RoleHierarchy#getGlobal()}.
+     * @return user's effective roles. May be empty. Immutable, shared by all users with the same roles.
+     */
+    @NotNull
+    public RoleSet getEffectiveRoles() {
+        return RoleHierarchy.getGlobal().expand(roles);
+    }
+
+    /**
+     * Checks whether this user has given role, either assigned or implied by {@link RoleHierarchy#getGlobal()}.
+     * @param role the role, not null.
+     * @return true if the user has the role.
+     */
     public boolean hasRole(@NotNull String role) {
-        return getRoles().contains(role);
+        return getEffectiveRoles().contains(role);
     }
 
     @Override
@@ -87,4 +124,57 @@ public final class SimpleUserWithRoles implements Principal, Serializable {
     public int hashCode() {
         return Objects.hash(username);
     }
+
+    @Serial
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    @Serial
+    private void readObject(@NotNull ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("Serialized via SerializedForm");
+    }
+
+    /**
+     * The serialized form: a version byte, the username and the role names. The role ids are only valid
+     * within a single JVM, so the names are written; deserialization returns the canonical {@link RoleSet}.
+     */
+    private static final class SerializedForm implements Externalizable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private static final byte VERSION = 1;
+        private SimpleUserWithRoles user;
+
+        /**
+         * Used by the deserialization.
+         */
+        public SerializedForm() {
+        }
+
+        private SerializedForm(@NotNull SimpleUserWithRoles user) {
+            this.user = user;
+        }
+
+        @Override
+        public void writeExternal(@NotNull ObjectOutput out) throws IOException {
+            out.writeByte(VERSION);
+            out.writeUTF(user.username);
+            CompactIO.writeStrings(out, user.roles);
+        }
+
+        @Override
+        public void readExternal(@NotNull ObjectInput in) throws IOException {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new InvalidObjectException("Unsupported serialized form version " + version);
+            }
+            final String username = in.readUTF();
+            user = new SimpleUserWithRoles(username, RoleSet.of(CompactIO.readStrings(in)));
+        }
+
+        @Serial
+        private Object readResolve() {
+            return user;
+        }
+    }
 }
@@ -0,0 +1,211 @@
+package com.github.mvysny.vaadinsimplesecurity.access;
+
+import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl;
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet;
+import com.vaadin.flow.router.Router;
+import com.vaadin.flow.server.VaadinContext;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.auth.AccessCheckResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caches the access decisions made by {@link SimpleNavigationAccessControl}. Evaluating the access annotations of
+ * the route and its parent layouts is reflective and relatively slow, yet the decision only depends on the route,
+ * on whether the user is logged in, and on the user's roles; and the users share a small number of distinct
+ * {@link RoleSet}s. The cached {@link AccessCheckResult} also determines whether the anonymous user is redirected
+ * to the login view or denied access.
+ * <p></p>
+ * There's one cache per Vaadin service and access control class, see {@link #get(VaadinService, Class)}: the instances
+ * of one class (usually one per UI) share the cache, while subclasses which check the access differently get their own.
+ * All instances of one class must therefore be configured the same way, e.g. with the same login view.
+ * <p></p>
+ * The cache is bounded: once full, the least recently used decision is dropped. It's emptied whenever the routes
+ * change, e.g. on hot redeploy in development mode. Routes registered with different parent layouts per session are not
+ * supported: turn the cache off via {@link SimpleNavigationAccessControl#setDecisionCacheEnabled(boolean)}
+ * in such case.
+ * <p></p>
+ * Thread-safe.
+ */
+public final class AccessDecisionCache {
+    /**
+     * The default {@link #getMaxSize()}.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    /**
+     * The caches of a Vaadin service, stored in its {@link VaadinContext}.
+     */
+    private static final class Caches {
+        @NotNull
+        private final ConcurrentHashMap<Class<?>, AccessDecisionCache> byControlClass = new ConcurrentHashMap<>();
+
+        private void clear() {
+            for (AccessDecisionCache cache : byControlClass.values()) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the cache of given access control class, creating it if it doesn't exist yet. The cache is emptied
+     * whenever the routes of the service change.
+     * @param service the Vaadin service, not null.
+     * @param controlClass the class of the access control making the decisions, not null.
+     * @return the cache.
+     */
+    @NotNull
+    public static AccessDecisionCache get(@NotNull VaadinService service, @NotNull Class<?> controlClass) {
+        Objects.requireNonNull(controlClass);
+        final VaadinContext context = service.getContext();
+        Caches caches;
+        synchronized (context) {
+            caches = context.getAttribute(Caches.class);
+            if (caches == null) {
+                final Caches created = new Caches();
+                context.setAttribute(Caches.class, created);
+                final Router router = service.getRouter();
+                if (router != null) {
+                    router.getRegistry().addRoutesChangeListener(event -> created.clear());
+                }
+                caches = created;
+            }
+        }
+        return caches.byControlClass.computeIfAbsent(controlClass, c -> new AccessDecisionCache());
+    }
+
+    /**
+     * The cache key.
+     * @param navigationTarget the route class.
+     * @param roles the effective roles of the logged-in user; null if no user is logged in.
+     * @param errorHandling whether the navigation is an error handling navigation.
+     * @param productionMode the production mode affects the reason of the decision.
+     */
+    public record Key(@NotNull Class<?> navigationTarget, @Nullable RoleSet roles, boolean errorHandling,
+                      boolean productionMode) {
+        public Key {
+            Objects.requireNonNull(navigationTarget);
+        }
+    }
+
+    /**
+     * The decisions in the access order, the least recently used first. Guarded by itself.
+     */
+    @NotNull
+    private final LinkedHashMap<Key, AccessCheckResult> decisions = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    @NotNull
+    private final LongAdder hits = new LongAdder();
+    @NotNull
+    private final LongAdder misses = new LongAdder();
+    @NotNull
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache. {@link SimpleNavigationAccessControl} uses the caches returned by
+     * {@link #get(VaadinService, Class)}.
+     */
+    public AccessDecisionCache() {
+    }
+
+    /**
+     * Returns the cached decision, or computes and caches it.
+     * @param key the key, not null.
+     * @param decision computes the decision.
+     * @return the decision.
+     */
+    @NotNull
+    public AccessCheckResult get(@NotNull Key key, @NotNull Supplier<AccessCheckResult> decision) {
+        Objects.requireNonNull(key);
+        final AccessCheckResult cached;
+        synchronized (decisions) {
+            cached = decisions.get(key);
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        // computed outside of the lock: the decision is slow, and computing it twice is harmless
+        final AccessCheckResult result = Objects.requireNonNull(decision.get());
+        synchronized (decisions) {
+            decisions.put(key, result);
+            final Iterator<AccessCheckResult> leastRecentlyUsed = decisions.values().iterator();
+            while (decisions.size() > maxSize) {
+                leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                evictions.increment();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all cached decisions. Call when the access rules change in a way the cache can't detect.
+     */
+    public void clear() {
+        synchronized (decisions) {
+            decisions.clear();
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of cached decisions, 1 or greater. Defaults to {@link #DEFAULT_MAX_SIZE}.
+     * A smaller size takes effect when the next decision is cached.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Parameter maxSize: invalid value " + maxSize + ": must be 1 or greater");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the maximum number of cached decisions.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of cached decisions.
+     */
+    public int size() {
+        synchronized (decisions) {
+            return decisions.size();
+        }
+    }
+
+    /**
+     * @return how many times a cached decision has been used.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return how many times a decision had to be computed.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return how many least recently used decisions have been dropped because the cache was full.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AccessDecisionCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + '}';
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.mvysny.vaadinsimplesecurity.access;
+
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleExpression;
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet;
+import com.vaadin.flow.server.auth.AnonymousAllowed;
+import jakarta.annotation.security.DenyAll;
+import jakarta.annotation.security.PermitAll;
+import jakarta.annotation.security.RolesAllowed;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The access rule of a route or a router layout, as declared by its <code>@DenyAll</code>,
+ * <code>@AnonymousAllowed</code>, <code>@PermitAll</code>, <code>@RolesAllowed</code> or {@link RolesExpression}
+ * annotation.
+ * Evaluated without reflection, as a bit test against the user's {@link RoleSet}.
+ * <p></p>
+ * Immutable, thread-safe.
+ */
+public final class AccessRule {
+    /**
+     * The kind of the rule.
+     */
+    public enum Kind {
+        /**
+         * <code>@DenyAll</code>: nobody has access.
+         */
+        DENY_ALL,
+        /**
+         * <code>@AnonymousAllowed</code>: everybody has access, even users which are not logged in.
+         */
+        ANONYMOUS_ALLOWED,
+        /**
+         * <code>@PermitAll</code>: all logged-in users have access.
+         */
+        PERMIT_ALL,
+        /**
+         * <code>@RolesAllowed</code>: logged-in users with at least one of the roles have access.
+         */
+        ROLES_ALLOWED,
+        /**
+         * {@link RolesExpression}: logged-in users whose roles satisfy the expression have access.
+         */
+        ROLES_EXPRESSION,
+        /**
+         * No annotation: nobody has access.
+         */
+        NONE
+    }
+
+    private static final List<Class<? extends Annotation>> SECURITY_ANNOTATIONS = List.of(
+            DenyAll.class, AnonymousAllowed.class, PermitAll.class, RolesAllowed.class, RolesExpression.class);
+
+    @NotNull
+    private final Class<?> annotatedClass;
+    @NotNull
+    private final Kind kind;
+    @NotNull
+    private final RoleSet roles;
+    @Nullable
+    private final RoleExpression expression;
+
+    private AccessRule(@NotNull Class<?> annotatedClass, @NotNull Kind kind, @NotNull RoleSet roles, @Nullable RoleExpression expression) {
+        this.annotatedClass = Objects.requireNonNull(annotatedClass);
+        this.kind = Objects.requireNonNull(kind);
+        this.roles = Objects.requireNonNull(roles);
+        this.expression = expression;
+    }
+
+    /**
+     * Creates a rule.
+     * @param annotatedClass the class carrying the annotation.
+     * @param kind the kind of the rule, not {@link Kind#ROLES_EXPRESSION}.
+     * @param roles the allowed roles if the kind is {@link Kind#ROLES_ALLOWED}, otherwise ignored.
+     * @return the rule.
+     */
+    @NotNull
+    public static AccessRule of(@NotNull Class<?> annotatedClass, @NotNull Kind kind, @NotNull String... roles) {
+        if (kind == Kind.ROLES_EXPRESSION) {
+            throw new IllegalArgumentException("Parameter kind: invalid value " + kind + ": use of(Class, RoleExpression)");
+        }
+        return new AccessRule(annotatedClass, kind, kind == Kind.ROLES_ALLOWED ? RoleSet.of(roles) : RoleSet.EMPTY, null);
+    }
+
+    /**
+     * Creates a {@link Kind#ROLES_EXPRESSION} rule.
+     * @param annotatedClass the class carrying the annotation.
+     * @param expression the role expression.
+     * @return the rule.
+     */
+    @NotNull
+    public static AccessRule of(@NotNull Class<?> annotatedClass, @NotNull RoleExpression expression) {
+        return new AccessRule(annotatedClass, Kind.ROLES_EXPRESSION, RoleSet.EMPTY, Objects.requireNonNull(expression));
+    }
+
+    /**
+     * Reads the rule from the annotations of given class. Like Vaadin's <code>AccessAnnotationChecker</code>,
+     * uses the annotations of the class or of its nearest annotated superclass.
+     * @param clazz the route or the router layout class.
+     * @return the rule.
+     * @throws IllegalStateException if the class carries more than one security annotation: Vaadin would silently
+     * pick one of them, which is most probably not what the developer intended. Also thrown if the
+     * {@link RolesExpression} is malformed.
+     */
+    @NotNull
+    public static AccessRule of(@NotNull Class<?> clazz) {
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            final List<String> present = new ArrayList<>();
+            for (Class<? extends Annotation> annotation : SECURITY_ANNOTATIONS) {
+                if (c.isAnnotationPresent(annotation)) {
+                    present.add("@" + annotation.getSimpleName());
+                }
+            }
+            if (present.size() > 1) {
+                throw new IllegalStateException(c.getName() + " has conflicting security annotations " + present
+                        + (c == clazz ? "" : ", inherited by " + clazz.getName()) + "; keep only one of them");
+            }
+            if (c.isAnnotationPresent(DenyAll.class)) {
+                return of(c, Kind.DENY_ALL);
+            }
+            if (c.isAnnotationPresent(AnonymousAllowed.class)) {
+                return of(c, Kind.ANONYMOUS_ALLOWED);
+            }
+            if (c.isAnnotationPresent(PermitAll.class)) {
+                return of(c, Kind.PERMIT_ALL);
+            }
+            final RolesAllowed rolesAllowed = c.getAnnotation(RolesAllowed.class);
+            if (rolesAllowed != null) {
+                return of(c, Kind.ROLES_ALLOWED, rolesAllowed.value());
+            }
+            final RolesExpression rolesExpression = c.getAnnotation(RolesExpression.class);
+            if (rolesExpression != null) {
+                try {
+                    return of(c, RoleExpression.parse(rolesExpression.value()));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalStateException(c.getName() + " has an invalid @RolesExpression: " + ex.getMessage(), ex);
+                }
+            }
+        }
+        return of(clazz, Kind.NONE);
+    }
+
+    /**
+     * @param roles the effective roles of the logged-in user, or null if no user is logged in.
+     * @return true if the user has access.
+     */
+    public boolean allows(@Nullable RoleSet roles) {
+        return switch (kind) {
+            case DENY_ALL, NONE -> false;
+            case ANONYMOUS_ALLOWED -> true;
+            case PERMIT_ALL -> roles != null;
+            case ROLES_ALLOWED -> roles != null && roles.intersects(this.roles);
+            case ROLES_EXPRESSION -> roles != null && expression.test(roles);
+        };
+    }
+
+    /**
+     * @return the class carrying the annotation.
+     */
+    @NotNull
+    public Class<?> getAnnotatedClass() {
+        return annotatedClass;
+    }
+
+    /**
+     * @return the kind of the rule.
+     */
+    @NotNull
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the roles allowed by {@link Kind#ROLES_ALLOWED}; empty for other kinds.
+     */
+    @NotNull
+    public RoleSet getRoles() {
+        return roles;
+    }
+
+    /**
+     * @return the expression of {@link Kind#ROLES_EXPRESSION}; null for other kinds.
+     */
+    @Nullable
+    public RoleExpression getExpression() {
+        return expression;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AccessRule that = (AccessRule) o;
+        return annotatedClass.equals(that.annotatedClass) && kind == that.kind && roles.equals(that.roles) && Objects.equals(expression, that.expression);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(annotatedClass, kind, roles, expression);
+    }
+
+    @Override
+    public String toString() {
+        return "AccessRule{" + annotatedClass.getSimpleName() + ": " + kind + (kind == Kind.ROLES_ALLOWED ? " " + roles : "")
+                + (expression != null ? " " + expression : "") + '}';
+    }
+}
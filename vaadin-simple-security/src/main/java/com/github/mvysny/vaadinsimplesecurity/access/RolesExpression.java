@@ -0,0 +1,31 @@
+package com.github.mvysny.vaadinsimplesecurity.access;
+
+import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl;
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleExpression;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Allows access to logged-in users whose roles satisfy a boolean expression, e.g.
+ * <code>@RolesExpression("ROLE_ADMIN or (ROLE_AUDITOR and not ROLE_CONTRACTOR)")</code>. Use instead of
+ * <code>@RolesAllowed</code>, which can only express "any of these roles"; don't combine with other security
+ * annotations. See {@link RoleExpression} for the syntax.
+ * <p></p>
+ * Vaadin doesn't know this annotation: routes and layouts carrying it are checked by
+ * {@link SimpleNavigationAccessControl} via the {@link RouteAccessTable}. Layouts carrying it require
+ * {@link SimpleNavigationAccessControl#precompileRouteAccess(com.vaadin.flow.server.VaadinService)}.
+ * Components can be checked via {@link AccessRule#of(Class)}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface RolesExpression {
+    /**
+     * @return the role expression.
+     */
+    String value();
+}
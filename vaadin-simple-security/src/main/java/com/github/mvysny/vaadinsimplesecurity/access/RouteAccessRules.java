@@ -0,0 +1,38 @@
+package com.github.mvysny.vaadinsimplesecurity.access;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The access rules of routes and router layouts, computed at compile time by the
+ * <code>vaadin-simple-security-annotation-processor</code>. The processor generates an implementation of this
+ * interface and registers it in <code>META-INF/services</code>; {@link RouteAccessTable} then uses the generated rules
+ * instead of reading the annotations via reflection.
+ * <p></p>
+ * You don't need to implement this interface yourself.
+ */
+public interface RouteAccessRules {
+    /**
+     * @return the access rules, keyed by the route or router layout class. Classes the processor couldn't see,
+     * e.g. layouts from libraries, are missing: their annotations are read at runtime.
+     */
+    @NotNull
+    Map<Class<?>, AccessRule> getRules();
+
+    /**
+     * Loads the rules of all generated implementations visible to given class loader.
+     * @param classLoader the class loader, not null.
+     * @return the rules of all implementations, empty if the annotation processor didn't run.
+     */
+    @NotNull
+    static Map<Class<?>, AccessRule> load(@NotNull ClassLoader classLoader) {
+        final Map<Class<?>, AccessRule> result = new HashMap<>();
+        for (RouteAccessRules rules : ServiceLoader.load(RouteAccessRules.class, classLoader)) {
+            result.putAll(rules.getRules());
+        }
+        return result;
+    }
+}
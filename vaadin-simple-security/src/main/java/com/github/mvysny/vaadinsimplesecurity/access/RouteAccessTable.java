@@ -0,0 +1,417 @@
+package com.github.mvysny.vaadinsimplesecurity.access;
+
+import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl;
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet;
+import com.vaadin.flow.router.RouteAliasData;
+import com.vaadin.flow.router.RouteData;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.RouteRegistry;
+import com.vaadin.flow.server.VaadinContext;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.auth.AccessCheckResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The access rules of all routes and their parent layouts, read once at startup, so that access checks are table
+ * lookups rather than reflection. Mirrors the semantics of Vaadin's <code>AnnotatedViewAccessChecker</code>:
+ * all parent layouts must be accessible, then the route itself must be accessible.
+ * <p></p>
+ * Building the table validates the annotations, so that misconfigured routes are found at startup rather than
+ * when somebody navigates to them: a class with conflicting security annotations fails the build.
+ * If the <code>vaadin-simple-security-annotation-processor</code> ran at compile time, the {@link RouteAccessRules}
+ * it generated are used instead, and only classes the processor couldn't see are read via reflection.
+ * <p></p>
+ * Enable it in your <code>VaadinServiceInitListener</code> via
+ * {@link SimpleNavigationAccessControl#precompileRouteAccess(VaadinService)}. Routes which are not in the table,
+ * e.g. because they were registered later or are reachable with different parent layouts, are checked by Vaadin as
+ * usual.
+ * <p></p>
+ * Immutable, thread-safe.
+ */
+public final class RouteAccessTable {
+    @NotNull
+    private static final Logger log = LoggerFactory.getLogger(RouteAccessTable.class);
+
+    /**
+     * A parent layout of a route.
+     * @param layout the layout class.
+     * @param rule the layout's access rule.
+     */
+    private record Layout(@NotNull Class<?> layout, @NotNull AccessRule rule) {
+    }
+
+    /**
+     * A route.
+     * @param rule the route's access rule.
+     * @param layouts the parent layouts.
+     */
+    private record Route(@NotNull AccessRule rule, @NotNull List<Layout> layouts) {
+    }
+
+    /**
+     * The routes, in the order they were added.
+     */
+    @NotNull
+    private final Map<Class<?>, Route> routes;
+    /**
+     * Caches {@link #getAccessibleRoutes(RoleSet)} per canonical role set.
+     */
+    @NotNull
+    private final ConcurrentHashMap<RoleSet, List<Class<?>>> accessibleRoutes = new ConcurrentHashMap<>();
+    /**
+     * Caches {@link #getAccessibleRoutes(RoleSet)} for the anonymous user, null if not yet computed.
+     */
+    @Nullable
+    private volatile List<Class<?>> anonymousRoutes;
+
+    private RouteAccessTable(@NotNull Map<Class<?>, Route> routes) {
+        this.routes = Collections.unmodifiableMap(new LinkedHashMap<>(routes));
+    }
+
+    /**
+     * Checks whether a user has access to given route.
+     * @param navigationTarget the route class.
+     * @param roles the effective roles of the logged-in user, or null if no user is logged in.
+     * @return the decision, or null if the route is not in this table.
+     */
+    @Nullable
+    public AccessCheckResult check(@NotNull Class<?> navigationTarget, @Nullable RoleSet roles) {
+        final Route route = routes.get(navigationTarget);
+        if (route == null) {
+            return null;
+        }
+        for (Layout layout : route.layouts()) {
+            if (!layout.rule().allows(roles)) {
+                return AccessCheckResult.deny("Denied access to view '" + navigationTarget.getSimpleName()
+                        + "' due to parent layout '" + layout.layout().getSimpleName() + "' access rules. Consider adding one of the following annotations to make the parent layout accessible: @AnonymousAllowed, @PermitAll, or @RolesAllowed.");
+            }
+        }
+        if (route.rule().allows(roles)) {
+            return AccessCheckResult.allow();
+        }
+        if (route.rule().getKind() == AccessRule.Kind.NONE) {
+            return AccessCheckResult.deny("Consider adding one of the following annotations to make the view accessible: @AnonymousAllowed, @PermitAll, or @RolesAllowed.");
+        }
+        return AccessCheckResult.deny("Access is denied by annotations on the view.");
+    }
+
+    /**
+     * Lists the routes the user has access to, e.g. to build a navigation menu. Computed once per role set, then
+     * it's a single map lookup.
+     * @param roles the effective roles of the logged-in user, or null if no user is logged in.
+     * @return the accessible routes in the order they were registered, unmodifiable.
+     */
+    @NotNull
+    public List<Class<?>> getAccessibleRoutes(@Nullable RoleSet roles) {
+        if (roles == null) {
+            List<Class<?>> result = anonymousRoutes;
+            if (result == null) {
+                result = computeAccessibleRoutes(null);
+                anonymousRoutes = result;
+            }
+            return result;
+        }
+        return accessibleRoutes.computeIfAbsent(roles, this::computeAccessibleRoutes);
+    }
+
+    @NotNull
+    private List<Class<?>> computeAccessibleRoutes(@Nullable RoleSet roles) {
+        final List<Class<?>> result = new ArrayList<>();
+        for (Map.Entry<Class<?>, Route> entry : routes.entrySet()) {
+            if (allows(entry.getValue(), roles)) {
+                result.add(entry.getKey());
+            }
+        }
+        return List.copyOf(result);
+    }
+
+    private static boolean allows(@NotNull Route route, @Nullable RoleSet roles) {
+        for (Layout layout : route.layouts()) {
+            if (!layout.rule().allows(roles)) {
+                return false;
+            }
+        }
+        return route.rule().allows(roles);
+    }
+
+    /**
+     * @param navigationTarget the route class.
+     * @return true if this table decides the access to given route.
+     */
+    public boolean contains(@NotNull Class<?> navigationTarget) {
+        return routes.containsKey(navigationTarget);
+    }
+
+    /**
+     * @return the number of routes in this table.
+     */
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * @param navigationTarget the route class.
+     * @return the access rule of given route, or null if the route is not in this table.
+     */
+    @Nullable
+    public AccessRule getRule(@NotNull Class<?> navigationTarget) {
+        final Route route = routes.get(navigationTarget);
+        return route == null ? null : route.rule();
+    }
+
+    /**
+     * Builds the table from all routes registered in given registry, using the {@link RouteAccessRules} generated
+     * at compile time where available.
+     * @param registry the route registry.
+     * @return the table.
+     * @throws IllegalStateException if some routes or layouts have conflicting security annotations.
+     */
+    @NotNull
+    public static RouteAccessTable fromRegistry(@NotNull RouteRegistry registry) {
+        final Builder builder = builder().addRules(RouteAccessRules.load(getClassLoader()));
+        for (RouteData route : registry.getRegisteredRoutes()) {
+            builder.addRoute(route.getNavigationTarget(), route.getParentLayouts());
+            for (RouteAliasData alias : route.getRouteAliases()) {
+                builder.addRoute(alias.getNavigationTarget(), alias.getParentLayouts());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the table from the routes of given service and stores it in the service's context, where
+     * {@link SimpleNavigationAccessControl} picks it up. The table is rebuilt whenever the routes change; if the
+     * rebuilt table fails, {@link #get(VaadinService)} returns null and the routes are checked by Vaadin as usual.
+     * @param service the Vaadin service.
+     * @return the table.
+     * @throws IllegalStateException if some routes or layouts have conflicting security annotations.
+     */
+    @NotNull
+    public static RouteAccessTable install(@NotNull VaadinService service) {
+        final VaadinContext context = service.getContext();
+        synchronized (context) {
+            final RouteAccessTable table = fromRegistry(service.getRouter().getRegistry());
+            context.setAttribute(RouteAccessTable.class, table);
+            context.removeAttribute(BuildFailure.class);
+            watchRoutes(service);
+            return table;
+        }
+    }
+
+    /**
+     * Returns the table of given service, installing it via {@link #install(VaadinService)} if it hasn't been
+     * installed yet. Unlike {@link #install(VaadinService)}, doesn't fail on conflicting security annotations:
+     * logs the failure, returns null, and doesn't try again until the routes change. Meant to be called during
+     * navigation, when the routes should be checked by Vaadin as usual rather than fail.
+     * @param service the Vaadin service.
+     * @return the table, or null if some routes or layouts have conflicting security annotations.
+     */
+    @Nullable
+    public static RouteAccessTable getOrInstall(@NotNull VaadinService service) {
+        final VaadinContext context = service.getContext();
+        synchronized (context) {
+            final RouteAccessTable table = context.getAttribute(RouteAccessTable.class);
+            if (table != null || context.getAttribute(BuildFailure.class) != null) {
+                return table;
+            }
+            try {
+                return install(service);
+            } catch (IllegalStateException ex) {
+                log.error("Failed to build the route access table, falling back to checking the annotations on every navigation", ex);
+                context.setAttribute(BuildFailure.class, new BuildFailure(ex));
+                watchRoutes(service);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Stored in the service's context if the table couldn't be built, so that {@link #getOrInstall(VaadinService)}
+     * doesn't retry on every navigation.
+     * @param cause the conflicting annotations.
+     */
+    private record BuildFailure(@NotNull IllegalStateException cause) {
+    }
+
+    /**
+     * Stored in the service's context once the routes are watched, so that the listener is registered only once.
+     */
+    private static final class RoutesWatcher {
+    }
+
+    /**
+     * Rebuilds the table whenever the routes change. Call while holding the context lock.
+     */
+    private static void watchRoutes(@NotNull VaadinService service) {
+        final VaadinContext context = service.getContext();
+        if (context.getAttribute(RoutesWatcher.class) != null) {
+            return;
+        }
+        context.setAttribute(RoutesWatcher.class, new RoutesWatcher());
+        final RouteRegistry registry = service.getRouter().getRegistry();
+        registry.addRoutesChangeListener(event -> {
+            synchronized (context) {
+                try {
+                    context.setAttribute(RouteAccessTable.class, fromRegistry(registry));
+                    context.removeAttribute(BuildFailure.class);
+                } catch (IllegalStateException ex) {
+                    log.error("Routes changed, falling back to checking the annotations on every navigation", ex);
+                    context.removeAttribute(RouteAccessTable.class);
+                    context.setAttribute(BuildFailure.class, new BuildFailure(ex));
+                }
+            }
+        });
+    }
+
+    @NotNull
+    private static ClassLoader getClassLoader() {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader != null ? classLoader : RouteAccessTable.class.getClassLoader();
+    }
+
+    /**
+     * @param service the Vaadin service, may be null.
+     * @return the table installed via {@link #install(VaadinService)}, or null if there's none.
+     */
+    @Nullable
+    public static RouteAccessTable get(@Nullable VaadinService service) {
+        return service == null ? null : service.getContext().getAttribute(RouteAccessTable.class);
+    }
+
+    /**
+     * @return a new builder.
+     */
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Collects the routes. Not thread-safe.
+     */
+    public static final class Builder {
+        @NotNull
+        private final Map<Class<?>, Route> routes = new LinkedHashMap<>();
+        /**
+         * Routes reachable with different parent layouts, whose access depends on the path. Left out of the table.
+         */
+        @NotNull
+        private final Set<Class<?>> ambiguous = new HashSet<>();
+        @NotNull
+        private final Set<String> problems = new LinkedHashSet<>();
+        /**
+         * Known access rules, used instead of reading the annotations.
+         */
+        @NotNull
+        private final Map<Class<?>, AccessRule> rules = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Registers known access rules, e.g. the {@link RouteAccessRules} generated at compile time.
+         * {@link #addRoute(Class, List)} uses them instead of reading the annotations.
+         * @param rules the rules, keyed by the route or router layout class.
+         * @return this
+         */
+        @NotNull
+        public Builder addRules(@NotNull Map<Class<?>, AccessRule> rules) {
+            this.rules.putAll(rules);
+            return this;
+        }
+
+        /**
+         * Adds a route, reading the access rules from the annotations of the route and its parent layouts,
+         * unless they're known via {@link #addRules(Map)}.
+         * @param navigationTarget the route class.
+         * @param parentLayouts the parent layouts of the route, may be empty.
+         * @return this
+         */
+        @NotNull
+        public Builder addRoute(@NotNull Class<?> navigationTarget, @NotNull List<? extends Class<? extends RouterLayout>> parentLayouts) {
+            final AccessRule rule = readRule(navigationTarget);
+            final List<AccessRule> layoutRules = new ArrayList<>();
+            for (Class<? extends RouterLayout> layout : parentLayouts) {
+                layoutRules.add(readRule(layout));
+            }
+            if (rule == null || layoutRules.contains(null)) {
+                return this;
+            }
+            return addRoute(navigationTarget, rule, new ArrayList<>(parentLayouts), layoutRules);
+        }
+
+        /**
+         * Adds a route with known access rules.
+         * @param navigationTarget the route class.
+         * @param rule the access rule of the route.
+         * @param parentLayouts the parent layouts of the route, may be empty.
+         * @param layoutRules the access rules of the parent layouts, in the same order.
+         * @return this
+         */
+        @NotNull
+        public Builder addRoute(@NotNull Class<?> navigationTarget, @NotNull AccessRule rule,
+                                @NotNull List<Class<?>> parentLayouts, @NotNull List<AccessRule> layoutRules) {
+            if (parentLayouts.size() != layoutRules.size()) {
+                throw new IllegalArgumentException("Parameter layoutRules: invalid value " + layoutRules + ": expected " + parentLayouts.size() + " rules");
+            }
+            final List<Layout> layouts = new ArrayList<>();
+            for (int i = 0; i < parentLayouts.size(); i++) {
+                layouts.add(new Layout(parentLayouts.get(i), Objects.requireNonNull(layoutRules.get(i))));
+            }
+            final Route route = new Route(Objects.requireNonNull(rule), List.copyOf(layouts));
+            final Route existing = routes.putIfAbsent(navigationTarget, route);
+            if (existing != null && !existing.equals(route)) {
+                ambiguous.add(navigationTarget);
+            }
+            return this;
+        }
+
+        @Nullable
+        private AccessRule readRule(@NotNull Class<?> clazz) {
+            final AccessRule known = rules.get(clazz);
+            if (known != null) {
+                return known;
+            }
+            try {
+                return AccessRule.of(clazz);
+            } catch (IllegalStateException ex) {
+                problems.add(ex.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * @return the table.
+         * @throws IllegalStateException if some routes or layouts have conflicting security annotations.
+         */
+        @NotNull
+        public RouteAccessTable build() {
+            if (!problems.isEmpty()) {
+                throw new IllegalStateException("Invalid route security annotations:\n" + String.join("\n", problems));
+            }
+            final Map<Class<?>, Route> result = new LinkedHashMap<>(routes);
+            result.keySet().removeAll(ambiguous);
+            return new RouteAccessTable(result);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RouteAccessTable{" + routes.size() + " routes}";
+    }
+}
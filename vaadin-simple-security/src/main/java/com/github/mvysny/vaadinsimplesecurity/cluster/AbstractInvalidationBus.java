@@ -0,0 +1,225 @@
+package com.github.mvysny.vaadinsimplesecurity.cluster;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A skeletal {@link InvalidationBus} which batches and coalesces the published invalidations, so that a mass
+ * revocation doesn't flood the nodes: the invalidations published within {@link #getMaxDelay()} are sent as
+ * a single batch, holding at most one invalidation per user (see {@link Invalidation#coalesce(Invalidation)}).
+ * A batch is sent early once it reaches {@link #getMaxBatchSize()} users.
+ * <p></p>
+ * The batches are sent one at a time by a background thread, via {@link #send(List)}. Implementations then call
+ * {@link #deliver(List)} on every node, including this one.
+ */
+public abstract class AbstractInvalidationBus implements InvalidationBus {
+    @NotNull
+    private static final Logger log = LoggerFactory.getLogger(AbstractInvalidationBus.class);
+
+    /**
+     * The default {@link #getMaxDelay()}.
+     */
+    @NotNull
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(50);
+    /**
+     * The default {@link #getMaxBatchSize()}.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    @NotNull
+    private final Duration maxDelay;
+    private final int maxBatchSize;
+    @NotNull
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    @NotNull
+    private final ScheduledExecutorService executor;
+    /**
+     * The invalidations waiting to be sent, keyed by username. Guarded by this.
+     */
+    @NotNull
+    private LinkedHashMap<String, Invalidation> pending = new LinkedHashMap<>();
+    /**
+     * True if a {@link #flush()} has been scheduled for {@link #pending}. Guarded by this.
+     */
+    private boolean flushScheduled;
+    /**
+     * Guarded by this.
+     */
+    private boolean closed;
+    @NotNull
+    private final LongAdder publishedCount = new LongAdder();
+    @NotNull
+    private final LongAdder sentCount = new LongAdder();
+    @NotNull
+    private final LongAdder sentBatchCount = new LongAdder();
+
+    /**
+     * @param maxDelay how long to collect the invalidations before sending them as a batch. Positive.
+     * @param maxBatchSize a batch is sent early once it reaches this number of users. 1 or greater.
+     */
+    protected AbstractInvalidationBus(@NotNull Duration maxDelay, int maxBatchSize) {
+        if (maxDelay.isNegative() || maxDelay.isZero()) {
+            throw new IllegalArgumentException("Parameter maxDelay: invalid value " + maxDelay + ": must be positive");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Parameter maxBatchSize: invalid value " + maxBatchSize + ": must be 1 or greater");
+        }
+        this.maxDelay = maxDelay;
+        this.maxBatchSize = maxBatchSize;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, getClass().getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void publish(@NotNull Invalidation invalidation) {
+        Objects.requireNonNull(invalidation);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Closed");
+            }
+            pending.merge(invalidation.username(), invalidation, Invalidation::coalesce);
+            if (pending.size() >= maxBatchSize) {
+                flushScheduled = true;
+                executor.execute(this::flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::flush, maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        publishedCount.increment();
+    }
+
+    /**
+     * Sends the pending invalidations. Runs in {@link #executor}.
+     */
+    private void flush() {
+        final List<Invalidation> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = List.copyOf(pending.values());
+            pending = new LinkedHashMap<>();
+        }
+        try {
+            send(batch);
+            sentCount.add(batch.size());
+            sentBatchCount.increment();
+        } catch (Exception ex) {
+            log.error("Failed to send " + batch.size() + " invalidations", ex);
+        }
+    }
+
+    /**
+     * Sends given batch to all nodes, including this one. Called by a single background thread, one batch at a time.
+     * @param batch the invalidations, at most one per user, not empty.
+     * @throws Exception if the batch can't be sent. The failure is logged; the batch isn't retried.
+     */
+    protected abstract void send(@NotNull List<Invalidation> batch) throws Exception;
+
+    /**
+     * Passes a batch received by this node to the listeners. A failing listener is logged and doesn't affect
+     * the other listeners.
+     * @param batch the invalidations, not empty.
+     */
+    protected final void deliver(@NotNull List<Invalidation> batch) {
+        for (Listener listener : listeners) {
+            try {
+                listener.invalidated(batch);
+            } catch (RuntimeException ex) {
+                log.error("Listener " + listener + " failed to process " + batch.size() + " invalidations", ex);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(@NotNull Listener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    @Override
+    public void removeListener(@NotNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return how long the invalidations are collected before they're sent as a batch.
+     */
+    @NotNull
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @return a batch is sent early once it reaches this number of users.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return the number of invalidations passed to {@link #publish(Invalidation)}.
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * @return the number of invalidations sent after coalescing; at most {@link #getPublishedCount()}.
+     */
+    public long getSentCount() {
+        return sentCount.sum();
+    }
+
+    /**
+     * @return the number of batches sent.
+     */
+    public long getSentBatchCount() {
+        return sentBatchCount.sum();
+    }
+
+    /**
+     * Sends the invalidations published so far, stops the background thread, then calls {@link #closeTransport()}.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        executor.execute(this::flush);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for the pending invalidations to be sent");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeTransport();
+    }
+
+    /**
+     * Releases the resources of the transport, e.g. closes the sockets. Called once, from {@link #close()},
+     * after the last batch has been sent. Does nothing by default.
+     */
+    protected void closeTransport() {
+    }
+}
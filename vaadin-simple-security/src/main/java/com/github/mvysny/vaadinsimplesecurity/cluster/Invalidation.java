@@ -0,0 +1,83 @@
+package com.github.mvysny.vaadinsimplesecurity.cluster;
+
+import com.github.mvysny.vaadinsimplesecurity.ActiveSessionRegistry;
+import com.github.mvysny.vaadinsimplesecurity.SimpleUserWithRoles;
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * A change of a user which must reach the sessions of that user on all nodes, sent over an {@link InvalidationBus}.
+ * Immutable, thread-safe.
+ * @param type what happened to the user.
+ * @param username the username, identifies the user.
+ * @param roles the new roles of the user for {@link Type#PRINCIPAL}, null for {@link Type#LOGOUT}.
+ */
+public record Invalidation(@NotNull Type type, @NotNull String username, @Nullable RoleSet roles) {
+    public enum Type {
+        /**
+         * The user must be logged out of all sessions, e.g. because the password has been reset or the account
+         * has been disabled. See {@link ActiveSessionRegistry#forceLogout(String)}.
+         */
+        LOGOUT,
+        /**
+         * The roles of the user changed. See {@link ActiveSessionRegistry#updatePrincipal(SimpleUserWithRoles)}.
+         */
+        PRINCIPAL
+    }
+
+    public Invalidation {
+        Objects.requireNonNull(type);
+        Objects.requireNonNull(username);
+        if ((type == Type.PRINCIPAL) != (roles != null)) {
+            throw new IllegalArgumentException("Parameter roles: invalid value " + roles + ": " + type + " requires "
+                    + (roles == null ? "roles" : "no roles"));
+        }
+    }
+
+    /**
+     * @param username the user to log out of all sessions.
+     * @return the invalidation.
+     */
+    @NotNull
+    public static Invalidation logout(@NotNull String username) {
+        return new Invalidation(Type.LOGOUT, username, null);
+    }
+
+    /**
+     * @param principal the new principal of the user.
+     * @return the invalidation.
+     */
+    @NotNull
+    public static Invalidation updatePrincipal(@NotNull SimpleUserWithRoles principal) {
+        return new Invalidation(Type.PRINCIPAL, principal.getUsername(), principal.getRoleSet());
+    }
+
+    /**
+     * @return the new principal of the user. Only for {@link Type#PRINCIPAL}.
+     */
+    @NotNull
+    public SimpleUserWithRoles toPrincipal() {
+        if (roles == null) {
+            throw new IllegalStateException(this + " carries no principal");
+        }
+        return new SimpleUserWithRoles(username, roles);
+    }
+
+    /**
+     * Merges this invalidation with a later invalidation of the same user, so that only one of them is sent.
+     * A logout is never dropped: once the sessions are gone, a role change has nothing to update.
+     * Otherwise the later invalidation wins.
+     * @param later a later invalidation of the same user.
+     * @return the invalidation to send instead of both.
+     */
+    @NotNull
+    public Invalidation coalesce(@NotNull Invalidation later) {
+        if (!username.equals(later.username)) {
+            throw new IllegalArgumentException("Parameter later: invalid value " + later + ": a different user than " + username);
+        }
+        return type == Type.LOGOUT ? this : later;
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.mvysny.vaadinsimplesecurity.cluster;
+
+import com.github.mvysny.vaadinsimplesecurity.ActiveSessionRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Delivers {@link Invalidation}s to all nodes of the cluster, including this one, so that e.g. a password reset on
+ * one node logs the user out of their sessions on all nodes. Pass the bus to
+ * {@link ActiveSessionRegistry#setInvalidationBus(InvalidationBus)}, which then applies the received invalidations
+ * to the sessions on this node.
+ * <p></p>
+ * Implementations: {@link LocalInvalidationBus} for a single JVM, {@link UdpInvalidationBus} for several JVMs.
+ * Implement this interface to use a message broker you already run, e.g. Redis pub/sub or JMS topics;
+ * {@link AbstractInvalidationBus} takes care of batching.
+ * <p></p>
+ * Thread-safe.
+ */
+public interface InvalidationBus extends Closeable {
+    /**
+     * Receives the invalidations delivered by the bus.
+     */
+    interface Listener {
+        /**
+         * Called with a batch of invalidations, in a background thread of the bus.
+         * @param batch the invalidations, at most one per user, not empty.
+         */
+        void invalidated(@NotNull List<Invalidation> batch);
+    }
+
+    /**
+     * Sends given invalidation to all nodes. Doesn't block: the invalidations are sent in batches, in the background.
+     * @param invalidation the invalidation, not null.
+     * @throws IllegalStateException if the bus has been closed.
+     */
+    void publish(@NotNull Invalidation invalidation);
+
+    /**
+     * @param listener notified of the invalidations received by this node, including the ones published by this node.
+     */
+    void addListener(@NotNull Listener listener);
+
+    /**
+     * Removes a listener previously added via {@link #addListener(Listener)}.
+     * @param listener the listener to remove.
+     */
+    void removeListener(@NotNull Listener listener);
+
+    /**
+     * Sends the invalidations published so far, then stops the bus.
+     */
+    @Override
+    void close();
+}
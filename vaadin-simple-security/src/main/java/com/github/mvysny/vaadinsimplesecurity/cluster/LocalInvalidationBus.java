@@ -0,0 +1,32 @@
+package com.github.mvysny.vaadinsimplesecurity.cluster;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * An {@link InvalidationBus} which delivers the invalidations within this JVM only: to the listeners of this bus.
+ * Useful when a single node runs several apps sharing the bus, and in tests.
+ */
+public final class LocalInvalidationBus extends AbstractInvalidationBus {
+    /**
+     * Creates the bus with {@link #DEFAULT_MAX_DELAY} and {@link #DEFAULT_MAX_BATCH_SIZE}.
+     */
+    public LocalInvalidationBus() {
+        this(DEFAULT_MAX_DELAY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param maxDelay how long to collect the invalidations before delivering them as a batch. Positive.
+     * @param maxBatchSize a batch is delivered early once it reaches this number of users. 1 or greater.
+     */
+    public LocalInvalidationBus(@NotNull Duration maxDelay, int maxBatchSize) {
+        super(maxDelay, maxBatchSize);
+    }
+
+    @Override
+    protected void send(@NotNull List<Invalidation> batch) {
+        deliver(batch);
+    }
+}
@@ -0,0 +1,488 @@
+package com.github.mvysny.vaadinsimplesecurity.cluster;
+
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet;
+import com.github.mvysny.vaadinsimplesecurity.util.CompactIO;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link InvalidationBus} which sends the batches as UDP datagrams to a fixed list of peer nodes. Meant for a
+ * handful of nodes behind a sticky load balancer; run several JVMs on one machine with {@link #loopback(int, byte[], int...)}
+ * to try it out.
+ * <pre>
+ * // node 1
+ * bus = UdpInvalidationBus.loopback(7801, secret, 7802);
+ * // node 2
+ * bus = UdpInvalidationBus.loopback(7802, secret, 7801);
+ * ActiveSessionRegistry.get().setInvalidationBus(bus);
+ * </pre>
+ * Every datagram carries a timestamp and is signed with HMAC-SHA256 using the secret shared by all nodes, since
+ * an invalidation may grant roles. Datagrams which fail the check, or are older than {@link #MAX_AGE}, are dropped
+ * and logged. Every datagram also carries the random ID of the sending bus and a sequence number, so that a datagram
+ * replayed within {@link #MAX_AGE} is dropped as well. Datagrams may arrive out of order: an invalidation older
+ * than the last one applied for the same user is dropped, so that e.g. a delayed principal can't undo a later
+ * logout. UDP doesn't guarantee delivery: a lost datagram means that some sessions on some node keep their
+ * state until the user logs out. Use a message broker if that's not acceptable, see {@link InvalidationBus}.
+ * <p></p>
+ * A batch is split into datagrams of at most {@link #MAX_DATAGRAM_SIZE} bytes.
+ */
+public final class UdpInvalidationBus extends AbstractInvalidationBus {
+    @NotNull
+    private static final Logger log = LoggerFactory.getLogger(UdpInvalidationBus.class);
+
+    /**
+     * The datagrams are at most this large, unless a single invalidation is larger.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 8192;
+    /**
+     * Older datagrams are dropped, so that a captured datagram can't be replayed later. Also limits the tolerated
+     * clock skew among the nodes.
+     */
+    @NotNull
+    public static final Duration MAX_AGE = Duration.ofMinutes(1);
+    /**
+     * The version of the datagram format.
+     */
+    private static final byte VERSION = 2;
+    private static final int MAC_LENGTH = 32;
+    /**
+     * The version byte, the sender ID, the sequence number and the timestamp.
+     */
+    private static final int HEADER_LENGTH = 1 + 8 + 8 + 8;
+    /**
+     * How many sequence numbers below the highest one received from a sender are still accepted, so that datagrams
+     * reordered by the network aren't dropped.
+     */
+    private static final int REPLAY_WINDOW = 64;
+
+    @NotNull
+    private final DatagramSocket socket;
+    @NotNull
+    private final List<InetSocketAddress> peers;
+    @NotNull
+    private final SecretKeySpec key;
+    /**
+     * Signs the datagrams; only used by the thread calling {@link #send(List)}.
+     */
+    @NotNull
+    private final Mac sendMac;
+    @NotNull
+    private final Thread receiver;
+    /**
+     * Identifies the datagrams sent by this bus; a restarted node gets a new ID, so that its sequence numbers start anew.
+     */
+    private final long senderId = new SecureRandom().nextLong();
+    /**
+     * The sequence number of the next datagram; only used by the thread calling {@link #send(List)}.
+     */
+    private long nextSequence = 0;
+    /**
+     * The sequence numbers received from each sender, keyed by sender ID; only used by {@link #receiver}.
+     */
+    @NotNull
+    private final Map<Long, ReplayWindow> replayWindows = new HashMap<>();
+    /**
+     * The last invalidation applied for each user, keyed by username. Guarded by itself. Entries older than
+     * {@link #MAX_AGE} are pruned, since any datagram they would reject is dropped as expired anyway.
+     */
+    @NotNull
+    private final Map<String, Stamp> lastApplied = new HashMap<>();
+    /**
+     * When {@link #lastApplied} was last pruned. Guarded by {@link #lastApplied}.
+     */
+    private long lastAppliedPruned = System.currentTimeMillis();
+    /**
+     * When {@link #replayWindows} were last pruned; only used by {@link #receiver}.
+     */
+    private long replayWindowsPruned = System.currentTimeMillis();
+
+    /**
+     * Creates the bus with {@link #DEFAULT_MAX_DELAY} and {@link #DEFAULT_MAX_BATCH_SIZE}, and starts receiving.
+     * @param bindAddress the address to receive the datagrams on.
+     * @param peers the addresses of the other nodes, not including this one.
+     * @param sharedSecret the secret signing the datagrams, shared by all nodes. At least 16 bytes long.
+     * @throws SocketException if the socket can't be bound.
+     */
+    public UdpInvalidationBus(@NotNull InetSocketAddress bindAddress, @NotNull Collection<InetSocketAddress> peers, byte @NotNull [] sharedSecret) throws SocketException {
+        this(bindAddress, peers, sharedSecret, DEFAULT_MAX_DELAY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates the bus and starts receiving.
+     * @param bindAddress the address to receive the datagrams on.
+     * @param peers the addresses of the other nodes, not including this one.
+     * @param sharedSecret the secret signing the datagrams, shared by all nodes. At least 16 bytes long.
+     * @param maxDelay how long to collect the invalidations before sending them as a batch. Positive.
+     * @param maxBatchSize a batch is sent early once it reaches this number of users. 1 or greater.
+     * @throws SocketException if the socket can't be bound.
+     */
+    public UdpInvalidationBus(@NotNull InetSocketAddress bindAddress, @NotNull Collection<InetSocketAddress> peers,
+                              byte @NotNull [] sharedSecret, @NotNull Duration maxDelay, int maxBatchSize) throws SocketException {
+        super(maxDelay, maxBatchSize);
+        if (sharedSecret.length < 16) {
+            throw new IllegalArgumentException("Parameter sharedSecret: invalid value: " + sharedSecret.length + " bytes long, must be at least 16 bytes");
+        }
+        this.peers = List.copyOf(peers);
+        key = new SecretKeySpec(sharedSecret, "HmacSHA256");
+        sendMac = newMac();
+        socket = new DatagramSocket(bindAddress);
+        receiver = new Thread(this::receive, "UdpInvalidationBus " + socket.getLocalSocketAddress());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Creates a bus exchanging the datagrams with other JVMs on this machine.
+     * @param port the port to receive the datagrams on; 0 picks a free port, see {@link #getLocalPort()}.
+     * @param sharedSecret the secret signing the datagrams, shared by all nodes. At least 16 bytes long.
+     * @param peerPorts the ports of the other nodes, not including this one.
+     * @return the bus, receiving.
+     * @throws SocketException if the socket can't be bound.
+     */
+    @NotNull
+    public static UdpInvalidationBus loopback(int port, byte @NotNull [] sharedSecret, int... peerPorts) throws SocketException {
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        final List<InetSocketAddress> peers = new ArrayList<>();
+        for (int peerPort : peerPorts) {
+            peers.add(new InetSocketAddress(loopback, peerPort));
+        }
+        return new UdpInvalidationBus(new InetSocketAddress(loopback, port), peers, sharedSecret);
+    }
+
+    /**
+     * @return the port this bus receives the datagrams on.
+     */
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @NotNull
+    private Mac newMac() {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected void send(@NotNull List<Invalidation> batch) throws IOException {
+        final long timestamp = System.currentTimeMillis();
+        final long firstSequence = nextSequence;
+        final List<byte[]> datagrams = encode(batch, timestamp);
+        // deliver locally first, so that an unreachable peer doesn't keep this node from applying the batch.
+        // The local invalidations take part in the ordering too, so that a delayed datagram can't undo them
+        final List<Invalidation> applicable = filterApplicable(batch, new Stamp(timestamp, senderId, firstSequence));
+        if (!applicable.isEmpty()) {
+            deliver(applicable);
+        }
+        IOException failure = null;
+        for (InetSocketAddress peer : peers) {
+            try {
+                for (byte[] datagram : datagrams) {
+                    socket.send(new DatagramPacket(datagram, datagram.length, peer));
+                }
+            } catch (IOException ex) {
+                // keep sending to the other peers
+                log.warn("Failed to send the invalidations to {}: {}", peer, ex.toString());
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Splits the batch into signed datagrams: the version byte, the sender ID, the sequence number, the timestamp
+     * in milliseconds, the invalidations, and the HMAC of all of that.
+     */
+    @NotNull
+    private List<byte[]> encode(@NotNull List<Invalidation> batch, long timestamp) throws IOException {
+        final List<byte[]> datagrams = new ArrayList<>();
+        final ByteArrayOutputStream datagram = new ByteArrayOutputStream(MAX_DATAGRAM_SIZE);
+        final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        final DataOutputStream entryOut = new DataOutputStream(entry);
+        for (Invalidation invalidation : batch) {
+            entry.reset();
+            entryOut.writeByte(invalidation.type().ordinal());
+            entryOut.writeUTF(invalidation.username());
+            if (invalidation.roles() != null) {
+                CompactIO.writeStrings(entryOut, invalidation.roles());
+            }
+            if (datagram.size() > 0 && datagram.size() + entry.size() + MAC_LENGTH > MAX_DATAGRAM_SIZE) {
+                datagrams.add(sign(datagram));
+                datagram.reset();
+            }
+            if (datagram.size() == 0) {
+                final DataOutputStream header = new DataOutputStream(datagram);
+                header.writeByte(VERSION);
+                header.writeLong(senderId);
+                header.writeLong(nextSequence++);
+                header.writeLong(timestamp);
+            }
+            entry.writeTo(datagram);
+        }
+        datagrams.add(sign(datagram));
+        return datagrams;
+    }
+
+    private byte @NotNull [] sign(@NotNull ByteArrayOutputStream datagram) {
+        final byte[] payload = datagram.toByteArray();
+        final byte[] signed = Arrays.copyOf(payload, payload.length + MAC_LENGTH);
+        sendMac.update(payload);
+        try {
+            sendMac.doFinal(signed, payload.length);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return signed;
+    }
+
+    /**
+     * A verified datagram.
+     * @param stamp when and by whom the datagram was sent.
+     * @param batch the invalidations.
+     */
+    private record Datagram(@NotNull Stamp stamp, @NotNull List<Invalidation> batch) {
+    }
+
+    /**
+     * Orders the invalidations: compared by the timestamp, and by the sequence number for the same sender.
+     * @param timestamp when the datagram was sent, in milliseconds.
+     * @param senderId the ID of the bus which sent the datagram.
+     * @param sequence the sequence number of the datagram.
+     */
+    private record Stamp(long timestamp, long senderId, long sequence) {
+        /**
+         * @return true if this stamp is known to be older than given one.
+         */
+        boolean isBefore(@NotNull Stamp other) {
+            if (timestamp != other.timestamp) {
+                return timestamp < other.timestamp;
+            }
+            return senderId == other.senderId && sequence < other.sequence;
+        }
+    }
+
+    /**
+     * Verifies and decodes a datagram created by {@link #encode(List, long)}.
+     * @return the datagram.
+     * @throws IOException if the datagram is malformed, forged or too old.
+     */
+    @NotNull
+    private static Datagram decode(@NotNull Mac mac, byte @NotNull [] datagram, int length) throws IOException {
+        if (length < HEADER_LENGTH + MAC_LENGTH) {
+            throw new StreamCorruptedException("Too short");
+        }
+        final int payloadLength = length - MAC_LENGTH;
+        mac.update(datagram, 0, payloadLength);
+        final byte[] expectedMac = mac.doFinal();
+        if (!MessageDigest.isEqual(expectedMac, Arrays.copyOfRange(datagram, payloadLength, length))) {
+            throw new StreamCorruptedException("Invalid signature");
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(datagram, 0, payloadLength));
+        final byte version = in.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported version " + version);
+        }
+        final long senderId = in.readLong();
+        final long sequence = in.readLong();
+        final long timestamp = in.readLong();
+        final long age = System.currentTimeMillis() - timestamp;
+        if (Math.abs(age) > MAX_AGE.toMillis()) {
+            throw new StreamCorruptedException("Expired: " + age + "ms old");
+        }
+        final Invalidation.Type[] types = Invalidation.Type.values();
+        final List<Invalidation> batch = new ArrayList<>();
+        while (in.available() > 0) {
+            final int type = in.readUnsignedByte();
+            if (type >= types.length) {
+                throw new StreamCorruptedException("Unknown invalidation type " + type);
+            }
+            final String username = in.readUTF();
+            final RoleSet roles = types[type] == Invalidation.Type.PRINCIPAL ? RoleSet.of(CompactIO.readStrings(in)) : null;
+            batch.add(new Invalidation(types[type], username, roles));
+        }
+        return new Datagram(new Stamp(timestamp, senderId, sequence), batch);
+    }
+
+    /**
+     * The sequence numbers received from one sender, like the IPsec anti-replay window: the highest one, and a bitmap
+     * of the {@link #REPLAY_WINDOW} ones below it.
+     */
+    private static final class ReplayWindow {
+        private long highest = -1;
+        /**
+         * Bit <code>i</code> is set if <code>highest - i</code> has been received.
+         */
+        private long received = 0;
+        /**
+         * The timestamp of the latest datagram.
+         */
+        private long timestamp;
+
+        /**
+         * Records given sequence number.
+         * @return false if it has been received already, or is too old to tell.
+         */
+        boolean accept(long sequence, long timestamp) {
+            if (sequence > highest) {
+                final long shift = sequence - highest;
+                received = shift >= REPLAY_WINDOW ? 1 : (received << shift) | 1;
+                highest = sequence;
+                this.timestamp = Math.max(this.timestamp, timestamp);
+                return true;
+            }
+            final long offset = highest - sequence;
+            if (offset >= REPLAY_WINDOW || (received & (1L << offset)) != 0) {
+                return false;
+            }
+            received |= 1L << offset;
+            return true;
+        }
+    }
+
+    /**
+     * @return false if the datagram has been received already, see {@link ReplayWindow}.
+     */
+    private boolean acceptSequence(@NotNull Stamp stamp) {
+        return replayWindows.computeIfAbsent(stamp.senderId(), id -> new ReplayWindow()).accept(stamp.sequence(), stamp.timestamp());
+    }
+
+    /**
+     * Drops the invalidations older than the last one applied for the same user, and records the rest as applied.
+     * @param batch the invalidations, at most one per user.
+     * @param stamp when and by whom the batch was sent.
+     * @return the invalidations to apply.
+     */
+    @NotNull
+    private List<Invalidation> filterApplicable(@NotNull List<Invalidation> batch, @NotNull Stamp stamp) {
+        final List<Invalidation> result = new ArrayList<>(batch.size());
+        synchronized (lastApplied) {
+            pruneExpired();
+            for (Invalidation invalidation : batch) {
+                final Stamp last = lastApplied.get(invalidation.username());
+                if (last != null && stamp.isBefore(last)) {
+                    log.debug("Dropping {}: older than the last invalidation of the user", invalidation);
+                    continue;
+                }
+                lastApplied.put(invalidation.username(), stamp);
+                result.add(invalidation);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the users not invalidated for {@link #MAX_AGE}. Called with the {@link #lastApplied} lock held.
+     */
+    private void pruneExpired() {
+        final long now = System.currentTimeMillis();
+        if (now - lastAppliedPruned < MAX_AGE.toMillis()) {
+            return;
+        }
+        lastAppliedPruned = now;
+        final long expired = now - MAX_AGE.toMillis();
+        lastApplied.values().removeIf(stamp -> stamp.timestamp() < expired);
+    }
+
+    /**
+     * Removes the senders not heard of for {@link #MAX_AGE}, e.g. the nodes which have been restarted: their datagrams
+     * would be dropped as expired anyway. Runs in {@link #receiver}.
+     */
+    private void pruneReplayWindows() {
+        final long now = System.currentTimeMillis();
+        if (now - replayWindowsPruned < MAX_AGE.toMillis()) {
+            return;
+        }
+        replayWindowsPruned = now;
+        final long expired = now - MAX_AGE.toMillis();
+        replayWindows.values().removeIf(window -> window.timestamp < expired);
+    }
+
+    /**
+     * Receives the datagrams until the socket is closed. Runs in {@link #receiver}.
+     */
+    private void receive() {
+        final Mac mac = newMac();
+        final byte[] buffer = new byte[65536];
+        while (!socket.isClosed()) {
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    log.warn("Failed to receive a datagram", ex);
+                }
+                continue;
+            }
+            final Datagram datagram;
+            try {
+                datagram = decode(mac, packet.getData(), packet.getLength());
+            } catch (IOException ex) {
+                log.warn("Dropping a datagram from {}: {}", packet.getSocketAddress(), ex.getMessage());
+                continue;
+            }
+            if (datagram.stamp().senderId() == senderId) {
+                log.warn("Dropping a datagram from {}: sent by this node", packet.getSocketAddress());
+                continue;
+            }
+            pruneReplayWindows();
+            if (!acceptSequence(datagram.stamp())) {
+                log.warn("Dropping a datagram from {}: replayed", packet.getSocketAddress());
+                continue;
+            }
+            final List<Invalidation> batch = filterApplicable(datagram.batch(), datagram.stamp());
+            if (!batch.isEmpty()) {
+                deliver(batch);
+            }
+        }
+    }
+
+    @Override
+    protected void closeTransport() {
+        socket.close();
+        try {
+            receiver.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UdpInvalidationBus{" + socket.getLocalSocketAddress() + " -> " + peers + '}';
+    }
+}
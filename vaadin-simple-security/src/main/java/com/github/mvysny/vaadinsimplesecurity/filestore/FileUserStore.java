@@ -0,0 +1,460 @@
+package com.github.mvysny.vaadinsimplesecurity.filestore;
+
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryLoginService;
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUser;
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUserRegistry;
+import com.github.mvysny.vaadinsimplesecurity.inmemory.UsernameNormalizer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the {@link InMemoryUserRegistry} into a directory, so that the users survive application restarts.
+ * Meant for small deployments, e.g. a few thousand operator accounts, which don't warrant a SQL database.
+ * {@link InMemoryLoginService} keeps working with the registry as before.
+ * <p></p>
+ * Every modification of the registry is appended to the <code>users.journal</code> file. The journal is flushed to disk
+ * (fsync) periodically in the background rather than on every write, so a crash may lose the modifications of the
+ * last <code>syncInterval</code>. Once the journal grows past <code>compactionThreshold</code> records, the current
+ * users are written to the <code>users.snapshot</code> file and the journal is emptied. On startup, the snapshot is
+ * memory-mapped and loaded, then the short journal is replayed on top of it.
+ * <p></p>
+ * Open the store at application startup, after {@link InMemoryUserRegistry#setUsernameNormalizer(UsernameNormalizer)}
+ * but before registering any users; {@link #close()} it on shutdown:
+ * <pre>
+ * store = FileUserStore.open(Path.of("/var/lib/myapp/users"));
+ * if (InMemoryUserRegistry.get().size() == 0) {
+ *     InMemoryUserRegistry.get().registerUser(new InMemoryUser("admin", "admin", Set.of("ROLE_ADMIN")));
+ * }
+ * </pre>
+ * Note that the store only sees modifications made via the registry. A password changed via
+ * {@link InMemoryUser#setPassword(String)} is persisted by passing the user to
+ * {@link InMemoryUserRegistry#replaceUser(InMemoryUser)}; the transparent rehash on login does that automatically.
+ * <p></p>
+ * The journal is written after the registry has been modified. If the write fails, the modification stays in memory
+ * only: the failure is logged, {@link #getFailure()} reports it, and the store stops recording further modifications,
+ * since a journal with a gap would restore an inconsistent registry. The store then retries {@link #compact()} in the
+ * background, starting after {@link #RECOVERY_DELAY} and backing off up to {@link #MAX_RECOVERY_DELAY}: a successful
+ * compaction writes all current users into a new snapshot and resumes the recording, so that a transient failure
+ * such as a full disk doesn't lose the later modifications.
+ * <p></p>
+ * Thread-safe.
+ */
+public final class FileUserStore implements Closeable {
+    @NotNull
+    private static final Logger log = LoggerFactory.getLogger(FileUserStore.class);
+
+    /**
+     * The snapshot file name.
+     */
+    @NotNull
+    public static final String SNAPSHOT_FILE = "users.snapshot";
+    /**
+     * The journal file name.
+     */
+    @NotNull
+    public static final String JOURNAL_FILE = "users.journal";
+    /**
+     * How long to wait after a failed journal write before the first attempt to recover via {@link #compact()}.
+     */
+    @NotNull
+    public static final Duration RECOVERY_DELAY = Duration.ofSeconds(1);
+    /**
+     * The recovery attempts back off exponentially up to this delay.
+     */
+    @NotNull
+    public static final Duration MAX_RECOVERY_DELAY = Duration.ofMinutes(1);
+
+    @NotNull
+    private final Path directory;
+    @NotNull
+    private final FileChannel journal;
+    private final int compactionThreshold;
+    @NotNull
+    private final ScheduledExecutorService executor;
+    @NotNull
+    private final InMemoryUserRegistry.ChangeListener listener = new Listener();
+    /**
+     * The journal size in bytes. Guarded by this.
+     */
+    private long journalSize;
+    /**
+     * The number of records in the journal. Guarded by this.
+     */
+    private int journalRecords;
+    /**
+     * True if the compaction has been submitted to {@link #executor} but hasn't run yet. Guarded by this.
+     */
+    private boolean compactionPending;
+    /**
+     * Guarded by this.
+     */
+    private boolean closed;
+    /**
+     * The failed journal write; while not null, the modifications aren't recorded. Guarded by this.
+     */
+    @Nullable
+    private IOException failure;
+    /**
+     * True if {@link #recover()} has been scheduled but hasn't run yet. Guarded by this.
+     */
+    private boolean recoveryScheduled;
+    /**
+     * The delay of the next recovery attempt. Guarded by this.
+     */
+    private long recoveryDelayMillis = RECOVERY_DELAY.toMillis();
+    /**
+     * True if the journal has been written since the last fsync.
+     */
+    private volatile boolean dirty;
+
+    private FileUserStore(@NotNull Path directory, @NotNull FileChannel journal, long journalSize, int journalRecords, int compactionThreshold) {
+        this.directory = directory;
+        this.journal = journal;
+        this.journalSize = journalSize;
+        this.journalRecords = journalRecords;
+        this.compactionThreshold = compactionThreshold;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "FileUserStore " + directory);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the store with the default settings: fsync every 200 milliseconds, compaction every 10000 modifications.
+     * See {@link #open(Path, Duration, int)}.
+     */
+    @NotNull
+    public static FileUserStore open(@NotNull Path directory) throws IOException {
+        return open(directory, Duration.ofMillis(200), 10000);
+    }
+
+    /**
+     * Loads the users from given directory into the {@link InMemoryUserRegistry} and starts recording the registry
+     * modifications into the directory.
+     * @param directory the directory holding the files; created if it doesn't exist.
+     * @param syncInterval how often to flush the journal to disk. A crash loses at most this much of modifications.
+     * @param compactionThreshold compact the journal into a snapshot after this many modifications, 1 or greater.
+     * @return the store, attached to the registry.
+     * @throws IOException if the files can't be read or are corrupt.
+     * @throws IllegalStateException if the registry already contains users.
+     */
+    @NotNull
+    public static FileUserStore open(@NotNull Path directory, @NotNull Duration syncInterval, int compactionThreshold) throws IOException {
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("Parameter compactionThreshold: invalid value " + compactionThreshold + ": must be 1 or greater");
+        }
+        if (syncInterval.isNegative() || syncInterval.isZero()) {
+            throw new IllegalArgumentException("Parameter syncInterval: invalid value " + syncInterval + ": must be positive");
+        }
+        final InMemoryUserRegistry registry = InMemoryUserRegistry.get();
+        if (registry.size() > 0) {
+            throw new IllegalStateException("The registry already contains " + registry.size() + " users; open the store before registering users");
+        }
+        Files.createDirectories(directory);
+
+        final Replay replay = new Replay(registry.getUsernameNormalizer());
+        final Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                checkMagic(buffer, UserRecords.SNAPSHOT_MAGIC, snapshot);
+                if (UserRecords.read(buffer, replay) != buffer.limit()) {
+                    // snapshots are written atomically, they are never torn
+                    throw new IOException(snapshot + " is corrupt");
+                }
+            }
+        }
+        final FileChannel journal = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long journalSize = journal.size();
+            if (journalSize < UserRecords.HEADER_SIZE) {
+                journal.truncate(0);
+                journal.write(UserRecords.header(UserRecords.JOURNAL_MAGIC), 0);
+                journal.force(true);
+                journalSize = UserRecords.HEADER_SIZE;
+            } else {
+                final MappedByteBuffer buffer = journal.map(FileChannel.MapMode.READ_ONLY, 0, journalSize);
+                checkMagic(buffer, UserRecords.JOURNAL_MAGIC, directory.resolve(JOURNAL_FILE));
+                final int end = UserRecords.read(buffer, replay);
+                if (end < journalSize) {
+                    log.warn("{}: discarding {} bytes of an incomplete record at the end of the journal", directory, journalSize - end);
+                    journal.truncate(end);
+                    journalSize = end;
+                }
+            }
+            registry.registerUsers(replay.users.values());
+            final FileUserStore store = new FileUserStore(directory, journal, journalSize, replay.records, compactionThreshold);
+            registry.addChangeListener(store.listener);
+            final long syncMillis = Math.max(1, syncInterval.toMillis());
+            store.executor.scheduleWithFixedDelay(store::syncQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+            if (replay.records >= compactionThreshold) {
+                store.compact();
+            }
+            return store;
+        } catch (IOException | RuntimeException ex) {
+            journal.close();
+            throw ex;
+        }
+    }
+
+    private static void checkMagic(@NotNull ByteBuffer buffer, int magic, @NotNull Path file) throws IOException {
+        if (buffer.remaining() < UserRecords.HEADER_SIZE || buffer.getInt() != magic) {
+            throw new IOException(file + " is not a " + FileUserStore.class.getSimpleName() + " file");
+        }
+    }
+
+    /**
+     * Rebuilds the registry contents from the records.
+     */
+    private static final class Replay implements UserRecords.Visitor {
+        @NotNull
+        private final UsernameNormalizer normalizer;
+        @NotNull
+        final Map<String, InMemoryUser> users = new LinkedHashMap<>();
+        int records;
+
+        Replay(@NotNull UsernameNormalizer normalizer) {
+            this.normalizer = normalizer;
+        }
+
+        // PUT and REMOVE are idempotent, so replaying records which are already part of the snapshot is harmless.
+        @Override
+        public void put(@NotNull InMemoryUser user) {
+            records++;
+            users.put(normalizer.normalize(user.getUsername()), user);
+        }
+
+        @Override
+        public void remove(@NotNull String username) {
+            records++;
+            users.remove(normalizer.normalize(username));
+        }
+
+        @Override
+        public void clear() {
+            records++;
+            users.clear();
+        }
+    }
+
+    /**
+     * Appends registry modifications to the journal. Called while the registry is locked, so the journal order
+     * matches the order of the modifications.
+     */
+    private final class Listener implements InMemoryUserRegistry.ChangeListener {
+        @Override
+        public void onRegistered(@NotNull Collection<InMemoryUser> users) {
+            for (InMemoryUser user : users) {
+                append(UserRecords.put(user));
+            }
+        }
+
+        @Override
+        public void onReplaced(@NotNull InMemoryUser user) {
+            append(UserRecords.put(user));
+        }
+
+        @Override
+        public void onUnregistered(@NotNull InMemoryUser user) {
+            append(UserRecords.remove(user.getUsername()));
+        }
+
+        @Override
+        public void onCleared() {
+            append(UserRecords.clear());
+        }
+    }
+
+    private synchronized void append(@NotNull ByteBuffer record) {
+        if (closed || failure != null) {
+            // the registry has already been modified; throwing would only break the caller
+            return;
+        }
+        try {
+            final int length = record.remaining();
+            while (record.hasRemaining()) {
+                journal.write(record, journalSize + length - record.remaining());
+            }
+            journalSize += length;
+        } catch (IOException ex) {
+            failure = ex;
+            log.error("Failed to write to the journal in " + directory + "; further modifications are not persisted until compact() succeeds", ex);
+            scheduleRecovery();
+            return;
+        }
+        journalRecords++;
+        dirty = true;
+        if (journalRecords >= compactionThreshold && !compactionPending) {
+            compactionPending = true;
+            executor.execute(this::compactQuietly);
+        }
+    }
+
+    /**
+     * Flushes the journal to disk. Called periodically; call explicitly to make sure that all modifications so far
+     * survive a crash.
+     * @throws IOException on I/O error.
+     */
+    public void sync() throws IOException {
+        if (dirty) {
+            dirty = false;
+            journal.force(false);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException ex) {
+            dirty = true;
+            log.error("Failed to sync the journal in " + directory, ex);
+        }
+    }
+
+    /**
+     * Writes all users into a new snapshot and empties the journal. Called automatically once the journal reaches
+     * the compaction threshold, and retried after a {@link #getFailure() failed journal write}.
+     * @throws IOException on I/O error. The previous snapshot and the journal stay intact in such case.
+     */
+    public synchronized void compact() throws IOException {
+        compactionPending = false;
+        if (closed) {
+            return;
+        }
+        final Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        final Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, UserRecords.header(UserRecords.SNAPSHOT_MAGIC));
+            for (InMemoryUser user : InMemoryUserRegistry.get().getUsers()) {
+                writeFully(channel, UserRecords.put(user));
+            }
+            channel.force(true);
+        }
+        Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // If we crash before the journal is truncated, the journal is replayed on top of the new snapshot on startup,
+        // which yields the same users.
+        journal.truncate(UserRecords.HEADER_SIZE);
+        journal.force(true);
+        journalSize = UserRecords.HEADER_SIZE;
+        journalRecords = 0;
+        if (failure != null) {
+            log.info("{}: the snapshot is up-to-date again, recording the modifications", directory);
+            failure = null;
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException ex) {
+            log.error("Failed to compact the journal in " + directory, ex);
+        }
+    }
+
+    /**
+     * Schedules {@link #recover()}, unless already scheduled. Called with the lock held.
+     */
+    private void scheduleRecovery() {
+        if (recoveryScheduled || closed) {
+            return;
+        }
+        recoveryScheduled = true;
+        executor.schedule(this::recover, recoveryDelayMillis, TimeUnit.MILLISECONDS);
+        recoveryDelayMillis = Math.min(recoveryDelayMillis * 2, MAX_RECOVERY_DELAY.toMillis());
+    }
+
+    /**
+     * Recovers from a failed journal write via {@link #compact()}; schedules another attempt if the compaction fails.
+     * Runs in {@link #executor}.
+     */
+    private void recover() {
+        synchronized (this) {
+            recoveryScheduled = false;
+            if (failure == null) {
+                // compact() has been called meanwhile
+                recoveryDelayMillis = RECOVERY_DELAY.toMillis();
+                return;
+            }
+        }
+        compactQuietly();
+        synchronized (this) {
+            if (failure != null) {
+                scheduleRecovery();
+            } else {
+                recoveryDelayMillis = RECOVERY_DELAY.toMillis();
+            }
+        }
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the failed journal write which stopped the store from recording the modifications, or null if
+     * the store works. See {@link #compact()}.
+     */
+    @Nullable
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the number of modifications recorded in the journal since the last compaction.
+     */
+    public synchronized int getJournalRecordCount() {
+        return journalRecords;
+    }
+
+    /**
+     * Detaches the store from the registry and flushes the journal to disk. The users stay in the registry.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            InMemoryUserRegistry.get().removeChangeListener(listener);
+            closed = true;
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.force(false);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileUserStore{" + directory + '}';
+    }
+}
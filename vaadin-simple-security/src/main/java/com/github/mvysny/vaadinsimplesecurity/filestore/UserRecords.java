@@ -0,0 +1,195 @@
+package com.github.mvysny.vaadinsimplesecurity.filestore;
+
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The binary record format shared by the journal and the snapshot files.
+ * <p></p>
+ * A file starts with a 4-byte magic number, followed by records. A record is
+ * <code>[int payloadLength][int crc32(payload)][payload]</code>; the payload is an operation byte followed by
+ * the operation's data. Strings are stored as <code>[int byteLength][UTF-8 bytes]</code>, null as length -1.
+ * The checksum detects a record torn by a crash in the middle of a write.
+ */
+final class UserRecords {
+    private UserRecords() {
+    }
+
+    static final int JOURNAL_MAGIC = 0x56534a31; // VSJ1
+    static final int SNAPSHOT_MAGIC = 0x56535331; // VSS1
+    static final int HEADER_SIZE = 4;
+
+    /**
+     * Registers or replaces a user: username, hashed password, roles.
+     */
+    static final byte PUT = 1;
+    /**
+     * Removes a user: username.
+     */
+    static final byte REMOVE = 2;
+    /**
+     * Removes all users.
+     */
+    static final byte CLEAR = 3;
+
+    /**
+     * Receives decoded records.
+     */
+    interface Visitor {
+        void put(@NotNull InMemoryUser user);
+
+        void remove(@NotNull String username);
+
+        void clear();
+    }
+
+    @NotNull
+    static ByteBuffer header(int magic) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(0, magic);
+    }
+
+    @NotNull
+    static ByteBuffer put(@NotNull InMemoryUser user) {
+        final byte[] username = utf8(user.getUsername());
+        final byte[] hash = user.getHashedPassword() == null ? null : utf8(user.getHashedPassword());
+        final Set<String> roles = user.getRoles();
+        int size = 1 + 4 + username.length + 4 + (hash == null ? 0 : hash.length) + 4;
+        final byte[][] roleBytes = new byte[roles.size()][];
+        int i = 0;
+        for (String role : roles) {
+            roleBytes[i] = utf8(role);
+            size += 4 + roleBytes[i].length;
+            i++;
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(size);
+        payload.put(PUT);
+        putBytes(payload, username);
+        putBytes(payload, hash);
+        payload.putInt(roleBytes.length);
+        for (byte[] role : roleBytes) {
+            putBytes(payload, role);
+        }
+        return frame(payload);
+    }
+
+    @NotNull
+    static ByteBuffer remove(@NotNull String username) {
+        final byte[] bytes = utf8(username);
+        final ByteBuffer payload = ByteBuffer.allocate(1 + 4 + bytes.length);
+        payload.put(REMOVE);
+        putBytes(payload, bytes);
+        return frame(payload);
+    }
+
+    @NotNull
+    static ByteBuffer clear() {
+        return frame(ByteBuffer.allocate(1).put(CLEAR));
+    }
+
+    /**
+     * Decodes records from given buffer, positioned after the header.
+     * @return the position after the last intact record: the whole buffer unless the last record is torn.
+     * @throws IOException if an intact record can't be decoded, e.g. because its password hash format is unknown.
+     */
+    static int read(@NotNull ByteBuffer buffer, @NotNull Visitor visitor) throws IOException {
+        while (buffer.remaining() >= 8) {
+            final int start = buffer.position();
+            final int length = buffer.getInt();
+            final int crc = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                return start;
+            }
+            final ByteBuffer payload = buffer.slice(buffer.position(), length);
+            if (crc32(payload.duplicate()) != crc) {
+                return start;
+            }
+            buffer.position(buffer.position() + length);
+            try {
+                decode(payload, visitor);
+            } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                throw new IOException("Invalid record at offset " + start, ex);
+            }
+        }
+        return buffer.position();
+    }
+
+    private static void decode(@NotNull ByteBuffer payload, @NotNull Visitor visitor) {
+        final byte op = payload.get();
+        switch (op) {
+            case PUT -> {
+                final String username = getNonNullString(payload);
+                final String hash = getString(payload);
+                final int roleCount = payload.getInt();
+                final Set<String> roles = new LinkedHashSet<>();
+                for (int i = 0; i < roleCount; i++) {
+                    roles.add(getNonNullString(payload));
+                }
+                visitor.put(InMemoryUser.withHashedPassword(username, hash, roles));
+            }
+            case REMOVE -> visitor.remove(getNonNullString(payload));
+            case CLEAR -> visitor.clear();
+            default -> throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer frame(@NotNull ByteBuffer payload) {
+        payload.flip();
+        final ByteBuffer record = ByteBuffer.allocate(8 + payload.remaining());
+        record.putInt(payload.remaining());
+        record.putInt(crc32(payload.duplicate()));
+        record.put(payload);
+        return record.flip();
+    }
+
+    private static int crc32(@NotNull ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+    private static byte @NotNull [] utf8(@NotNull String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(@NotNull ByteBuffer buffer, byte @Nullable [] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    @NotNull
+    private static String getNonNullString(@NotNull ByteBuffer buffer) {
+        final String result = getString(buffer);
+        if (result == null) {
+            throw new IllegalArgumentException("Unexpected null");
+        }
+        return result;
+    }
+
+    @Nullable
+    private static String getString(@NotNull ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
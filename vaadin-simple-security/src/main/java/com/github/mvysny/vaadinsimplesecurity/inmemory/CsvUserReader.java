@@ -0,0 +1,168 @@
+package com.github.mvysny.vaadinsimplesecurity.inmemory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams users from an RFC 4180 CSV with a header row; see {@link InMemoryUserImporter} for the format.
+ */
+final class CsvUserReader implements InMemoryUserImporter.EntryReader {
+    @NotNull
+    private final Reader reader;
+    /**
+     * The current line, for error messages.
+     */
+    private int line = 1;
+    /**
+     * The one character read ahead, -2 if none.
+     */
+    private int peeked = -2;
+    private int usernameColumn = -1;
+    private int passwordColumn = -1;
+    private int hashedPasswordColumn = -1;
+    private int rolesColumn = -1;
+    private int columnCount;
+
+    CsvUserReader(@NotNull Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public InMemoryUserImporter.@Nullable Entry next() throws IOException {
+        if (columnCount == 0) {
+            readHeader();
+        }
+        List<String> row;
+        do {
+            row = readRow();
+            if (row == null) {
+                return null;
+            }
+            // skip blank lines
+        } while (row.size() == 1 && row.get(0).isEmpty());
+        if (row.size() != columnCount) {
+            throw new IOException("Line " + (line - 1) + ": expected " + columnCount + " values but got " + row.size());
+        }
+        final String username = row.get(usernameColumn);
+        if (username.isEmpty()) {
+            throw new IOException("Line " + (line - 1) + ": empty username");
+        }
+        return new InMemoryUserImporter.Entry(username, value(row, passwordColumn), value(row, hashedPasswordColumn), roles(value(row, rolesColumn)));
+    }
+
+    private void readHeader() throws IOException {
+        final List<String> header = readRow();
+        if (header == null) {
+            throw new IOException("Line 1: missing header row");
+        }
+        for (int i = 0; i < header.size(); i++) {
+            switch (header.get(i).trim()) {
+                case "username" -> usernameColumn = i;
+                case "password" -> passwordColumn = i;
+                case "hashedPassword" -> hashedPasswordColumn = i;
+                case "roles" -> rolesColumn = i;
+                default -> throw new IOException("Line 1: unknown column '" + header.get(i) + "'");
+            }
+        }
+        if (usernameColumn < 0) {
+            throw new IOException("Line 1: missing the username column");
+        }
+        columnCount = header.size();
+    }
+
+    /**
+     * @return the value in given column, null if the column isn't present or the value is empty.
+     */
+    @Nullable
+    private static String value(@NotNull List<String> row, int column) {
+        if (column < 0 || row.get(column).isEmpty()) {
+            return null;
+        }
+        return row.get(column);
+    }
+
+    @NotNull
+    private static Set<String> roles(@Nullable String roles) {
+        final Set<String> result = new LinkedHashSet<>();
+        if (roles != null) {
+            for (String role : roles.split(";")) {
+                if (!role.isBlank()) {
+                    result.add(role.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads one record, which may span multiple lines if a quoted value contains a line break.
+     * @return the values or null on end of input.
+     */
+    @Nullable
+    private List<String> readRow() throws IOException {
+        int c = read();
+        if (c < 0) {
+            return null;
+        }
+        final List<String> values = new ArrayList<>();
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c < 0) {
+                    throw new IOException("Line " + line + ": unterminated quoted value");
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        value.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    value.append((char) c);
+                }
+            } else if (c == '"' && value.isEmpty()) {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c == '\r' && peek() == '\n') {
+                // CRLF: handled by the '\n'
+            } else if (c == '\n' || c < 0) {
+                line++;
+                values.add(value.toString());
+                return values;
+            } else {
+                value.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+        if (peeked != -2) {
+            final int c = peeked;
+            peeked = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+}
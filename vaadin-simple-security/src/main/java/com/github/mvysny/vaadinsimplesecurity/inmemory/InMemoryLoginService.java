@@ -3,10 +3,16 @@ package com.github.mvysny.vaadinsimplesecurity.inmemory;
 import com.github.mvysny.vaadinsimplesecurity.AbstractLoginService;
 import com.github.mvysny.vaadinsimplesecurity.SimpleUserWithRoles;
 import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordCheckResult;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashingOverloadedException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.security.auth.login.FailedLoginException;
 import javax.security.auth.login.LoginException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Session-scoped service which holds currently logged-in user. Call {@link #login(String, String)}
@@ -20,6 +26,9 @@ import javax.security.auth.login.LoginException;
  * </pre>
  */
 public final class InMemoryLoginService extends AbstractLoginService<InMemoryUser> {
+    @NotNull
+    private static final Logger log = LoggerFactory.getLogger(InMemoryLoginService.class);
+
     private InMemoryLoginService() {
         // private, to prevent accidental instantiation by hand
     }
@@ -27,16 +36,69 @@ public final class InMemoryLoginService extends AbstractLoginService<InMemoryUse
     /**
      * Logs in user with given username and password. Fails with {@link LoginException}
      * on failure.
+     * <p></p>
+     * If there are too many concurrent password checks, fails with a {@link LoginException} caused by
+     * {@link PasswordHashingOverloadedException}: the password hasn't been checked at all, ask the user to try again later.
      */
     public void login(@NotNull String username, @NotNull String password) throws LoginException {
+        login(authenticate(username, password));
+    }
+
+    /**
+     * Logs in user with given username and password, verifying the password outside of the Vaadin session lock.
+     * See {@link #loginAsync(java.util.concurrent.Callable)} for details.
+     * @return a future which completes with the logged-in user, or fails with {@link LoginException}.
+     */
+    @NotNull
+    public CompletableFuture<InMemoryUser> loginAsync(@NotNull String username, @NotNull String password) {
+        return loginAsync(() -> authenticate(username, password));
+    }
+
+    @NotNull
+    private static InMemoryUser authenticate(@NotNull String username, @NotNull String password) throws LoginException {
         final InMemoryUser user = InMemoryUserRegistry.get().findByUsername(username);
         if (user == null) {
             throw new FailedLoginException("Invalid username or password");
         }
-        if (!user.passwordMatches(password)) {
+        final PasswordCheckResult result;
+        try {
+            result = user.checkPassword(password);
+        } catch (PasswordHashingOverloadedException ex) {
+            final LoginException loginException = new LoginException(ex.getMessage());
+            loginException.initCause(ex);
+            throw loginException;
+        }
+        if (!result.matches()) {
             throw new FailedLoginException("Invalid username or password");
         }
-        login(user);
+        if (result.needsRehash()) {
+            final InMemoryUser rehashed = rehash(user, password);
+            if (rehashed != null) {
+                return rehashed;
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Transparently upgrades the hash to the current algorithm and parameters. The registered user is
+     * shared by all sessions: publishes a rehashed copy via the registry, so that the listeners
+     * (e.g. FileUserStore) persist it.
+     * <p></p>
+     * Best-effort: the password has already been verified, so the login must not fail if the hash can't be computed
+     * right now. The hash is then upgraded on a later login.
+     * @return the rehashed user, or null if the user has been left as it is.
+     */
+    @Nullable
+    private static InMemoryUser rehash(@NotNull InMemoryUser user, @NotNull String password) {
+        final InMemoryUser rehashed;
+        try {
+            rehashed = new InMemoryUser(user.getUsername(), password, user.getRoles());
+        } catch (PasswordHashingOverloadedException ex) {
+            log.debug("Not upgrading the password hash of {}: {}", user.getUsername(), ex.getMessage());
+            return null;
+        }
+        return InMemoryUserRegistry.get().replaceUser(user, rehashed) ? rehashed : null;
     }
 
     /**
@@ -1,9 +1,18 @@
 package com.github.mvysny.vaadinsimplesecurity.inmemory;
 
 import com.github.mvysny.vaadinsimplesecurity.HasPassword;
+import com.github.mvysny.vaadinsimplesecurity.util.CompactIO;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashers;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Objects;
@@ -16,6 +25,8 @@ import java.util.Set;
  * <p></p>
  * Note the {@link HasPassword} interface which greatly helps with password management
  * and verification.
+ * <p></p>
+ * Serialized compactly, without class descriptors, since the logged-in user is stored in the session.
  */
 public final class InMemoryUser implements Serializable, HasPassword {
 
@@ -50,6 +61,30 @@ public final class InMemoryUser implements Serializable, HasPassword {
         setPassword(password);
     }
 
+    private InMemoryUser(@NotNull String username, @NotNull Set<String> roles) {
+        this.username = Objects.requireNonNull(username);
+        this.roles = new HashSet<>(roles);
+    }
+
+    /**
+     * Creates the in-memory demo user with an already hashed password, e.g. exported from another system.
+     * @param username the username, not null.
+     * @param hashedPassword the password hash as produced by {@link HasPassword#setPassword(String)}, in any format
+     *                       supported by {@link PasswordHashers}. May be null if this user logged in via SSO.
+     * @param roles    allowed roles for this user, not null, may be empty.
+     * @return the user.
+     * @throws IllegalArgumentException if the hash format is not supported.
+     */
+    @NotNull
+    public static InMemoryUser withHashedPassword(@NotNull String username, @Nullable String hashedPassword, @NotNull Set<String> roles) {
+        if (hashedPassword != null) {
+            PasswordHashers.forHash(hashedPassword);
+        }
+        final InMemoryUser user = new InMemoryUser(username, roles);
+        user.setHashedPassword(hashedPassword);
+        return user;
+    }
+
     /**
      * @return the username, not null.
      */
@@ -93,4 +128,59 @@ public final class InMemoryUser implements Serializable, HasPassword {
     public int hashCode() {
         return Objects.hash(username);
     }
+
+    @Serial
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    @Serial
+    private void readObject(@NotNull ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("Serialized via SerializedForm");
+    }
+
+    /**
+     * The serialized form: a version byte, the username, the hashed password and the role names.
+     */
+    private static final class SerializedForm implements Externalizable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private static final byte VERSION = 1;
+        private InMemoryUser user;
+
+        /**
+         * Used by the deserialization.
+         */
+        public SerializedForm() {
+        }
+
+        private SerializedForm(@NotNull InMemoryUser user) {
+            this.user = user;
+        }
+
+        @Override
+        public void writeExternal(@NotNull ObjectOutput out) throws IOException {
+            out.writeByte(VERSION);
+            out.writeUTF(user.username);
+            CompactIO.writeNullableUTF(out, user.hashedPassword);
+            CompactIO.writeStrings(out, user.roles);
+        }
+
+        @Override
+        public void readExternal(@NotNull ObjectInput in) throws IOException {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new InvalidObjectException("Unsupported serialized form version " + version);
+            }
+            final String username = in.readUTF();
+            final String hashedPassword = CompactIO.readNullableUTF(in);
+            user = new InMemoryUser(username, new HashSet<>(CompactIO.readStrings(in)));
+            user.hashedPassword = hashedPassword;
+        }
+
+        @Serial
+        private Object readResolve() {
+            return user;
+        }
+    }
 }
@@ -0,0 +1,275 @@
+package com.github.mvysny.vaadinsimplesecurity.inmemory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps {@link InMemoryUserRegistry} in sync with a CSV or JSON file, e.g. with a list of static service accounts
+ * maintained by the operations team. The file is reloaded whenever it changes, without restarting the application.
+ * The file format is the same as for {@link InMemoryUserImporter}; files ending with <code>.json</code> are read
+ * as JSON, anything else as CSV.
+ * <p></p>
+ * A reload only touches the users which were added, changed or removed in the file. Plaintext passwords are only
+ * hashed when they change: the watcher remembers a keyed fingerprint (HMAC) of every plaintext password it has
+ * hashed, and reuses the registered hash if the fingerprint still matches. The fingerprints live in memory only.
+ * All changes are applied atomically via {@link InMemoryUserRegistry#update(java.util.Collection, java.util.Collection)},
+ * so that concurrent logins see either the old or the new set of users, never a half-loaded one.
+ * <p></p>
+ * The watcher only removes users which it has loaded itself, so the file can be combined with users registered
+ * by other means. If the file is malformed or missing, the registry is left unchanged and the problem is logged.
+ * <pre>
+ * watcher = new InMemoryUserFileWatcher(Path.of("/etc/myapp/service-accounts.csv")).start();
+ * </pre>
+ * Thread-safe.
+ */
+public final class InMemoryUserFileWatcher implements Closeable {
+    @NotNull
+    private static final Logger log = LoggerFactory.getLogger(InMemoryUserFileWatcher.class);
+
+    /**
+     * An editor usually saves a file in several steps; wait until the events settle down before reloading.
+     */
+    private static final long SETTLE_MILLIS = 100;
+
+    /**
+     * The outcome of a reload.
+     * @param added the number of newly registered users.
+     * @param changed the number of replaced users, whose roles or password changed.
+     * @param removed the number of users removed from the file, and therefore unregistered.
+     * @param unchanged the number of users left intact.
+     */
+    public record Changes(int added, int changed, int removed, int unchanged) {
+    }
+
+    @NotNull
+    private final Path file;
+    private final boolean json;
+    @NotNull
+    private final Mac fingerprintMac;
+    /**
+     * The usernames loaded by the last reload: normalized username to the username. Guarded by this.
+     */
+    @NotNull
+    private Map<String, String> loaded = new HashMap<>();
+    /**
+     * Normalized username to the fingerprint of the plaintext password hashed for that user. Guarded by this.
+     */
+    @NotNull
+    private Map<String, byte[]> fingerprints = new HashMap<>();
+    @Nullable
+    private WatchService watchService;
+    @Nullable
+    private Thread thread;
+
+    /**
+     * @param file the CSV or JSON file to load the users from.
+     */
+    public InMemoryUserFileWatcher(@NotNull Path file) {
+        this.file = file.toAbsolutePath();
+        json = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        try {
+            final byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            fingerprintMac = Mac.getInstance("HmacSHA256");
+            fingerprintMac.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads the file, then starts watching it for changes in a background thread.
+     * @return this
+     * @throws IOException if the file can't be loaded or watched. Nothing is registered in such case.
+     * @throws IllegalArgumentException if the file contains a user with an unsupported password hash format.
+     */
+    @NotNull
+    public synchronized InMemoryUserFileWatcher start() throws IOException {
+        if (watchService != null) {
+            throw new IllegalStateException("Already started");
+        }
+        reload();
+        final WatchService watchService = file.getFileSystem().newWatchService();
+        try {
+            // watch the directory: editors often replace the file rather than modifying it
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | RuntimeException ex) {
+            watchService.close();
+            throw ex;
+        }
+        this.watchService = watchService;
+        thread = new Thread(() -> watch(watchService), "InMemoryUserFileWatcher " + file);
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    private void watch(@NotNull WatchService watchService) {
+        try {
+            while (true) {
+                if (!isFileAffected(watchService.take())) {
+                    continue;
+                }
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    isFileAffected(key);
+                }
+                try {
+                    final Changes changes = reload();
+                    log.info("Reloaded {}: {}", file, changes);
+                } catch (IOException | RuntimeException ex) {
+                    log.error("Failed to reload " + file + ", keeping the current users", ex);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            // closed
+        }
+    }
+
+    private boolean isFileAffected(@NotNull WatchKey key) {
+        boolean affected = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                affected = true;
+            }
+        }
+        key.reset();
+        return affected;
+    }
+
+    /**
+     * Loads the file and applies the differences to the registry. Called automatically when the file changes.
+     * @return what has changed.
+     * @throws IOException if the file can't be read or is malformed. The registry is not modified in such case.
+     * @throws IllegalArgumentException if the file contains a user with an unsupported password hash format.
+     * The registry is not modified in such case.
+     */
+    @NotNull
+    public synchronized Changes reload() throws IOException {
+        final InMemoryUserRegistry registry = InMemoryUserRegistry.get();
+        final UsernameNormalizer normalizer = registry.getUsernameNormalizer();
+        final Map<String, byte[]> newFingerprints = new HashMap<>();
+        final List<InMemoryUser> users;
+        try (InputStream in = Files.newInputStream(file)) {
+            final Reader reader = InMemoryUserImporter.reader(in);
+            final InMemoryUserImporter.EntryReader entries = json ? new JsonUserReader(reader) : new CsvUserReader(reader);
+            users = new InMemoryUserImporter().read(() -> reuseHash(entries.next(), registry, normalizer, newFingerprints));
+        }
+
+        final Map<String, String> newLoaded = new HashMap<>();
+        final List<InMemoryUser> modified = new ArrayList<>();
+        int added = 0;
+        int unchanged = 0;
+        for (InMemoryUser user : users) {
+            if (newLoaded.put(normalizer.normalize(user.getUsername()), user.getUsername()) != null) {
+                throw new IOException(file + ": user " + user.getUsername() + " is present twice");
+            }
+            final InMemoryUser existing = registry.findByUsername(user.getUsername());
+            if (existing == null) {
+                added++;
+                modified.add(user);
+            } else if (isSame(existing, user)) {
+                unchanged++;
+            } else {
+                modified.add(user);
+            }
+        }
+        final List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : loaded.entrySet()) {
+            if (!newLoaded.containsKey(entry.getKey()) && registry.findByUsername(entry.getValue()) != null) {
+                removed.add(entry.getValue());
+            }
+        }
+        registry.update(modified, removed);
+        loaded = newLoaded;
+        fingerprints = newFingerprints;
+        return new Changes(added, modified.size() - added, removed.size(), unchanged);
+    }
+
+    /**
+     * If the plaintext password is the same as the one hashed by the previous reload, replaces it by the registered
+     * hash, so that the importer doesn't need to hash it again.
+     */
+    @Nullable
+    private InMemoryUserImporter.Entry reuseHash(@Nullable InMemoryUserImporter.Entry entry,
+                                                 @NotNull InMemoryUserRegistry registry,
+                                                 @NotNull UsernameNormalizer normalizer,
+                                                 @NotNull Map<String, byte[]> newFingerprints) {
+        if (entry == null || entry.password() == null || entry.hashedPassword() != null) {
+            return entry;
+        }
+        final String key = normalizer.normalize(entry.username());
+        final byte[] fingerprint = fingerprintMac.doFinal(entry.password().getBytes(StandardCharsets.UTF_8));
+        newFingerprints.put(key, fingerprint);
+        final byte[] previous = fingerprints.get(key);
+        final InMemoryUser existing = registry.findByUsername(entry.username());
+        if (previous == null || !MessageDigest.isEqual(previous, fingerprint) || existing == null || existing.getHashedPassword() == null) {
+            return entry;
+        }
+        return new InMemoryUserImporter.Entry(entry.username(), null, existing.getHashedPassword(), entry.roles());
+    }
+
+    private static boolean isSame(@NotNull InMemoryUser existing, @NotNull InMemoryUser user) {
+        return existing.getUsername().equals(user.getUsername())
+                && Objects.equals(existing.getHashedPassword(), user.getHashedPassword())
+                && existing.getRoles().equals(user.getRoles());
+    }
+
+    /**
+     * Stops watching the file. The loaded users stay registered.
+     */
+    @Override
+    public void close() throws IOException {
+        final WatchService watchService;
+        final Thread thread;
+        synchronized (this) {
+            watchService = this.watchService;
+            thread = this.thread;
+            this.watchService = null;
+            this.thread = null;
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (thread != null) {
+            try {
+                thread.join(10_000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryUserFileWatcher{" + file + '}';
+    }
+}
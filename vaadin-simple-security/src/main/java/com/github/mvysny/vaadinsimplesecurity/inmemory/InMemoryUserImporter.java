@@ -0,0 +1,231 @@
+package com.github.mvysny.vaadinsimplesecurity.inmemory;
+
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashers;
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashingService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports users into {@link InMemoryUserRegistry} in bulk, from CSV or JSON. Plaintext passwords are hashed
+ * in parallel; already hashed passwords are taken as they are. The users are published to the registry in a single
+ * batch once all of them have been read and hashed: on any failure, no user is registered.
+ * <p></p>
+ * CSV: UTF-8, with a header row naming the columns <code>username</code>, <code>password</code>,
+ * <code>hashedPassword</code> and <code>roles</code> (only <code>username</code> is mandatory). Roles are separated
+ * by semicolons. Values containing commas, quotes or line breaks are quoted as per RFC 4180, which is the case for
+ * e.g. scrypt hashes:
+ * <pre>
+ * username,password,hashedPassword,roles
+ * admin,admin,,ROLE_ADMIN;ROLE_USER
+ * user,,"$scrypt$ln=15,r=8,p=1$...$...",ROLE_USER
+ * </pre>
+ * JSON: UTF-8, an array of objects with the same keys; <code>roles</code> is an array:
+ * <pre>
+ * [{"username": "admin", "password": "admin", "roles": ["ROLE_ADMIN", "ROLE_USER"]}]
+ * </pre>
+ * A user must not have both a password and a hashed password; a user with neither can only log in via SSO.
+ * <p></p>
+ * The import has its own hashing budget, {@link #setParallelism(int)}: the passwords are hashed directly by
+ * {@link PasswordHashers#getDefault()}, not via {@link PasswordHashingService}, so that an import neither takes the
+ * slots reserved for the logins nor fails when the logins saturate the service. By default only half of the CPU cores
+ * hash, so that the logins running in the meantime still get CPU time.
+ * <p></p>
+ * Not thread-safe: configure and use from a single thread.
+ */
+public final class InMemoryUserImporter {
+    /**
+     * Receives import progress. Called from the hashing threads; must be thread-safe.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param processed the number of users read and hashed so far.
+         * @param read the number of users read so far. The input is streamed, so the total number of users is only
+         *             known when the import finishes.
+         */
+        void onProgress(int processed, int read);
+    }
+
+    /**
+     * A single user, as read from the input.
+     * @param username the username.
+     * @param password the plaintext password, null if not present.
+     * @param hashedPassword the hashed password, null if not present.
+     * @param roles the roles.
+     */
+    record Entry(@NotNull String username, @Nullable String password, @Nullable String hashedPassword,
+                 @NotNull Set<String> roles) {
+    }
+
+    /**
+     * Streams entries from the input.
+     */
+    interface EntryReader {
+        /**
+         * @return the next entry or null if there are no more entries.
+         * @throws IOException on I/O error or malformed input.
+         */
+        @Nullable
+        Entry next() throws IOException;
+    }
+
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    @NotNull
+    private ProgressListener progressListener = (processed, read) -> {};
+
+    /**
+     * @param parallelism how many passwords to hash in parallel, 1 or greater. Defaults to half of the CPU cores.
+     *                    These hash computations come on top of the ones {@link PasswordHashingService} allows for the
+     *                    logins.
+     * @return this
+     */
+    @NotNull
+    public InMemoryUserImporter setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parameter parallelism: invalid value " + parallelism + ": must be 1 or greater");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param progressListener notified whenever a user has been processed.
+     * @return this
+     */
+    @NotNull
+    public InMemoryUserImporter setProgressListener(@NotNull ProgressListener progressListener) {
+        this.progressListener = Objects.requireNonNull(progressListener);
+        return this;
+    }
+
+    /**
+     * Reads users from a CSV and registers them to {@link InMemoryUserRegistry}.
+     * @param in the CSV, not closed by this function.
+     * @return the number of registered users.
+     * @throws IOException on I/O error or malformed input; no users are registered in such case.
+     * @throws IllegalArgumentException if a username is already registered or is present twice; no users are
+     * registered in such case.
+     */
+    public int importCsv(@NotNull InputStream in) throws IOException {
+        return register(readCsv(in));
+    }
+
+    /**
+     * Reads users from a JSON array and registers them to {@link InMemoryUserRegistry}.
+     * @param in the JSON, not closed by this function.
+     * @return the number of registered users.
+     * @throws IOException on I/O error or malformed input; no users are registered in such case.
+     * @throws IllegalArgumentException if a username is already registered or is present twice; no users are
+     * registered in such case.
+     */
+    public int importJson(@NotNull InputStream in) throws IOException {
+        return register(readJson(in));
+    }
+
+    /**
+     * Reads users from a CSV, without registering them.
+     * @param in the CSV, not closed by this function.
+     * @return the users, with the plaintext passwords hashed.
+     * @throws IOException on I/O error or malformed input.
+     */
+    @NotNull
+    public List<InMemoryUser> readCsv(@NotNull InputStream in) throws IOException {
+        return read(new CsvUserReader(reader(in)));
+    }
+
+    /**
+     * Reads users from a JSON array, without registering them.
+     * @param in the JSON, not closed by this function.
+     * @return the users, with the plaintext passwords hashed.
+     * @throws IOException on I/O error or malformed input.
+     */
+    @NotNull
+    public List<InMemoryUser> readJson(@NotNull InputStream in) throws IOException {
+        return read(new JsonUserReader(reader(in)));
+    }
+
+    @NotNull
+    static Reader reader(@NotNull InputStream in) {
+        return new BufferedReader(new InputStreamReader(Objects.requireNonNull(in), StandardCharsets.UTF_8));
+    }
+
+    private static int register(@NotNull List<InMemoryUser> users) {
+        InMemoryUserRegistry.get().registerUsers(users);
+        return users.size();
+    }
+
+    /**
+     * Reads all entries, hashing the plaintext passwords in parallel with reading.
+     */
+    @NotNull
+    List<InMemoryUser> read(@NotNull EntryReader reader) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            final AtomicInteger read = new AtomicInteger();
+            final AtomicInteger processed = new AtomicInteger();
+            final List<Future<InMemoryUser>> users = new ArrayList<>();
+            Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (entry.password() != null && entry.hashedPassword() != null) {
+                    throw new IOException("User " + entry.username() + ": both password and hashedPassword are present");
+                }
+                read.incrementAndGet();
+                final Entry e = entry;
+                users.add(executor.submit(() -> {
+                    final InMemoryUser user = toUser(e);
+                    progressListener.onProgress(processed.incrementAndGet(), read.get());
+                    return user;
+                }));
+            }
+            final List<InMemoryUser> result = new ArrayList<>(users.size());
+            for (Future<InMemoryUser> user : users) {
+                result.add(user.get());
+            }
+            return result;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @NotNull
+    private static InMemoryUser toUser(@NotNull Entry entry) {
+        if (entry.hashedPassword() != null) {
+            return InMemoryUser.withHashedPassword(entry.username(), entry.hashedPassword(), entry.roles());
+        }
+        if (entry.password() == null) {
+            return InMemoryUser.withHashedPassword(entry.username(), null, entry.roles());
+        }
+        // bypasses PasswordHashingService, see the class javadoc
+        final char[] password = entry.password().toCharArray();
+        try {
+            return InMemoryUser.withHashedPassword(entry.username(), PasswordHashers.getDefault().createHash(password), entry.roles());
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+}
@@ -4,7 +4,13 @@ import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -14,7 +20,9 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * Don't forget to register {@link SimpleNavigationAccessControl} as the before-navigation listener;
  * see {@link InMemoryLoginService} for a code example.
  * <p></p>
- * Thread-safe.
+ * The users are indexed by their username, as normalized by the {@link #setUsernameNormalizer(UsernameNormalizer) username normalizer}.
+ * <p></p>
+ * Thread-safe. {@link #findByUsername(String)} never blocks; modifications are serialized.
  */
 public final class InMemoryUserRegistry {
     /**
@@ -33,41 +41,287 @@ public final class InMemoryUserRegistry {
     }
 
     /**
-     * All users registered via {@link #registerUser(InMemoryUser)}.
+     * The users keyed by the normalized username, together with the normalizer which produced the keys.
+     * Replaced as a whole when the normalizer changes, so that readers always see matching keys and normalizer.
      */
+    private record Index(@NotNull UsernameNormalizer normalizer, @NotNull ConcurrentHashMap<String, InMemoryUser> users) {
+        @NotNull
+        String keyOf(@NotNull String username) {
+            return Objects.requireNonNull(normalizer.normalize(username), "normalizer returned null");
+        }
+    }
+
     @NotNull
-    private final CopyOnWriteArrayList<InMemoryUser> users = new CopyOnWriteArrayList<>();
+    private volatile Index index = new Index(UsernameNormalizer.EXACT, new ConcurrentHashMap<>());
+
+    /**
+     * Notified about modifications of the registry, e.g. to persist them. See {@link #addChangeListener(ChangeListener)}.
+     */
+    public interface ChangeListener {
+        /**
+         * The users have been registered, via {@link #registerUser(InMemoryUser)}, {@link #registerUsers(Collection)}
+         * or {@link #update(Collection, Collection)}.
+         * @param users the new users.
+         */
+        void onRegistered(@NotNull Collection<InMemoryUser> users);
+
+        /**
+         * A user has been replaced via {@link #replaceUser(InMemoryUser)} or {@link #update(Collection, Collection)}.
+         * @param user the new version of the user.
+         */
+        void onReplaced(@NotNull InMemoryUser user);
+
+        /**
+         * A user has been removed via {@link #unregisterUser(String)} or {@link #update(Collection, Collection)}.
+         * @param user the removed user.
+         */
+        void onUnregistered(@NotNull InMemoryUser user);
+
+        /**
+         * All users have been removed via {@link #clear()}.
+         */
+        void onCleared();
+    }
+
+    @NotNull
+    private final CopyOnWriteArrayList<ChangeListener> listeners = new CopyOnWriteArrayList<>();
 
     private InMemoryUserRegistry() {
     }
 
+    /**
+     * Adds a listener which is notified after every modification of this registry. The listener is called while the
+     * registry is locked, in the order of the modifications; it must be quick.
+     * @param listener the listener to add.
+     */
+    public void addChangeListener(@NotNull ChangeListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Removes a listener previously added via {@link #addChangeListener(ChangeListener)}.
+     * @param listener the listener to remove.
+     */
+    public void removeChangeListener(@NotNull ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the current username normalizer. Defaults to {@link UsernameNormalizer#EXACT}.
+     */
+    @NotNull
+    public UsernameNormalizer getUsernameNormalizer() {
+        return index.normalizer();
+    }
+
+    /**
+     * Changes the way usernames are compared, re-indexing all registered users.
+     * @param normalizer the new normalizer, e.g. {@link UsernameNormalizer#CASE_INSENSITIVE}.
+     * @throws IllegalArgumentException if two registered users would become duplicates under the new normalizer.
+     * The normalizer is not changed in such case.
+     */
+    public synchronized void setUsernameNormalizer(@NotNull UsernameNormalizer normalizer) {
+        final Index newIndex = new Index(Objects.requireNonNull(normalizer), new ConcurrentHashMap<>());
+        putAll(newIndex, index.users().values());
+        index = newIndex;
+    }
+
     /**
      * Adds a new user to this registry.
      * @param user the user to add.
+     * @throws IllegalArgumentException if a user with the same (normalized) username is already registered.
+     */
+    public synchronized void registerUser(@NotNull InMemoryUser user) {
+        Objects.requireNonNull(user);
+        final Index index = this.index;
+        final InMemoryUser existing = index.users().putIfAbsent(index.keyOf(user.getUsername()), user);
+        if (existing != null) {
+            throw duplicate(user, existing);
+        }
+        for (ChangeListener listener : listeners) {
+            listener.onRegistered(List.of(user));
+        }
+    }
+
+    /**
+     * Adds new users to this registry, in bulk. Either all users are added, or none.
+     * @param users the users to add.
+     * @throws IllegalArgumentException if a user with the same (normalized) username is already registered,
+     * or is present twice in <code>users</code>.
+     */
+    public synchronized void registerUsers(@NotNull Collection<InMemoryUser> users) {
+        final Index index = this.index;
+        final Map<String, InMemoryUser> batch = new HashMap<>(users.size() * 4 / 3 + 1);
+        for (InMemoryUser user : users) {
+            Objects.requireNonNull(user);
+            final String key = index.keyOf(user.getUsername());
+            InMemoryUser existing = index.users().get(key);
+            if (existing == null) {
+                existing = batch.putIfAbsent(key, user);
+            }
+            if (existing != null) {
+                throw duplicate(user, existing);
+            }
+        }
+        index.users().putAll(batch);
+        final List<InMemoryUser> registered = List.copyOf(batch.values());
+        for (ChangeListener listener : listeners) {
+            listener.onRegistered(registered);
+        }
+    }
+
+    /**
+     * Replaces a registered user with given user, e.g. to change the roles. The user is looked up by its (normalized)
+     * username.
+     * @param user the new version of the user.
+     * @return the replaced user.
+     * @throws IllegalArgumentException if there's no such user registered.
+     */
+    @NotNull
+    public synchronized InMemoryUser replaceUser(@NotNull InMemoryUser user) {
+        Objects.requireNonNull(user);
+        final Index index = this.index;
+        final InMemoryUser replaced = index.users().replace(index.keyOf(user.getUsername()), user);
+        if (replaced == null) {
+            throw new IllegalArgumentException("Parameter user: invalid value " + user + ": no such user registered");
+        }
+        for (ChangeListener listener : listeners) {
+            listener.onReplaced(user);
+        }
+        return replaced;
+    }
+
+    /**
+     * Replaces a registered user with given user, but only if the registered user is still <code>expected</code>:
+     * a concurrent change of the user (e.g. of the roles) is never overwritten by a stale copy.
+     * @param expected the user expected to be registered under the (normalized) username of <code>user</code>.
+     * @param user the new version of the user.
+     * @return true if the user has been replaced, false if <code>expected</code> is no longer registered.
+     */
+    public synchronized boolean replaceUser(@NotNull InMemoryUser expected, @NotNull InMemoryUser user) {
+        Objects.requireNonNull(expected);
+        Objects.requireNonNull(user);
+        final Index index = this.index;
+        final String key = index.keyOf(user.getUsername());
+        // InMemoryUser.equals() only compares usernames: check the identity. All modifications hold the lock.
+        if (index.users().get(key) != expected) {
+            return false;
+        }
+        index.users().put(key, user);
+        for (ChangeListener listener : listeners) {
+            listener.onReplaced(user);
+        }
+        return true;
+    }
+
+    /**
+     * Registers or replaces given users and removes given usernames, as a single atomic change:
+     * {@link #findByUsername(String)} sees either none or all of the changes. Copies the index, so prefer
+     * {@link #registerUsers(Collection)} for plain bulk additions.
+     * @param users the users to register or replace; a user replaces the registered user with the same (normalized)
+     *              username, if there is one.
+     * @param removedUsernames the usernames to remove; usernames which aren't registered are ignored.
+     * @throws IllegalArgumentException if a username is present twice in <code>users</code>.
+     */
+    public synchronized void update(@NotNull Collection<InMemoryUser> users, @NotNull Collection<String> removedUsernames) {
+        final Index index = this.index;
+        final Index newIndex = new Index(index.normalizer(), new ConcurrentHashMap<>(index.users()));
+        final List<InMemoryUser> removed = new ArrayList<>();
+        for (String username : removedUsernames) {
+            final InMemoryUser user = newIndex.users().remove(newIndex.keyOf(username));
+            if (user != null) {
+                removed.add(user);
+            }
+        }
+        final Map<String, InMemoryUser> batch = new HashMap<>(users.size() * 4 / 3 + 1);
+        final List<InMemoryUser> registered = new ArrayList<>();
+        final List<InMemoryUser> replaced = new ArrayList<>();
+        for (InMemoryUser user : users) {
+            Objects.requireNonNull(user);
+            final String key = newIndex.keyOf(user.getUsername());
+            final InMemoryUser existing = batch.putIfAbsent(key, user);
+            if (existing != null) {
+                throw duplicate(user, existing);
+            }
+            (newIndex.users().put(key, user) == null ? registered : replaced).add(user);
+        }
+        this.index = newIndex;
+        for (ChangeListener listener : listeners) {
+            removed.forEach(listener::onUnregistered);
+            replaced.forEach(listener::onReplaced);
+            if (!registered.isEmpty()) {
+                listener.onRegistered(registered);
+            }
+        }
+    }
+
+    /**
+     * Removes a user from this registry.
+     * @param username the username, not null.
+     * @return the removed user or null if there was no such user.
      */
-    public void registerUser(@NotNull InMemoryUser user) {
-        users.add(Objects.requireNonNull(user));
+    @Nullable
+    public synchronized InMemoryUser unregisterUser(@NotNull String username) {
+        Objects.requireNonNull(username);
+        final Index index = this.index;
+        final InMemoryUser removed = index.users().remove(index.keyOf(username));
+        if (removed != null) {
+            for (ChangeListener listener : listeners) {
+                listener.onUnregistered(removed);
+            }
+        }
+        return removed;
     }
 
     /**
      * Removes all users.
      */
-    public void clear() {
-        users.clear();
+    public synchronized void clear() {
+        index.users().clear();
+        for (ChangeListener listener : listeners) {
+            listener.onCleared();
+        }
+    }
+
+    /**
+     * @return a snapshot of all registered users, in no particular order.
+     */
+    @NotNull
+    public List<InMemoryUser> getUsers() {
+        return List.copyOf(index.users().values());
+    }
+
+    /**
+     * @return the number of registered users.
+     */
+    public int size() {
+        return index.users().size();
     }
 
     /**
      * Finds the user by its username.
-     * @param username the username, not null.
+     * @param username the username, not null. Normalized by the current {@link #getUsernameNormalizer()}.
      * @return the user with given username or null if no such user has been
      * registered via {@link #registerUser(InMemoryUser)}.
      */
     @Nullable
     public InMemoryUser findByUsername(@NotNull String username) {
         Objects.requireNonNull(username);
-        return users.stream()
-                .filter(it -> it.getUsername().equals(username))
-                .findAny()
-                .orElse(null);
+        final Index index = this.index;
+        return index.users().get(index.keyOf(username));
+    }
+
+    private static void putAll(@NotNull Index index, @NotNull Collection<InMemoryUser> users) {
+        for (InMemoryUser user : users) {
+            final InMemoryUser existing = index.users().putIfAbsent(index.keyOf(user.getUsername()), user);
+            if (existing != null) {
+                throw duplicate(user, existing);
+            }
+        }
+    }
+
+    @NotNull
+    private static IllegalArgumentException duplicate(@NotNull InMemoryUser user, @NotNull InMemoryUser existing) {
+        return new IllegalArgumentException("Parameter user: invalid value " + user + ": username clashes with already registered " + existing);
     }
 }
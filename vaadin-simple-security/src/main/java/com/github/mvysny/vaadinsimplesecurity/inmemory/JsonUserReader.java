@@ -0,0 +1,210 @@
+package com.github.mvysny.vaadinsimplesecurity.inmemory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Streams users from a JSON array of objects, one object at a time; see {@link InMemoryUserImporter} for the format.
+ * A minimal JSON parser, so that the library doesn't need to depend on a JSON library.
+ */
+final class JsonUserReader implements InMemoryUserImporter.EntryReader {
+    @NotNull
+    private final Reader reader;
+    /**
+     * The one character read ahead, -2 if none.
+     */
+    private int peeked = -2;
+    private int line = 1;
+    private boolean started;
+    private boolean finished;
+
+    JsonUserReader(@NotNull Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public InMemoryUserImporter.@Nullable Entry next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            expect('[');
+            started = true;
+            if (peekToken() == ']') {
+                read();
+                finished = true;
+                return null;
+            }
+        } else {
+            final int c = readToken();
+            if (c == ']') {
+                finished = true;
+                return null;
+            }
+            if (c != ',') {
+                throw error("expected ',' or ']'");
+            }
+        }
+        return readUser();
+    }
+
+    @NotNull
+    private InMemoryUserImporter.Entry readUser() throws IOException {
+        expect('{');
+        String username = null;
+        String password = null;
+        String hashedPassword = null;
+        final Set<String> roles = new LinkedHashSet<>();
+        if (peekToken() == '}') {
+            read();
+        } else {
+            while (true) {
+                final String key = readString();
+                expect(':');
+                switch (key) {
+                    case "username" -> username = readNullableString();
+                    case "password" -> password = readNullableString();
+                    case "hashedPassword" -> hashedPassword = readNullableString();
+                    case "roles" -> readRoles(roles);
+                    default -> throw error("unknown key '" + key + "'");
+                }
+                final int c = readToken();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+        if (username == null || username.isEmpty()) {
+            throw error("missing username");
+        }
+        return new InMemoryUserImporter.Entry(username, password, hashedPassword, roles);
+    }
+
+    private void readRoles(@NotNull Set<String> roles) throws IOException {
+        expect('[');
+        if (peekToken() == ']') {
+            read();
+            return;
+        }
+        while (true) {
+            roles.add(readString());
+            final int c = readToken();
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw error("expected ',' or ']'");
+            }
+        }
+    }
+
+    @Nullable
+    private String readNullableString() throws IOException {
+        if (peekToken() == 'n') {
+            for (char expected : "null".toCharArray()) {
+                if (read() != expected) {
+                    throw error("expected a string or null");
+                }
+            }
+            return null;
+        }
+        return readString();
+    }
+
+    @NotNull
+    private String readString() throws IOException {
+        expect('"');
+        final StringBuilder sb = new StringBuilder();
+        while (true) {
+            final int c = read();
+            if (c < 0 || c == '\n') {
+                throw error("unterminated string");
+            }
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append((char) c);
+                continue;
+            }
+            final int escaped = read();
+            switch (escaped) {
+                case '"', '\\', '/' -> sb.append((char) escaped);
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    int codeUnit = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(read(), 16);
+                        if (digit < 0) {
+                            throw error("invalid \\u escape");
+                        }
+                        codeUnit = codeUnit * 16 + digit;
+                    }
+                    sb.append((char) codeUnit);
+                }
+                default -> throw error("invalid escape");
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (readToken() != expected) {
+            throw error("expected '" + expected + "'");
+        }
+    }
+
+    /**
+     * Reads the next non-whitespace character.
+     */
+    private int readToken() throws IOException {
+        peekToken();
+        return read();
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it.
+     */
+    private int peekToken() throws IOException {
+        while (true) {
+            final int c = peek();
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                read();
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        final int c = peeked != -2 ? peeked : reader.read();
+        peeked = -2;
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+
+    @NotNull
+    private IOException error(@NotNull String message) {
+        return new IOException("Line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.mvysny.vaadinsimplesecurity.inmemory;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Converts a username into the key under which {@link InMemoryUserRegistry} stores the user. Two usernames with the
+ * same key denote the same user: they can't both be registered, and either of them finds the user on login.
+ * <p></p>
+ * Must be thread-safe and must always return the same key for the same username.
+ */
+@FunctionalInterface
+public interface UsernameNormalizer {
+    /**
+     * Computes the registry key for given username.
+     * @param username the username, not null.
+     * @return the key, not null.
+     */
+    @NotNull
+    String normalize(@NotNull String username);
+
+    /**
+     * Usernames are compared as they are: <code>Admin</code> and <code>admin</code> are two different users. The default.
+     */
+    @NotNull
+    UsernameNormalizer EXACT = username -> username;
+
+    /**
+     * Usernames are compared case-insensitively, in a locale-independent way: <code>Admin</code> finds
+     * <code>admin</code>, and <code>STRASSE</code> finds <code>straße</code>.
+     */
+    @NotNull
+    UsernameNormalizer CASE_INSENSITIVE = username -> username.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+
+    /**
+     * Usernames are compared after Unicode NFKC normalization, then case-insensitively: in addition to
+     * {@link #CASE_INSENSITIVE}, a username composed of a letter plus a combining accent finds the same user as the
+     * precomposed letter, and full-width or ligature forms find the plain ones.
+     */
+    @NotNull
+    UsernameNormalizer NFKC_CASE_INSENSITIVE = username -> CASE_INSENSITIVE.normalize(Normalizer.normalize(username, Normalizer.Form.NFKC));
+}
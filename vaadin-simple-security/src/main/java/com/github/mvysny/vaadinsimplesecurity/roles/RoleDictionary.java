@@ -0,0 +1,137 @@
+package com.github.mvysny.vaadinsimplesecurity.roles;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a small integer id to every role name, so that {@link RoleSet} can store roles as bits.
+ * The ids are assigned in the order the roles are first seen, starting with 0; they are only valid within this JVM
+ * and are never persisted.
+ * <p></p>
+ * An application typically uses tens of distinct roles. The dictionary never shrinks, since the ids are referenced
+ * by the {@link RoleSet}s of the logged-in users; it is therefore capped at {@link #MAX_SIZE} roles. Once full,
+ * {@link RoleSet} stores the new roles by name instead: the logins keep working, only slower, and a warning is logged.
+ * Don't derive role names from unbounded input, such as user ids or tenant ids coming from an external identity
+ * provider.
+ * <p></p>
+ * Thread-safe. Lookups never block.
+ */
+public final class RoleDictionary {
+    private static final Logger log = LoggerFactory.getLogger(RoleDictionary.class);
+
+    /**
+     * The maximum number of distinct roles. A {@link RoleSet} holding the role with the highest id takes
+     * <code>MAX_SIZE / 8</code> bytes.
+     */
+    public static final int MAX_SIZE = 4096;
+
+    /**
+     * Singleton instance of this dictionary.
+     */
+    @NotNull
+    private static final RoleDictionary INSTANCE = new RoleDictionary(MAX_SIZE);
+
+    /**
+     * Returns the singleton instance of this dictionary.
+     * @return the singleton instance.
+     */
+    @NotNull
+    public static RoleDictionary get() {
+        return INSTANCE;
+    }
+
+    @NotNull
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /**
+     * Role id to role name. Only grows; replaced as a whole under the lock.
+     */
+    private volatile String @NotNull [] names = new String[0];
+    private final int maxSize;
+    /**
+     * Guarded by this.
+     */
+    private boolean overflowLogged = false;
+
+    RoleDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the id of given role, assigning a new id if the role hasn't been seen yet. Used for the roles known
+     * at configuration time, such as the {@link RoleHierarchy}.
+     * @param role the role name, not null.
+     * @return the role id, 0 or greater.
+     * @throws IllegalStateException if the role is new and the dictionary already holds {@link #MAX_SIZE} roles.
+     */
+    public int intern(@NotNull String role) {
+        final int id = tryIntern(role);
+        if (id < 0) {
+            throw new IllegalStateException("Too many distinct roles: " + maxSize + ", can't add " + role);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of given role, assigning a new id if the role hasn't been seen yet and the dictionary isn't full.
+     * @param role the role name, not null.
+     * @return the role id, or -1 if the role is new and the dictionary already holds {@link #MAX_SIZE} roles.
+     */
+    public int tryIntern(@NotNull String role) {
+        final Integer id = ids.get(Objects.requireNonNull(role));
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            final Integer existing = ids.get(role);
+            if (existing != null) {
+                return existing;
+            }
+            if (this.names.length >= maxSize) {
+                if (!overflowLogged) {
+                    overflowLogged = true;
+                    log.warn("Too many distinct roles: {}; the new roles are no longer interned, which makes the role checks slower. Don't derive role names from user ids or tenant ids", maxSize);
+                }
+                return -1;
+            }
+            final String[] names = Arrays.copyOf(this.names, this.names.length + 1);
+            final int newId = names.length - 1;
+            names[newId] = role;
+            // publish the name before the id, so that nameOf() never fails for an id obtained from find()
+            this.names = names;
+            ids.put(role, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Returns the id of given role, without assigning a new one.
+     * @param role the role name, not null.
+     * @return the role id, or -1 if no user has been given this role yet.
+     */
+    public int find(@NotNull String role) {
+        final Integer id = ids.get(role);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the role id, as returned by {@link #intern(String)}.
+     * @return the role name.
+     * @throws IndexOutOfBoundsException if there's no such id.
+     */
+    @NotNull
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the number of known roles.
+     */
+    public int size() {
+        return names.length;
+    }
+}
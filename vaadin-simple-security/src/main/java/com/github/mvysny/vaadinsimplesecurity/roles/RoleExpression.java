@@ -0,0 +1,317 @@
+package com.github.mvysny.vaadinsimplesecurity.roles;
+
+import com.github.mvysny.vaadinsimplesecurity.access.RolesExpression;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A boolean expression over roles, such as <code>ROLE_ADMIN or (ROLE_AUDITOR and not ROLE_CONTRACTOR)</code>.
+ * Operators are <code>not</code>/<code>!</code>, <code>and</code>/<code>&amp;&amp;</code> and
+ * <code>or</code>/<code>||</code> in the order of precedence, case-insensitive; use parentheses to group.
+ * <p></p>
+ * Parsed once into a tree of bit tests over {@link RoleSet}: runs of <code>or</code>-ed roles become a single
+ * "intersects" test and runs of <code>and</code>-ed roles a single "contains all" test. Testing allocates nothing.
+ * <p></p>
+ * See {@link RolesExpression} for the annotation. Immutable, thread-safe.
+ */
+public final class RoleExpression {
+    /**
+     * Parsed expressions, keyed by their source. Expressions come from annotations, so there are few of them.
+     */
+    @NotNull
+    private static final ConcurrentHashMap<String, RoleExpression> PARSED = new ConcurrentHashMap<>();
+
+    @NotNull
+    private final String source;
+    @NotNull
+    private final Node root;
+
+    private RoleExpression(@NotNull String source, @NotNull Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /**
+     * Parses given expression. The result is cached, so that all uses of the same expression share the same instance.
+     * @param expression the expression, e.g. <code>ROLE_ADMIN or (ROLE_AUDITOR and not ROLE_CONTRACTOR)</code>.
+     * @return the parsed expression.
+     * @throws IllegalArgumentException if the expression is malformed.
+     */
+    @NotNull
+    public static RoleExpression parse(@NotNull String expression) {
+        final RoleExpression parsed = PARSED.get(expression);
+        if (parsed != null) {
+            return parsed;
+        }
+        final RoleExpression result = new RoleExpression(expression, new Parser(expression).parse());
+        final RoleExpression existing = PARSED.putIfAbsent(expression, result);
+        return existing != null ? existing : result;
+    }
+
+    /**
+     * @param roles the effective roles of the user, not null.
+     * @return true if the roles satisfy this expression.
+     */
+    public boolean test(@NotNull RoleSet roles) {
+        return root.test(roles);
+    }
+
+    /**
+     * @return the expression as it was written.
+     */
+    @NotNull
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof RoleExpression that && source.equals(that.source);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * A node of the compiled expression.
+     */
+    private sealed interface Node permits AnyOf, AllOf, Not, Or, And {
+        boolean test(@NotNull RoleSet roles);
+    }
+
+    /**
+     * True if the user has at least one of the roles; a single role is an <code>AnyOf</code> with one role.
+     */
+    private record AnyOf(@NotNull RoleSet roles) implements Node {
+        @Override
+        public boolean test(@NotNull RoleSet roles) {
+            return roles.intersects(this.roles);
+        }
+    }
+
+    /**
+     * True if the user has all of the roles.
+     */
+    private record AllOf(@NotNull RoleSet roles) implements Node {
+        @Override
+        public boolean test(@NotNull RoleSet roles) {
+            return roles.containsAll(this.roles);
+        }
+    }
+
+    private record Not(@NotNull Node node) implements Node {
+        @Override
+        public boolean test(@NotNull RoleSet roles) {
+            return !node.test(roles);
+        }
+    }
+
+    private record Or(@NotNull Node @NotNull [] nodes) implements Node {
+        @Override
+        public boolean test(@NotNull RoleSet roles) {
+            for (Node node : nodes) {
+                if (node.test(roles)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private record And(@NotNull Node @NotNull [] nodes) implements Node {
+        @Override
+        public boolean test(@NotNull RoleSet roles) {
+            for (Node node : nodes) {
+                if (!node.test(roles)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Creates the <code>or</code> of given nodes, merging the role tests into a single {@link AnyOf}.
+     */
+    @NotNull
+    private static Node or(@NotNull List<Node> nodes) {
+        final List<Node> result = new ArrayList<>();
+        RoleSet anyOf = null;
+        for (Node node : nodes) {
+            if (node instanceof AnyOf(RoleSet roles)) {
+                anyOf = anyOf == null ? roles : anyOf.union(roles);
+            } else if (node instanceof Or(Node[] children)) {
+                result.addAll(List.of(children));
+            } else {
+                result.add(node);
+            }
+        }
+        if (anyOf != null) {
+            result.add(0, new AnyOf(anyOf));
+        }
+        return result.size() == 1 ? result.get(0) : new Or(result.toArray(new Node[0]));
+    }
+
+    /**
+     * Creates the <code>and</code> of given nodes, merging the single-role tests into a single {@link AllOf}.
+     */
+    @NotNull
+    private static Node and(@NotNull List<Node> nodes) {
+        final List<Node> result = new ArrayList<>();
+        RoleSet allOf = null;
+        for (Node node : nodes) {
+            final RoleSet roles = node instanceof AllOf(RoleSet all) ? all
+                    : node instanceof AnyOf(RoleSet any) && any.size() == 1 ? any : null;
+            if (roles != null) {
+                allOf = allOf == null ? roles : allOf.union(roles);
+            } else if (node instanceof And(Node[] children)) {
+                result.addAll(List.of(children));
+            } else {
+                result.add(node);
+            }
+        }
+        if (allOf != null) {
+            result.add(0, allOf.size() == 1 ? new AnyOf(allOf) : new AllOf(allOf));
+        }
+        return result.size() == 1 ? result.get(0) : new And(result.toArray(new Node[0]));
+    }
+
+    /**
+     * A recursive-descent parser:
+     * <pre>
+     * or    := and (("or" | "||") and)*
+     * and   := unary (("and" | "&amp;&amp;") unary)*
+     * unary := ("not" | "!") unary | "(" or ")" | ROLE
+     * </pre>
+     */
+    private static final class Parser {
+        @NotNull
+        private final String expression;
+        private int position = 0;
+
+        private Parser(@NotNull String expression) {
+            this.expression = expression;
+        }
+
+        @NotNull
+        Node parse() {
+            final Node node = parseOr();
+            skipWhitespace();
+            if (position < expression.length()) {
+                throw fail("unexpected '" + peekToken() + "'");
+            }
+            return node;
+        }
+
+        @NotNull
+        private Node parseOr() {
+            final List<Node> nodes = new ArrayList<>();
+            nodes.add(parseAnd());
+            while (accept("or") || accept("||")) {
+                nodes.add(parseAnd());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : or(nodes);
+        }
+
+        @NotNull
+        private Node parseAnd() {
+            final List<Node> nodes = new ArrayList<>();
+            nodes.add(parseUnary());
+            while (accept("and") || accept("&&")) {
+                nodes.add(parseUnary());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : and(nodes);
+        }
+
+        @NotNull
+        private Node parseUnary() {
+            if (accept("not") || accept("!")) {
+                final Node node = parseUnary();
+                return node instanceof Not(Node negated) ? negated : new Not(node);
+            }
+            if (accept("(")) {
+                final Node node = parseOr();
+                if (!accept(")")) {
+                    throw fail("expected ')'");
+                }
+                return node;
+            }
+            skipWhitespace();
+            final String role = peekToken();
+            if (role.isEmpty() || isOperator(role) || !isRoleChar(role.charAt(0))) {
+                throw fail("expected a role");
+            }
+            position += role.length();
+            return new AnyOf(RoleSet.of(role));
+        }
+
+        /**
+         * Consumes given operator if it's next.
+         */
+        private boolean accept(@NotNull String operator) {
+            skipWhitespace();
+            final String token = peekToken();
+            if (token.equalsIgnoreCase(operator)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private static boolean isOperator(@NotNull String token) {
+            return switch (token.toLowerCase(Locale.ROOT)) {
+                case "and", "or", "not", "&&", "||", "!", "(", ")" -> true;
+                default -> false;
+            };
+        }
+
+        /**
+         * @return the next token without consuming it: a parenthesis, a symbolic operator, or a word. Empty at the end.
+         */
+        @NotNull
+        private String peekToken() {
+            if (position >= expression.length()) {
+                return "";
+            }
+            final char c = expression.charAt(position);
+            if (c == '(' || c == ')' || c == '!') {
+                return String.valueOf(c);
+            }
+            if (c == '&' || c == '|') {
+                return expression.startsWith("" + c + c, position) ? "" + c + c : String.valueOf(c);
+            }
+            int end = position;
+            while (end < expression.length() && isRoleChar(expression.charAt(end))) {
+                end++;
+            }
+            return expression.substring(position, end);
+        }
+
+        private static boolean isRoleChar(char c) {
+            return !Character.isWhitespace(c) && c != '(' && c != ')' && c != '!' && c != '&' && c != '|';
+        }
+
+        private void skipWhitespace() {
+            while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        @NotNull
+        private IllegalArgumentException fail(@NotNull String message) {
+            return new IllegalArgumentException("Parameter expression: invalid value '" + expression + "': "
+                    + message + " at position " + position);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.github.mvysny.vaadinsimplesecurity.roles;
+
+import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl;
+import com.github.mvysny.vaadinsimplesecurity.SimpleUserWithRoles;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Defines roles which imply other roles, e.g. <code>ROLE_ADMIN</code> implying <code>ROLE_USER</code>, so that
+ * the implied roles don't need to be assigned to every user. The hierarchy is compiled once into a transitive
+ * closure table: role id to all roles it implies, directly or indirectly. Cycles are allowed and make the roles
+ * equivalent.
+ * <p></p>
+ * Install the hierarchy at application startup via {@link #setGlobal(RoleHierarchy)};
+ * {@link SimpleUserWithRoles#hasRole(String)} and {@link SimpleNavigationAccessControl} then take the implied roles
+ * into account:
+ * <pre>
+ * RoleHierarchy.setGlobal(RoleHierarchy.parse("""
+ *     ROLE_ADMIN > ROLE_USER > ROLE_GUEST
+ *     ROLE_ADMIN > ROLE_AUDITOR
+ *     """));
+ * </pre>
+ * Immutable, thread-safe.
+ */
+public final class RoleHierarchy {
+    /**
+     * No role implies any other role.
+     */
+    @NotNull
+    public static final RoleHierarchy NONE = new RoleHierarchy(new RoleSet[0]);
+
+    @NotNull
+    private static volatile RoleHierarchy global = NONE;
+
+    /**
+     * @return the hierarchy used by {@link SimpleUserWithRoles}. Defaults to {@link #NONE}.
+     */
+    @NotNull
+    public static RoleHierarchy getGlobal() {
+        return global;
+    }
+
+    /**
+     * Sets the hierarchy used by {@link SimpleUserWithRoles}. Call at application startup.
+     * @param hierarchy the new hierarchy, not null.
+     */
+    public static void setGlobal(@NotNull RoleHierarchy hierarchy) {
+        global = Objects.requireNonNull(hierarchy);
+    }
+
+    /**
+     * The transitive closure: role id to the roles it implies, including itself; null if the role implies no
+     * other role.
+     */
+    private final RoleSet @NotNull [] closure;
+
+    /**
+     * The expansion of a role set by a hierarchy, cached in {@link RoleSet#expansion}.
+     * @param hierarchy the hierarchy which computed the expansion.
+     * @param roles the effective roles.
+     */
+    record Expansion(@NotNull RoleHierarchy hierarchy, @NotNull RoleSet roles) {
+    }
+
+    private RoleHierarchy(RoleSet @NotNull [] closure) {
+        this.closure = closure;
+    }
+
+    /**
+     * Returns given roles together with all roles they imply.
+     * <p></p>
+     * The result is cached in the (canonical) role set itself, so that checking the roles of a user is a volatile
+     * read once the roles have been expanded; no lock is taken. Replacing the {@link #setGlobal(RoleHierarchy) global}
+     * hierarchy invalidates the cached expansions, since they remember the hierarchy which computed them.
+     * @param roles the assigned roles, not null.
+     * @return the effective roles. The same instance is returned for the same roles.
+     */
+    @NotNull
+    public RoleSet expand(@NotNull RoleSet roles) {
+        if (closure.length == 0 || roles.isEmpty()) {
+            return roles;
+        }
+        final Expansion cached = roles.expansion;
+        if (cached != null && cached.hierarchy() == this) {
+            return cached.roles();
+        }
+        long[] words = new long[0];
+        for (int id = roles.nextId(0); id >= 0; id = roles.nextId(id + 1)) {
+            if (id < closure.length && closure[id] != null) {
+                words = RoleSet.or(words, closure[id]);
+            }
+        }
+        // keep the roles which imply nothing. A concurrent computation yields an equal set, so a racing write is harmless
+        final RoleSet computed = roles.withIds(words);
+        roles.expansion = new Expansion(this, computed);
+        return computed;
+    }
+
+    /**
+     * @param role the role, not null.
+     * @return the role together with all roles it implies.
+     */
+    @NotNull
+    public RoleSet getImpliedRoles(@NotNull String role) {
+        return expand(RoleSet.of(role));
+    }
+
+    /**
+     * @param role the assigned role.
+     * @param impliedRole the role to check.
+     * @return true if <code>role</code> is <code>impliedRole</code> or implies it.
+     */
+    public boolean implies(@NotNull String role, @NotNull String impliedRole) {
+        return getImpliedRoles(role).contains(impliedRole);
+    }
+
+    /**
+     * @return a new builder.
+     */
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Parses the hierarchy from lines such as <code>ROLE_ADMIN &gt; ROLE_USER &gt; ROLE_GUEST</code>: every role
+     * implies the roles to its right. Blank lines are ignored.
+     * @param definition the hierarchy definition, not null.
+     * @return the compiled hierarchy.
+     * @throws IllegalArgumentException if the definition is malformed.
+     */
+    @NotNull
+    public static RoleHierarchy parse(@NotNull String definition) {
+        final Builder builder = builder();
+        for (String line : definition.split("\\R")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            final String[] roles = line.split(">", -1);
+            for (int i = 0; i < roles.length; i++) {
+                roles[i] = roles[i].trim();
+                if (roles[i].isEmpty() || roles.length < 2) {
+                    throw new IllegalArgumentException("Parameter definition: invalid value '" + line.trim() + "': expected ROLE_A > ROLE_B");
+                }
+            }
+            for (int i = 0; i < roles.length - 1; i++) {
+                builder.implies(roles[i], roles[i + 1]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects the role implications. Not thread-safe.
+     */
+    public static final class Builder {
+        /**
+         * Role to the roles it implies directly.
+         */
+        @NotNull
+        private final Map<String, List<String>> implications = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Declares that given role implies other roles.
+         * @param role the role, e.g. <code>ROLE_ADMIN</code>.
+         * @param impliedRoles the roles implied by <code>role</code>, e.g. <code>ROLE_USER</code>.
+         * @return this
+         */
+        @NotNull
+        public Builder implies(@NotNull String role, @NotNull String... impliedRoles) {
+            final List<String> implied = implications.computeIfAbsent(Objects.requireNonNull(role), r -> new ArrayList<>());
+            for (String impliedRole : impliedRoles) {
+                implied.add(Objects.requireNonNull(impliedRole));
+            }
+            return this;
+        }
+
+        /**
+         * Computes the transitive closure.
+         * @return the hierarchy.
+         */
+        @NotNull
+        public RoleHierarchy build() {
+            final RoleDictionary dictionary = RoleDictionary.get();
+            final Map<Integer, int[]> edges = new LinkedHashMap<>();
+            int maxId = -1;
+            for (Map.Entry<String, List<String>> entry : implications.entrySet()) {
+                final int id = dictionary.intern(entry.getKey());
+                edges.put(id, entry.getValue().stream().mapToInt(dictionary::intern).toArray());
+                maxId = Math.max(maxId, id);
+            }
+            final RoleSet[] closure = new RoleSet[maxId + 1];
+            for (int id : edges.keySet()) {
+                final BitSet reachable = new BitSet();
+                final Deque<Integer> pending = new ArrayDeque<>();
+                reachable.set(id);
+                pending.push(id);
+                while (!pending.isEmpty()) {
+                    for (int implied : edges.getOrDefault(pending.pop(), new int[0])) {
+                        if (!reachable.get(implied)) {
+                            reachable.set(implied);
+                            pending.push(implied);
+                        }
+                    }
+                }
+                closure[id] = RoleSet.canonical(reachable.toLongArray());
+            }
+            return new RoleHierarchy(closure);
+        }
+    }
+}
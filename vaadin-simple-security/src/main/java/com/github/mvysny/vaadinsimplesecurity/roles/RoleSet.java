@@ -0,0 +1,398 @@
+package com.github.mvysny.vaadinsimplesecurity.roles;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable set of roles, stored as a bitset of {@link RoleDictionary} ids. {@link #contains(Object)} is a single
+ * dictionary lookup followed by a bit test.
+ * <p></p>
+ * Instances are canonical: {@link #of(Collection)} returns the same instance for the same roles, so that thousands of
+ * users with the same roles share a single set. The canonical instances are only weakly referenced: a role combination
+ * no longer held by any user is garbage-collected, so the interner doesn't grow with every combination ever seen.
+ * <p></p>
+ * The roles which didn't fit into a full {@link RoleDictionary} are stored by name; such sets aren't canonical.
+ * <p></p>
+ * Serialized as role names, since the ids are only valid within a single JVM; deserialization returns
+ * the canonical instance.
+ */
+public final class RoleSet extends AbstractSet<String> implements Serializable {
+    /**
+     * Canonical instances, keyed by their bits.
+     */
+    @NotNull
+    private static final ConcurrentHashMap<Bits, CanonicalRef> CANONICAL = new ConcurrentHashMap<>();
+    /**
+     * Receives the references to the garbage-collected canonical instances, see {@link #expungeCollected()}.
+     */
+    @NotNull
+    private static final ReferenceQueue<RoleSet> COLLECTED = new ReferenceQueue<>();
+
+    /**
+     * The set with no roles.
+     */
+    @NotNull
+    public static final RoleSet EMPTY = canonical(new long[0]);
+
+    /**
+     * The role bits: role id <code>i</code> is bit <code>i % 64</code> of <code>words[i / 64]</code>.
+     * Has no trailing zero words.
+     */
+    private final long @NotNull [] words;
+    /**
+     * The roles without a {@link RoleDictionary} id, because the dictionary was full. Almost always empty.
+     */
+    @NotNull
+    private final Set<String> overflow;
+    private final int size;
+    private final int hashCode;
+    /**
+     * Caches {@link RoleHierarchy#expand(RoleSet)}: the expansion by the hierarchy which expanded this set last.
+     * Replaced as a whole, so that the hierarchy and the result always match; read without locking. Shared by all
+     * users with these roles, since the instances are canonical.
+     */
+    @Nullable
+    transient volatile RoleHierarchy.Expansion expansion = null;
+
+    private RoleSet(long @NotNull [] words, @NotNull Set<String> overflow) {
+        this.words = words;
+        this.overflow = overflow;
+        int size = overflow.size();
+        int hashCode = overflow.hashCode();
+        for (int id = nextId(0); id >= 0; id = nextId(id + 1)) {
+            size++;
+            hashCode += RoleDictionary.get().nameOf(id).hashCode();
+        }
+        this.size = size;
+        this.hashCode = hashCode;
+    }
+
+    /**
+     * Key of {@link #CANONICAL}.
+     */
+    private record Bits(long @NotNull [] words) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bits bits && Arrays.equals(words, bits.words);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(words);
+        }
+    }
+
+    /**
+     * A value of {@link #CANONICAL}; remembers its key so that it can be removed once collected.
+     */
+    private static final class CanonicalRef extends WeakReference<RoleSet> {
+        @NotNull
+        private final Bits key;
+
+        private CanonicalRef(@NotNull Bits key, @NotNull RoleSet set) {
+            super(set, COLLECTED);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Returns the canonical set of given roles.
+     * @param roles the role names, not null. Duplicates are ignored.
+     * @return the set, shared with all other users having the same roles unless the {@link RoleDictionary} is full.
+     */
+    @NotNull
+    public static RoleSet of(@NotNull Collection<String> roles) {
+        if (roles instanceof RoleSet roleSet) {
+            return roleSet;
+        }
+        long[] words = new long[0];
+        Set<String> overflow = Set.of();
+        for (String role : roles) {
+            final int id = RoleDictionary.get().tryIntern(role);
+            if (id < 0) {
+                overflow = union(overflow, Set.of(role));
+                continue;
+            }
+            if (id / 64 >= words.length) {
+                words = Arrays.copyOf(words, id / 64 + 1);
+            }
+            words[id / 64] |= 1L << id;
+        }
+        return of(words, overflow);
+    }
+
+    /**
+     * Returns the canonical set of given roles.
+     * @param roles the role names, not null. Duplicates are ignored.
+     * @return the set, shared with all other users having the same roles.
+     */
+    @NotNull
+    public static RoleSet of(@NotNull String... roles) {
+        return of(Arrays.asList(roles));
+    }
+
+    /**
+     * Returns the set of given roles; canonical if there are no overflow roles.
+     * @param words the role bits, see {@link #words}. Not retained.
+     * @param overflow the roles without an id, see {@link #overflow}. Immutable.
+     */
+    @NotNull
+    static RoleSet of(long @NotNull [] words, @NotNull Set<String> overflow) {
+        return overflow.isEmpty() ? canonical(words) : new RoleSet(trim(words), overflow);
+    }
+
+    /**
+     * @param words the role bits.
+     * @return a copy of <code>words</code> without the trailing zero words.
+     */
+    private static long @NotNull [] trim(long @NotNull [] words) {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.copyOf(words, length);
+    }
+
+    /**
+     * @return an immutable union of given immutable sets.
+     */
+    @NotNull
+    private static Set<String> union(@NotNull Set<String> a, @NotNull Set<String> b) {
+        if (a.containsAll(b)) {
+            return a;
+        }
+        if (b.containsAll(a)) {
+            return b;
+        }
+        final Set<String> result = new HashSet<>(a);
+        result.addAll(b);
+        return Set.copyOf(result);
+    }
+
+    /**
+     * Returns the canonical set of roles with given ids.
+     * @param words the role bits, see {@link #words}. Not retained.
+     */
+    @NotNull
+    static RoleSet canonical(long @NotNull [] words) {
+        final long[] trimmed = trim(words);
+        expungeCollected();
+        final Bits key = new Bits(trimmed);
+        while (true) {
+            final CanonicalRef ref = CANONICAL.get(key);
+            final RoleSet existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            final RoleSet created = new RoleSet(trimmed, Set.of());
+            final CanonicalRef createdRef = new CanonicalRef(key, created);
+            if (ref == null ? CANONICAL.putIfAbsent(key, createdRef) == null : CANONICAL.replace(key, ref, createdRef)) {
+                return created;
+            }
+            // lost the race with another thread; use its instance
+        }
+    }
+
+    /**
+     * Removes the garbage-collected sets from {@link #CANONICAL}.
+     */
+    private static void expungeCollected() {
+        for (Reference<? extends RoleSet> ref = COLLECTED.poll(); ref != null; ref = COLLECTED.poll()) {
+            final CanonicalRef canonicalRef = (CanonicalRef) ref;
+            CANONICAL.remove(canonicalRef.key, canonicalRef);
+        }
+    }
+
+    /**
+     * Returns the union of this and given set.
+     * @param other the other set, not null.
+     * @return the set containing the roles of both sets.
+     */
+    @NotNull
+    public RoleSet union(@NotNull RoleSet other) {
+        if (containsAll(other)) {
+            return this;
+        }
+        if (other.containsAll(this)) {
+            return other;
+        }
+        return of(or(words.clone(), other), union(overflow, other.overflow));
+    }
+
+    /**
+     * Returns this set extended by given roles.
+     * @param words the ids of the roles to add, see {@link #words}. Not retained.
+     * @return the set containing the roles of this set and the given ids.
+     */
+    @NotNull
+    RoleSet withIds(long @NotNull [] words) {
+        return of(or(words, this), overflow);
+    }
+
+    /**
+     * @param other the other set, not null.
+     * @return true if this and given set have at least one role in common.
+     */
+    public boolean intersects(@NotNull RoleSet other) {
+        final int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return !overflow.isEmpty() && !other.overflow.isEmpty() && !Collections.disjoint(overflow, other.overflow);
+    }
+
+    /**
+     * ORs the bits of given set into <code>words</code>.
+     * @return <code>words</code>, or a longer copy if the set doesn't fit.
+     */
+    static long @NotNull [] or(long @NotNull [] words, @NotNull RoleSet set) {
+        final long[] result = set.words.length > words.length ? Arrays.copyOf(words, set.words.length) : words;
+        for (int i = 0; i < set.words.length; i++) {
+            result[i] |= set.words[i];
+        }
+        return result;
+    }
+
+    /**
+     * @param roleId the {@link RoleDictionary} id of the role.
+     * @return true if this set contains given role.
+     */
+    public boolean contains(int roleId) {
+        final int word = roleId >>> 6;
+        return word < words.length && (words[word] & (1L << roleId)) != 0;
+    }
+
+    @Override
+    public boolean contains(@Nullable Object o) {
+        if (!(o instanceof String role)) {
+            return false;
+        }
+        final int id = RoleDictionary.get().find(role);
+        return id >= 0 ? contains(id) : !overflow.isEmpty() && overflow.contains(role);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param from the role id to start searching from, inclusive.
+     * @return the smallest id of a role in this set which is <code>from</code> or greater, -1 if there's none.
+     */
+    int nextId(int from) {
+        int word = from >>> 6;
+        if (word >= words.length) {
+            return -1;
+        }
+        long bits = words[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return word * 64 + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == words.length) {
+                return -1;
+            }
+            bits = words[word];
+        }
+    }
+
+    @Override
+    @NotNull
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private int next = nextId(0);
+            @NotNull
+            private final Iterator<String> overflowIterator = overflow.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0 || overflowIterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (next < 0) {
+                    return overflowIterator.next();
+                }
+                final String role = RoleDictionary.get().nameOf(next);
+                next = nextId(next + 1);
+                return role;
+            }
+        };
+    }
+
+    @Override
+    public boolean containsAll(@NotNull Collection<?> c) {
+        if (c instanceof RoleSet that) {
+            if (that.words.length > words.length) {
+                return false;
+            }
+            for (int i = 0; i < that.words.length; i++) {
+                if ((that.words[i] & ~words[i]) != 0) {
+                    return false;
+                }
+            }
+            return overflow.containsAll(that.overflow);
+        }
+        return super.containsAll(c);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o instanceof RoleSet that) {
+            return Arrays.equals(words, that.words) && overflow.equals(that.overflow);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Serial
+    private Object writeReplace() {
+        return new SerializedForm(toArray(new String[0]));
+    }
+
+    @Serial
+    private void readObject(@NotNull ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("Serialized via SerializedForm");
+    }
+
+    /**
+     * The serialized form: the role names.
+     */
+    private record SerializedForm(String @NotNull [] roles) implements Serializable {
+        @Serial
+        private Object readResolve() {
+            return RoleSet.of(List.of(roles));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Helpers for the compact serialized forms of the objects stored in the session: counts are written as
+ * unsigned varints (7 bits per byte, so counts below 128 take a single byte) and strings as modified UTF-8.
+ * No class descriptors nor field names are written, which is what makes the forms compact.
+ */
+public final class CompactIO {
+    private CompactIO() {
+    }
+
+    /**
+     * Writes a non-negative int as an unsigned varint: 1 byte for values below 128, at most 5 bytes.
+     * @param out the stream to write to.
+     * @param value the value, 0 or greater.
+     * @throws IOException on I/O error.
+     */
+    public static void writeVarInt(@NotNull DataOutput out, int value) throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException("Parameter value: invalid value " + value + ": must be 0 or greater");
+        }
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a varint written by {@link #writeVarInt(DataOutput, int)}.
+     * @param in the stream to read from.
+     * @return the value, 0 or greater.
+     * @throws IOException on I/O error, or if the stream doesn't contain a valid varint.
+     */
+    public static int readVarInt(@NotNull DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Invalid varint");
+    }
+
+    /**
+     * Writes a string which may be null.
+     * @param out the stream to write to.
+     * @param value the string, may be null. At most 65535 bytes long in modified UTF-8.
+     * @throws IOException on I/O error.
+     */
+    public static void writeNullableUTF(@NotNull DataOutput out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeNullableUTF(DataOutput, String)}.
+     * @param in the stream to read from.
+     * @return the string, may be null.
+     * @throws IOException on I/O error.
+     */
+    @Nullable
+    public static String readNullableUTF(@NotNull DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes the number of strings as a varint, followed by the strings.
+     * @param out the stream to write to.
+     * @param strings the strings, not null, must not contain nulls.
+     * @throws IOException on I/O error.
+     */
+    public static void writeStrings(@NotNull DataOutput out, @NotNull Collection<String> strings) throws IOException {
+        writeVarInt(out, strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    /**
+     * Reads the strings written by {@link #writeStrings(DataOutput, Collection)}.
+     * @param in the stream to read from.
+     * @return the strings, in the order they were written.
+     * @throws IOException on I/O error.
+     */
+    @NotNull
+    public static List<String> readStrings(@NotNull DataInput in) throws IOException {
+        final int count = readVarInt(in);
+        // don't trust the count when pre-sizing: the stream may be corrupted
+        final List<String> strings = new ArrayList<>(Math.min(count, 16));
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes the binary parts of stored password hashes: hex for the original
+ * <code>iterations:salt:hash</code> format, unpadded Base64 for the <code>$id$params$salt$hash</code> PHC format.
+ * Decoding works directly on a range of the hash string and encoding writes straight into the resulting string's
+ * characters, so no intermediate substrings or numbers are created.
+ * <p></p>
+ * The Base64 form is a third shorter than hex: {@link #toCompact(String)} converts a hash in the original format
+ * into the equivalent PHC hash without recomputing it, which is handy in bulk migrations. Both forms verify.
+ */
+public final class HashCodec {
+    private HashCodec() {
+    }
+
+    private static final char @NotNull [] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char @NotNull [] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    /**
+     * Maps an ASCII character to its hex digit value, or -1.
+     */
+    private static final byte @NotNull [] HEX_VALUES = new byte[128];
+    /**
+     * Maps an ASCII character to its Base64 digit value, or -1.
+     */
+    private static final byte @NotNull [] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < HEX_DIGITS.length; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < BASE64_DIGITS.length; i++) {
+            BASE64_VALUES[BASE64_DIGITS[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * Encodes bytes as lower-case hex.
+     * @param bytes the bytes to encode.
+     * @return a string of <code>bytes.length * 2</code> hex digits.
+     */
+    @NotNull
+    public static String toHex(byte @NotNull [] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decodes hex digits, in either case.
+     * @param hex the string containing the hex digits.
+     * @param start the index of the first digit, inclusive.
+     * @param end the index of the last digit, exclusive.
+     * @return the decoded bytes.
+     * @throws IllegalArgumentException if the range has odd length or contains a non-hex character.
+     */
+    public static byte @NotNull [] fromHex(@NotNull CharSequence hex, int start, int end) {
+        if (((end - start) & 1) != 0) {
+            throw new IllegalArgumentException("Parameter hex: invalid value: odd number of hex digits");
+        }
+        final byte[] bytes = new byte[(end - start) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (hexValue(hex.charAt(start + i * 2)) << 4 | hexValue(hex.charAt(start + i * 2 + 1)));
+        }
+        return bytes;
+    }
+
+    private static int hexValue(char c) {
+        final int value = c < 128 ? HEX_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Parameter hex: invalid value: not a hex digit: " + c);
+        }
+        return value;
+    }
+
+    /**
+     * Encodes bytes as Base64 without padding, as the PHC string format requires.
+     * @param bytes the bytes to encode.
+     * @return the Base64 string.
+     */
+    @NotNull
+    public static String toBase64(byte @NotNull [] bytes) {
+        final char[] chars = new char[(bytes.length * 4 + 2) / 3];
+        int c = 0;
+        int i = 0;
+        for (; i + 3 <= bytes.length; i += 3) {
+            final int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | bytes[i + 2] & 0xff;
+            chars[c++] = BASE64_DIGITS[bits >>> 18];
+            chars[c++] = BASE64_DIGITS[(bits >>> 12) & 0x3f];
+            chars[c++] = BASE64_DIGITS[(bits >>> 6) & 0x3f];
+            chars[c++] = BASE64_DIGITS[bits & 0x3f];
+        }
+        final int remaining = bytes.length - i;
+        if (remaining > 0) {
+            final int bits = (bytes[i] & 0xff) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+            chars[c++] = BASE64_DIGITS[bits >>> 18];
+            chars[c++] = BASE64_DIGITS[(bits >>> 12) & 0x3f];
+            if (remaining == 2) {
+                chars[c] = BASE64_DIGITS[(bits >>> 6) & 0x3f];
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decodes Base64, with or without padding.
+     * @param base64 the string containing the Base64 digits.
+     * @param start the index of the first digit, inclusive.
+     * @param end the index of the last digit, exclusive.
+     * @return the decoded bytes.
+     * @throws IllegalArgumentException if the range contains a non-Base64 character or has an impossible length.
+     */
+    public static byte @NotNull [] fromBase64(@NotNull CharSequence base64, int start, int end) {
+        while (end > start && base64.charAt(end - 1) == '=') {
+            end--;
+        }
+        final int length = end - start;
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Parameter base64: invalid value: truncated Base64");
+        }
+        final byte[] bytes = new byte[length * 3 / 4];
+        int b = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = start; i < end; i++) {
+            final char c = base64.charAt(i);
+            final int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Parameter base64: invalid value: not a Base64 digit: " + c);
+            }
+            bits = bits << 6 | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes[b++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts a hash in the original <code>iterations:salt:hash</code> hex format into the equivalent
+     * <code>$pbkdf2-sha1$i=iterations$salt$hash</code> PHC hash, without recomputing it. Hashes in other formats are
+     * returned unchanged.
+     * @param hash the stored hash.
+     * @return the hash in the PHC format.
+     */
+    @NotNull
+    public static String toCompact(@NotNull String hash) {
+        if (!PasswordHash.isLegacyHash(hash)) {
+            return hash;
+        }
+        final int first = hash.indexOf(':');
+        final int second = hash.indexOf(':', first + 1);
+        final int iterations = Integer.parseInt(hash, 0, first, 10);
+        final byte[] salt = fromHex(hash, first + 1, second);
+        final byte[] digest = fromHex(hash, second + 1, hash.length());
+        return new PhcHash(Pbkdf2PasswordHasher.Prf.SHA1.getId(), "i=" + iterations, salt, digest).format();
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+/**
+ * The result of a password check, see {@link PasswordHashers#checkPassword(char[], String)}.
+ */
+public enum PasswordCheckResult {
+    /**
+     * The password doesn't match the hash.
+     */
+    MISMATCH,
+    /**
+     * The password matches the hash.
+     */
+    MATCH,
+    /**
+     * The password matches the hash, but the hash has been computed with an outdated algorithm or weaker parameters.
+     * Call {@link com.github.mvysny.vaadinsimplesecurity.HasPassword#setPassword(String)} with the password to store
+     * an up-to-date hash.
+     */
+    MATCH_NEEDS_REHASH;
+
+    /**
+     * @return true if the password matches the hash.
+     */
+    public boolean matches() {
+        return this != MISMATCH;
+    }
+
+    /**
+     * @return true if the password matches the hash and the hash should be recomputed.
+     */
+    public boolean needsRehash() {
+        return this == MATCH_NEEDS_REHASH;
+    }
+}
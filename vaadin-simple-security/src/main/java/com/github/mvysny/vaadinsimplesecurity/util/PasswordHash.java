@@ -30,39 +30,49 @@ package com.github.mvysny.vaadinsimplesecurity.util;
 
 import org.jetbrains.annotations.NotNull;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.math.BigInteger;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
 
 /*
  * PBKDF2 salted password hashing.
  * Author: havoc AT defuse.ca
  * www: http://crackstation.net/hashing-security.htm
+ *
+ * New hashes are created by PasswordHashers.getDefault(), by default in the versioned
+ * $pbkdf2-sha256$i=iterations$salt$hash format (see Pbkdf2PasswordHasher);
+ * hashes in the original iterations:salt:hash format (PBKDF2 with HMAC-SHA1) still verify.
  */
 public class PasswordHash
 {
+	/**
+	 * The algorithm used by the original iterations:salt:hash format. HMAC-SHA1 only produces 20 bytes per block:
+	 * a 32-byte hash needs two blocks and therefore 2*PBKDF2_ITERATIONS iterations, while an attacker only needs to
+	 * compute the first block to test a password.
+	 * @deprecated new hashes are created by {@link PasswordHashers#getDefault()}, PBKDF2 with
+	 * {@link #PBKDF2_SHA256_ALGORITHM} by default. Only the hashes in the original format use this algorithm.
+	 */
+	@Deprecated
 	public static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
+	// The algorithm of the default hasher. HMAC-SHA256 produces 32 bytes per PBKDF2 block, so
+	// a HASH_BYTE_SIZE=32 hash only takes PBKDF2_ITERATIONS iterations to compute.
+	public static final String PBKDF2_SHA256_ALGORITHM = "PBKDF2WithHmacSHA256";
 
 	// The following constants may be changed without breaking existing hashes.
 	public static volatile int SALT_BYTE_SIZE = 8;
-	// Spring uses 256/8=32 byte size
+	// Spring uses 256/8=32 byte size. Keep this at most the PBKDF2_SHA256_ALGORITHM output size (32 bytes),
+	// otherwise every verification computes multiple PBKDF2 blocks.
 	public static volatile int HASH_BYTE_SIZE = 32;
 	// Spring uses 185000; according to https://en.wikipedia.org/wiki/PBKDF2
-	// the recommended number of iterations for server-side hashing is at least 100000
+	// the recommended number of iterations for server-side hashing is at least 100000.
+	// Call calibrateIterations() at startup to derive the value from the local hardware.
 	public static volatile int PBKDF2_ITERATIONS = 185000;
-
-	private static final int ITERATION_INDEX = 0;
-	private static final int SALT_INDEX = 1;
-	private static final int PBKDF2_INDEX = 2;
+	// calibrateIterations() never goes below this number of iterations, unless told otherwise.
+	public static final int MIN_PBKDF2_ITERATIONS = 100000;
 
 	/**
-	 * Returns a salted PBKDF2 hash of the password.
+	 * Returns a salted hash of the password, computed by {@link PasswordHashers#getDefault()}.
 	 *
 	 * @param   password    the password to hash
-	 * @return              a salted PBKDF2 hash of the password
+	 * @return              a salted hash of the password
 	 */
 	@NotNull
 	public static String createHash(@NotNull String password) {
@@ -70,28 +80,33 @@ public class PasswordHash
 	}
 
 	/**
-	 * Returns a salted PBKDF2 hash of the password.
+	 * Returns a salted hash of the password, computed by {@link PasswordHashers#getDefault()}.
 	 *
 	 * @param   password    the password to hash
-	 * @return              a salted PBKDF2 hash of the password
+	 * @return              a salted hash of the password
 	 */
 	@NotNull
 	public static String createHash(char @NotNull [] password) {
-		// Generate a random salt
-		SecureRandom random = new SecureRandom();
-		byte[] salt = new byte[SALT_BYTE_SIZE];
-		random.nextBytes(salt);
-
-		return createHash(password, salt);
+		return PasswordHashers.getDefault().createHash(password);
 	}
 
-	// visible for testing
+	// visible for testing: creates a PBKDF2-SHA256 hash with given salt.
 	@NotNull
 	static String createHash(char @NotNull [] password, byte @NotNull [] salt) {
 		// Hash the password
-		byte[] hash = pbkdf2(password, salt, PBKDF2_ITERATIONS, HASH_BYTE_SIZE);
+		final int iterations = PBKDF2_ITERATIONS;
+		byte[] hash = pbkdf2(Pbkdf2PasswordHasher.Prf.SHA256, password, salt, iterations, HASH_BYTE_SIZE);
+		// format $pbkdf2-sha256$i=iterations$salt$hash
+		return new PhcHash(Pbkdf2PasswordHasher.Prf.SHA256.getId(), "i=" + iterations, salt, hash).format();
+	}
+
+	// visible for testing: creates a hash in the original iterations:salt:hash format.
+	@NotNull
+	static String createLegacyHash(char @NotNull [] password, byte @NotNull [] salt) {
+		// Hash the password
+		byte[] hash = pbkdf2(Pbkdf2PasswordHasher.Prf.SHA1, password, salt, PBKDF2_ITERATIONS, HASH_BYTE_SIZE);
 		// format iterations:salt:hash
-		return PBKDF2_ITERATIONS + ":" + toHex(salt) + ":" +  toHex(hash);
+		return PBKDF2_ITERATIONS + ":" + HashCodec.toHex(salt) + ":" +  HashCodec.toHex(hash);
 	}
 
 	/**
@@ -113,11 +128,27 @@ public class PasswordHash
 	 * @return                  true if the password is correct, false if not
 	 */
 	public static boolean validatePassword(char @NotNull [] password, @NotNull String correctHash) {
+		if (isLegacyHash(correctHash)) {
+			return validateLegacyPassword(password, correctHash);
+		}
+		// a versioned $id$params$salt$hash hash
+		return PasswordHashers.forHash(correctHash).verify(password, correctHash);
+	}
+
+	/**
+	 * Validates a password using a hash in the original <code>iterations:salt:hash</code> format.
+	 *
+	 * @param   password        the password to check
+	 * @param   correctHash     the hash of the valid password
+	 * @return                  true if the password is correct, false if not
+	 */
+	static boolean validateLegacyPassword(char @NotNull [] password, @NotNull String correctHash) {
 		// Decode the hash into its parameters
-		String[] params = correctHash.split(":");
-		int iterations = Integer.parseInt(params[ITERATION_INDEX]);
-		byte[] salt = fromHex(params[SALT_INDEX]);
-		byte[] hash = fromHex(params[PBKDF2_INDEX]);
+		final int saltStart = correctHash.indexOf(':') + 1;
+		final int hashStart = correctHash.indexOf(':', saltStart) + 1;
+		int iterations = Integer.parseInt(correctHash, 0, saltStart - 1, 10);
+		byte[] salt = HashCodec.fromHex(correctHash, saltStart, hashStart - 1);
+		byte[] hash = HashCodec.fromHex(correctHash, hashStart, correctHash.length());
 		// Compute the hash of the provided password, using the same salt,
 		// iteration count, and hash length
 		byte[] testHash = pbkdf2(password, salt, iterations, hash.length);
@@ -126,6 +157,79 @@ public class PasswordHash
 		return slowEquals(hash, testHash);
 	}
 
+	/**
+	 * Measures the local PBKDF2 throughput and sets {@link #PBKDF2_ITERATIONS} so that verifying a new hash takes
+	 * roughly <code>targetVerifyTime</code>, but never less than {@link #MIN_PBKDF2_ITERATIONS} iterations.
+	 * Call at application startup; the measurement itself takes one to three seconds.
+	 * <p></p>
+	 * Every hash records its iteration count, so existing hashes keep working regardless of the calibrated value.
+	 *
+	 * @param   targetVerifyTime    how long a password verification should take, e.g. 50 milliseconds.
+	 * @return                      the chosen iteration count, also stored to {@link #PBKDF2_ITERATIONS}.
+	 */
+	public static int calibrateIterations(@NotNull Duration targetVerifyTime) {
+		return calibrateIterations(targetVerifyTime, MIN_PBKDF2_ITERATIONS);
+	}
+
+	/**
+	 * Measures the local PBKDF2 throughput and sets {@link #PBKDF2_ITERATIONS} so that verifying a new hash takes
+	 * roughly <code>targetVerifyTime</code>, but never less than <code>minIterations</code>.
+	 * Call at application startup; the measurement itself takes one to three seconds.
+	 * <p></p>
+	 * Every hash records its iteration count, so existing hashes keep working regardless of the calibrated value.
+	 *
+	 * @param   targetVerifyTime    how long a password verification should take, e.g. 50 milliseconds.
+	 * @param   minIterations       the security floor: the minimum iteration count, 1 or greater.
+	 * @return                      the chosen iteration count, also stored to {@link #PBKDF2_ITERATIONS}.
+	 */
+	public static int calibrateIterations(@NotNull Duration targetVerifyTime, int minIterations) {
+		if (minIterations < 1) {
+			throw new IllegalArgumentException("Parameter minIterations: invalid value " + minIterations + ": must be 1 or greater");
+		}
+		final double nanosPerIteration = measureNanosPerIteration();
+		final double iterations = targetVerifyTime.toNanos() / nanosPerIteration;
+		// round down to whole thousands, to keep the hashes readable
+		final int chosen = (int) Math.max(minIterations, Math.min(Integer.MAX_VALUE, Math.floor(iterations / 1000) * 1000));
+		PBKDF2_ITERATIONS = chosen;
+		return chosen;
+	}
+
+	/**
+	 * Measures how long a single PBKDF2 iteration of {@link #PBKDF2_SHA256_ALGORITHM} takes,
+	 * producing a {@link #HASH_BYTE_SIZE} hash.
+	 *
+	 * @return                  the duration of a single iteration, in nanoseconds.
+	 */
+	private static double measureNanosPerIteration() {
+		// find an iteration count which takes long enough to be measured reliably
+		int probeIterations = 1000;
+		long best = timePbkdf2(probeIterations);
+		while (best < 10_000_000 && probeIterations < 1 << 24) {
+			probeIterations *= 2;
+			best = timePbkdf2(probeIterations);
+		}
+		// the first runs are slow until the JIT compiles the hot path: keep measuring for at least a second and
+		// until the fastest run stops improving, but for at most three seconds.
+		final long start = System.nanoTime();
+		int runsWithoutImprovement = 0;
+		while ((runsWithoutImprovement < 5 || System.nanoTime() - start < 1_000_000_000L) && System.nanoTime() - start < 3_000_000_000L) {
+			final long elapsed = timePbkdf2(probeIterations);
+			if (elapsed < best * 0.95) {
+				runsWithoutImprovement = 0;
+			} else {
+				runsWithoutImprovement++;
+			}
+			best = Math.min(best, elapsed);
+		}
+		return Math.max(1, best) / (double) probeIterations;
+	}
+
+	private static long timePbkdf2(int iterations) {
+		final long start = System.nanoTime();
+		pbkdf2(Pbkdf2PasswordHasher.Prf.SHA256, "calibration".toCharArray(), new byte[SALT_BYTE_SIZE], iterations, HASH_BYTE_SIZE);
+		return System.nanoTime() - start;
+	}
+
 	/**
 	 * Compares two byte arrays in length-constant time. This comparison method
 	 * is used so that password hashes cannot be extracted from an on-line
@@ -153,45 +257,41 @@ public class PasswordHash
 	 * @return              the PBDKF2 hash of the password
 	 */
 	private static byte[] pbkdf2(char @NotNull [] password, byte @NotNull [] salt, int iterations, int bytes) {
-		try {
-			PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, bytes * 8);
-			SecretKeyFactory skf = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
-			return skf.generateSecret(spec).getEncoded();
-		} catch (InvalidKeySpecException | NoSuchAlgorithmException ex) {
-			throw new RuntimeException(ex);
-		}
+		return pbkdf2(Pbkdf2PasswordHasher.Prf.SHA1, password, salt, iterations, bytes);
 	}
 
 	/**
-	 * Converts a string of hexadecimal characters into a byte array.
+	 *  Computes the PBKDF2 hash of a password. Produces the same output as the JDK's
+	 *  <code>PBKDF2WithHmacSHA*</code> {@link javax.crypto.SecretKeyFactory}; see {@link Pbkdf2}.
 	 *
-	 * @param   hex         the hex string
-	 * @return              the hex string decoded into a byte array
+	 * @param   prf         the pseudorandom function.
+	 * @param   password    the password to hash.
+	 * @param   salt        the salt
+	 * @param   iterations  the iteration count (slowness factor)
+	 * @param   bytes       the length of the hash to compute in bytes
+	 * @return              the PBDKF2 hash of the password
 	 */
-	private static byte @NotNull [] fromHex(@NotNull String hex)
-	{
-		byte[] binary = new byte[hex.length() / 2];
-		for(int i = 0; i < binary.length; i++)
-		{
-			binary[i] = (byte)Integer.parseInt(hex.substring(2*i, 2*i+2), 16);
-		}
-		return binary;
+	static byte @NotNull [] pbkdf2(Pbkdf2PasswordHasher.@NotNull Prf prf, char @NotNull [] password, byte @NotNull [] salt, int iterations, int bytes) {
+		return Pbkdf2.derive(prf, password, salt, iterations, bytes);
 	}
 
 	/**
-	 * Converts a byte array into a hexadecimal string.
+	 * Checks whether given hash is in the original <code>iterations:salt:hash</code> format.
 	 *
-	 * @param   array       the byte array to convert
-	 * @return              a length*2 character string encoding the byte array
+	 * @param   hash        the hash to check
+	 * @return              true if the hash is in the <code>iterations:salt:hash</code> format.
 	 */
-	private static String toHex(byte @NotNull [] array)
-	{
-		BigInteger bi = new BigInteger(1, array);
-		String hex = bi.toString(16);
-		int paddingLength = (array.length * 2) - hex.length();
-		if(paddingLength > 0)
-			return String.format("%0" + paddingLength + "d", 0) + hex;
-		else
-			return hex;
+	static boolean isLegacyHash(@NotNull String hash) {
+		final int first = hash.indexOf(':');
+		final int second = hash.indexOf(':', first + 1);
+		if (first <= 0 || second < 0 || hash.indexOf(':', second + 1) >= 0) {
+			return false;
+		}
+		for (int i = 0; i < first; i++) {
+			if (!Character.isDigit(hash.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
 	}
 }
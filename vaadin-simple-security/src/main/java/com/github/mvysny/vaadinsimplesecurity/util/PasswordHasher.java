@@ -0,0 +1,53 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A password hashing algorithm. Hashes are stored in a self-describing
+ * <a href="https://github.com/P-H-C/phc-string-format/blob/master/phc-sf-spec.md">PHC string format</a>:
+ * <code>$id$param=value,...$salt$hash</code>, where salt and hash are Base64-encoded without padding. That
+ * allows {@link PasswordHashers} to pick the right hasher for a stored hash, and the algorithm and its parameters
+ * can be upgraded without breaking existing hashes.
+ * <p></p>
+ * Register custom implementations via {@link PasswordHashers#register(PasswordHasher)}.
+ * Implementations must be thread-safe.
+ */
+public interface PasswordHasher {
+    /**
+     * The PHC identifier of this hasher, e.g. <code>pbkdf2-sha256</code>.
+     * @return the identifier, not null.
+     */
+    @NotNull
+    String getId();
+
+    /**
+     * Checks whether this hasher is able to verify given hash.
+     * @param hash the stored hash, not null.
+     * @return true if this hasher produced given hash.
+     */
+    boolean canVerify(@NotNull String hash);
+
+    /**
+     * Returns a salted hash of the password, using the current parameters of this hasher.
+     * @param password the password to hash
+     * @return a salted hash of the password
+     */
+    @NotNull
+    String createHash(char @NotNull [] password);
+
+    /**
+     * Validates a password using a hash.
+     * @param password the password to check
+     * @param hash the hash of the valid password, {@link #canVerify(String) produced by this hasher}.
+     * @return true if the password is correct, false if not
+     */
+    boolean verify(char @NotNull [] password, @NotNull String hash);
+
+    /**
+     * Checks whether given hash has been computed with weaker parameters than the current ones,
+     * and should therefore be recomputed on the next successful login.
+     * @param hash the hash, {@link #canVerify(String) produced by this hasher}.
+     * @return true if the hash should be recomputed.
+     */
+    boolean needsRehash(@NotNull String hash);
+}
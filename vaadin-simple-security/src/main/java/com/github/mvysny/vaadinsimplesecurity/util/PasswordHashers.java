@@ -0,0 +1,114 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A registry of known {@link PasswordHasher}s. New hashes are created by the {@link #getDefault() default hasher};
+ * stored hashes are verified by the hasher which {@link PasswordHasher#canVerify(String) produced them}.
+ * <p></p>
+ * Out of the box, PBKDF2 with SHA-1 (including the legacy <code>iterations:salt:hash</code> format), SHA-256 and SHA-512,
+ * and scrypt are known. Thread-safe.
+ */
+public final class PasswordHashers {
+    @NotNull
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * All known hashers.
+     */
+    @NotNull
+    private static final List<PasswordHasher> HASHERS = new CopyOnWriteArrayList<>(List.of(
+            new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA1),
+            new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA256),
+            new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA512),
+            new ScryptPasswordHasher()
+    ));
+
+    /**
+     * Creates new hashes.
+     */
+    @NotNull
+    private static volatile PasswordHasher defaultHasher = HASHERS.get(1);
+
+    private PasswordHashers() {
+    }
+
+    /**
+     * @return the hasher used to create new hashes. Defaults to PBKDF2 with SHA-256.
+     */
+    @NotNull
+    public static PasswordHasher getDefault() {
+        return defaultHasher;
+    }
+
+    /**
+     * Sets the hasher used to create new hashes, and registers it via {@link #register(PasswordHasher)}.
+     * Existing hashes computed by other hashers keep working; {@link #checkPassword(char[], String)} reports them
+     * as {@link PasswordCheckResult#MATCH_NEEDS_REHASH}.
+     * @param hasher the new default hasher, not null.
+     */
+    public static void setDefault(@NotNull PasswordHasher hasher) {
+        register(hasher);
+        defaultHasher = hasher;
+    }
+
+    /**
+     * Registers given hasher, replacing any hasher with the same {@link PasswordHasher#getId() id}.
+     * @param hasher the hasher, not null.
+     */
+    public static synchronized void register(@NotNull PasswordHasher hasher) {
+        Objects.requireNonNull(hasher);
+        HASHERS.removeIf(it -> it.getId().equals(hasher.getId()));
+        HASHERS.add(0, hasher);
+    }
+
+    /**
+     * Finds the hasher which produced given hash.
+     * @param hash the stored hash, not null.
+     * @return the hasher, not null.
+     * @throws IllegalArgumentException if no registered hasher is able to verify given hash.
+     */
+    @NotNull
+    public static PasswordHasher forHash(@NotNull String hash) {
+        Objects.requireNonNull(hash);
+        for (PasswordHasher hasher : HASHERS) {
+            if (hasher.canVerify(hash)) {
+                return hasher;
+            }
+        }
+        throw new IllegalArgumentException("Parameter hash: invalid value: no registered PasswordHasher for " + PhcHash.idOf(hash));
+    }
+
+    /**
+     * Validates a password using a hash, with the hasher which {@link #forHash(String) produced the hash}.
+     * @param password the password to check
+     * @param hash the hash of the valid password
+     * @return whether the password matches, and whether the hash should be recomputed with the {@link #getDefault() default hasher}.
+     */
+    @NotNull
+    public static PasswordCheckResult checkPassword(char @NotNull [] password, @NotNull String hash) {
+        final PasswordHasher hasher = forHash(hash);
+        if (!hasher.verify(password, hash)) {
+            return PasswordCheckResult.MISMATCH;
+        }
+        final PasswordHasher current = defaultHasher;
+        final boolean needsRehash = !current.getId().equals(hasher.getId()) || current.needsRehash(hash);
+        return needsRehash ? PasswordCheckResult.MATCH_NEEDS_REHASH : PasswordCheckResult.MATCH;
+    }
+
+    /**
+     * Generates a random salt.
+     * @param bytes the salt length.
+     * @return the salt.
+     */
+    static byte @NotNull [] randomSalt(int bytes) {
+        final byte[] salt = new byte[bytes];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+}
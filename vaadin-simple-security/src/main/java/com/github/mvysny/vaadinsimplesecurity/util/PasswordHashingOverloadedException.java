@@ -0,0 +1,19 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+/**
+ * Thrown by {@link PasswordHashingService} when too many password hashing operations are already running or waiting.
+ * The credentials haven't been checked at all: the login view should ask the user to try again later, rather than
+ * reporting invalid credentials.
+ * <p></p>
+ * Unchecked, so that the existing password-checking functions such as
+ * {@link com.github.mvysny.vaadinsimplesecurity.HasPassword#passwordMatches(String)} keep their signatures.
+ */
+public class PasswordHashingOverloadedException extends IllegalStateException {
+    /**
+     * Creates the exception.
+     * @param message the detail message.
+     */
+    public PasswordHashingOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import com.github.mvysny.vaadinsimplesecurity.HasPassword;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrently running password hash computations.
+ * <p></p>
+ * Every password hash computation burns a full CPU core for hundreds of milliseconds. Without a limit,
+ * a credential-stuffing wave could tie up every servlet thread on hashing. This service allows at most
+ * {@link #getMaxConcurrency()} computations to run at the same time; at most {@link #getMaxQueueSize()}
+ * further callers may wait for a free slot, for at most {@link #getMaxWait()}. Hashing fails fast with
+ * {@link PasswordHashingOverloadedException} when the wait queue is full or the wait takes too long.
+ * <p></p>
+ * The computation runs in the calling thread. Combine with {@link com.github.mvysny.vaadinsimplesecurity.AbstractLoginService#loginAsync(java.util.concurrent.Callable)}
+ * so that the waiting happens on virtual threads rather than on servlet threads.
+ * <p></p>
+ * {@link HasPassword} uses the service returned by {@link #get()}. Thread-safe.
+ */
+public final class PasswordHashingService {
+    /**
+     * The instance returned by {@link #get()}.
+     */
+    @NotNull
+    private static volatile PasswordHashingService instance = new PasswordHashingService(
+            Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors() * 4,
+            Duration.ofSeconds(5));
+
+    /**
+     * Returns the service used by {@link HasPassword}.
+     * @return the current service.
+     */
+    @NotNull
+    public static PasswordHashingService get() {
+        return instance;
+    }
+
+    /**
+     * Replaces the service returned by {@link #get()}, e.g. to configure different limits.
+     * @param service the new service, not null.
+     */
+    public static void set(@NotNull PasswordHashingService service) {
+        instance = Objects.requireNonNull(service);
+    }
+
+    private final int maxConcurrency;
+    private final int maxQueueSize;
+    @NotNull
+    private final Duration maxWait;
+    @NotNull
+    private final Semaphore permits;
+    @NotNull
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    @NotNull
+    private final LongAdder completed = new LongAdder();
+    @NotNull
+    private final LongAdder rejected = new LongAdder();
+    @NotNull
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    /**
+     * Creates the service.
+     * @param maxConcurrency at most this number of hash computations may run concurrently. Must be 1 or greater.
+     * @param maxQueueSize at most this number of callers may wait for a free slot. 0 or greater.
+     * @param maxWait hashing fails if it waits for a free slot for longer than this.
+     */
+    public PasswordHashingService(int maxConcurrency, int maxQueueSize, @NotNull Duration maxWait) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Parameter maxConcurrency: invalid value " + maxConcurrency + ": must be 1 or greater");
+        }
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("Parameter maxQueueSize: invalid value " + maxQueueSize + ": must be 0 or greater");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWait = Objects.requireNonNull(maxWait);
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * Validates a password using a hash; see {@link PasswordHashers#checkPassword(char[], String)}.
+     * @param password the password to check
+     * @param correctHash the hash of the valid password
+     * @return true if the password is correct, false if not
+     * @throws PasswordHashingOverloadedException if there are too many hashing operations running or waiting.
+     */
+    public boolean validatePassword(@NotNull String password, @NotNull String correctHash) {
+        return checkPassword(password, correctHash).matches();
+    }
+
+    /**
+     * Validates a password using a hash; see {@link PasswordHashers#checkPassword(char[], String)}.
+     * @param password the password to check
+     * @param correctHash the hash of the valid password
+     * @return whether the password matches, and whether the hash should be recomputed.
+     * @throws PasswordHashingOverloadedException if there are too many hashing operations running or waiting.
+     */
+    @NotNull
+    public PasswordCheckResult checkPassword(@NotNull String password, @NotNull String correctHash) {
+        acquire();
+        try {
+            return PasswordHashers.checkPassword(password.toCharArray(), correctHash);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Returns a salted hash of the password, computed by {@link PasswordHashers#getDefault()}.
+     * <p></p>
+     * Hashing costs as much as a password verification, so it shares the same slots, queue size limit and wait limit.
+     * @param password the password to hash
+     * @return a salted hash of the password
+     * @throws PasswordHashingOverloadedException if there are too many hashing operations running or waiting.
+     */
+    @NotNull
+    public String createHash(@NotNull String password) {
+        acquire();
+        try {
+            return PasswordHashers.getDefault().createHash(password.toCharArray());
+        } finally {
+            release();
+        }
+    }
+
+    private void acquire() {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (queueDepth.incrementAndGet() > maxQueueSize) {
+            queueDepth.decrementAndGet();
+            rejected.increment();
+            throw new PasswordHashingOverloadedException("Too many login attempts, please try again later");
+        }
+        final long start = System.nanoTime();
+        final boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            throw new PasswordHashingOverloadedException("Interrupted while waiting for a free password hashing slot");
+        } finally {
+            queueDepth.decrementAndGet();
+            totalWaitNanos.add(System.nanoTime() - start);
+        }
+        if (!acquired) {
+            rejected.increment();
+            throw new PasswordHashingOverloadedException("Too many login attempts, please try again later");
+        }
+    }
+
+    private void release() {
+        completed.increment();
+        permits.release();
+    }
+
+    /**
+     * @return at most this number of hash computations may run concurrently.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return at most this number of hashing operations may wait for a free slot.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * @return hashing fails if it waits for a free slot for longer than this.
+     */
+    @NotNull
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * @return the number of hashing operations currently waiting for a free slot.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the number of hash computations currently running.
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return the number of hash computations completed so far.
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * @return the number of hashing operations rejected with {@link PasswordHashingOverloadedException} so far.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the total time spent by all callers waiting for a free slot.
+     */
+    @NotNull
+    public Duration getTotalWaitTime() {
+        return Duration.ofNanos(totalWaitNanos.sum());
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordHashingService{maxConcurrency=" + maxConcurrency + ", maxQueueSize=" + maxQueueSize +
+                ", maxWait=" + maxWait + ", active=" + getActiveCount() + ", queueDepth=" + getQueueDepth() +
+                ", completed=" + getCompletedCount() + ", rejected=" + getRejectedCount() + '}';
+    }
+}
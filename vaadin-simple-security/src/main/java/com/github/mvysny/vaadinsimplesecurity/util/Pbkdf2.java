@@ -0,0 +1,233 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A PBKDF2 implementation (RFC 8018) which produces byte-identical output to the JDK's
+ * <code>PBKDF2WithHmacSHA*</code> {@link javax.crypto.SecretKeyFactory}, but runs half of the hash compressions.
+ * <p></p>
+ * Every PBKDF2 iteration computes <code>HMAC(P, U) = H((P ^ opad) || H((P ^ ipad) || U))</code>. The
+ * <code>P ^ ipad</code> and <code>P ^ opad</code> blocks are the same for all iterations, yet the JDK's HMAC
+ * re-digests both of them on every iteration. This implementation digests them only once per password and then
+ * starts every iteration from a clone of the precomputed digest state. The digests are {@link MessageDigest}s so that
+ * the JIT's SHA intrinsics still apply; {@link MessageDigest} doesn't expose its state, so it can't be copied into
+ * a reusable digest instead of cloning. A hand-written compression function with reusable state would avoid the clones,
+ * but it forgoes the intrinsics and is several times slower on CPUs with SHA instructions.
+ * <p></p>
+ * The digests and the intermediate buffers are kept in a small pool per hash function, at most one engine per CPU core
+ * idle, and are reset and zeroed after every computation. Unlike a per-thread cache, the pool is shared by
+ * virtual threads and doesn't grow with the number of threads. Thread-safe.
+ */
+public final class Pbkdf2 {
+    private Pbkdf2() {
+    }
+
+    @NotNull
+    private static final EnginePool SHA1 = new EnginePool("SHA-1", 64);
+    @NotNull
+    private static final EnginePool SHA256 = new EnginePool("SHA-256", 64);
+    @NotNull
+    private static final EnginePool SHA512 = new EnginePool("SHA-512", 128);
+
+    /**
+     * Computes the PBKDF2 hash of a password.
+     *
+     * @param prf        the pseudorandom function.
+     * @param password   the password to hash. Encoded as UTF-8, the same way the JDK does.
+     * @param salt       the salt
+     * @param iterations the iteration count (slowness factor), 1 or greater.
+     * @param bytes      the length of the hash to compute in bytes, 1 or greater.
+     * @return the PBKDF2 hash of the password
+     */
+    public static byte @NotNull [] derive(@NotNull Pbkdf2PasswordHasher.Prf prf, char @NotNull [] password, byte @NotNull [] salt, int iterations, int bytes) {
+        Objects.requireNonNull(prf);
+        Objects.requireNonNull(password);
+        Objects.requireNonNull(salt);
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Parameter iterations: invalid value " + iterations + ": must be 1 or greater");
+        }
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Parameter bytes: invalid value " + bytes + ": must be 1 or greater");
+        }
+        final EnginePool pool = switch (prf) {
+            case SHA1 -> SHA1;
+            case SHA256 -> SHA256;
+            case SHA512 -> SHA512;
+        };
+        final byte[] key = toUtf8(password);
+        final Engine engine = pool.acquire();
+        try {
+            return engine.derive(key, salt, iterations, bytes);
+        } catch (DigestException | CloneNotSupportedException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            pool.release(engine);
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Encodes the password the same way the JDK's <code>PBKDF2KeyImpl</code> does.
+     */
+    private static byte @NotNull [] toUtf8(char @NotNull [] password) {
+        final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        final byte[] result = new byte[encoded.remaining()];
+        encoded.get(result);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        return result;
+    }
+
+    /**
+     * The idle {@link Engine}s of one hash function. Thread-safe.
+     */
+    private static final class EnginePool {
+        @NotNull
+        private final String digestAlgorithm;
+        private final int blockSize;
+        /**
+         * At most one idle engine per CPU core; {@link PasswordHashingService} doesn't run more computations at once.
+         */
+        @NotNull
+        private final ArrayBlockingQueue<Engine> idle = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+        EnginePool(@NotNull String digestAlgorithm, int blockSize) {
+            this.digestAlgorithm = digestAlgorithm;
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * @return an idle engine, or a new one if there's none. Pass it to {@link #release(Engine)} afterwards.
+         */
+        @NotNull
+        Engine acquire() {
+            final Engine engine = idle.poll();
+            return engine != null ? engine : new Engine(digestAlgorithm, blockSize);
+        }
+
+        /**
+         * Returns the engine to the pool; drops it if the pool is full.
+         */
+        void release(@NotNull Engine engine) {
+            idle.offer(engine);
+        }
+    }
+
+    /**
+     * Computes PBKDF2 over one hash function. Not thread-safe: used by one thread at a time, see {@link EnginePool}.
+     */
+    private static final class Engine {
+        private final int blockSize;
+        private final int hashSize;
+        /**
+         * Digests <code>(P ^ ipad) || ...</code>, and is also used to shorten long passwords.
+         */
+        @NotNull
+        private final MessageDigest inner;
+        /**
+         * Digests <code>(P ^ opad) || ...</code>.
+         */
+        @NotNull
+        private final MessageDigest outer;
+        /**
+         * The key XORed with the pad.
+         */
+        private final byte @NotNull [] pad;
+        /**
+         * The previous iteration result U.
+         */
+        private final byte @NotNull [] u;
+        /**
+         * The XOR of all iteration results.
+         */
+        private final byte @NotNull [] t;
+        private final byte @NotNull [] blockIndex = new byte[4];
+
+        Engine(@NotNull String digestAlgorithm, int blockSize) {
+            try {
+                inner = MessageDigest.getInstance(digestAlgorithm);
+                outer = MessageDigest.getInstance(digestAlgorithm);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+            this.blockSize = blockSize;
+            hashSize = inner.getDigestLength();
+            pad = new byte[blockSize];
+            u = new byte[hashSize];
+            t = new byte[hashSize];
+        }
+
+        byte @NotNull [] derive(byte @NotNull [] key, byte @NotNull [] salt, int iterations, int bytes) throws DigestException, CloneNotSupportedException {
+            try {
+                byte[] hmacKey = key;
+                if (key.length > blockSize) {
+                    hmacKey = inner.digest(key);
+                }
+                for (int i = 0; i < blockSize; i++) {
+                    pad[i] = (byte) ((i < hmacKey.length ? hmacKey[i] : 0) ^ 0x36);
+                }
+                inner.update(pad);
+                for (int i = 0; i < blockSize; i++) {
+                    pad[i] = (byte) ((i < hmacKey.length ? hmacKey[i] : 0) ^ 0x5c);
+                }
+                outer.update(pad);
+                if (hmacKey != key) {
+                    Arrays.fill(hmacKey, (byte) 0);
+                }
+
+                final byte[] result = new byte[bytes];
+                for (int block = 1, offset = 0; offset < bytes; block++, offset += hashSize) {
+                    // U1 = HMAC(P, S || INT(block))
+                    blockIndex[0] = (byte) (block >>> 24);
+                    blockIndex[1] = (byte) (block >>> 16);
+                    blockIndex[2] = (byte) (block >>> 8);
+                    blockIndex[3] = (byte) block;
+                    MessageDigest md = (MessageDigest) inner.clone();
+                    md.update(salt);
+                    md.update(blockIndex);
+                    md.digest(u, 0, hashSize);
+                    hmacOuter();
+                    System.arraycopy(u, 0, t, 0, hashSize);
+                    // Uj = HMAC(P, Uj-1)
+                    for (int j = 1; j < iterations; j++) {
+                        md = (MessageDigest) inner.clone();
+                        md.update(u);
+                        md.digest(u, 0, hashSize);
+                        hmacOuter();
+                        for (int k = 0; k < hashSize; k++) {
+                            t[k] ^= u[k];
+                        }
+                    }
+                    System.arraycopy(t, 0, result, offset, Math.min(hashSize, bytes - offset));
+                }
+                return result;
+            } finally {
+                inner.reset();
+                outer.reset();
+                Arrays.fill(pad, (byte) 0);
+                Arrays.fill(u, (byte) 0);
+                Arrays.fill(t, (byte) 0);
+            }
+        }
+
+        /**
+         * Computes the outer HMAC digest of {@link #u} and stores it to {@link #u}.
+         */
+        private void hmacOuter() throws DigestException, CloneNotSupportedException {
+            final MessageDigest md = (MessageDigest) outer.clone();
+            md.update(u);
+            md.digest(u, 0, hashSize);
+        }
+    }
+}
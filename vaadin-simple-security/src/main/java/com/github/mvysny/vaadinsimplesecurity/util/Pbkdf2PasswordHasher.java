@@ -0,0 +1,145 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.function.IntSupplier;
+
+/**
+ * Hashes passwords with PBKDF2. Produces hashes in the <code>$pbkdf2-sha256$i=185000$salt$hash</code> format.
+ * <p></p>
+ * The {@link Prf#SHA1} hasher is also able to verify the legacy <code>iterations:salt:hash</code> format produced by
+ * {@link PasswordHash} in vaadin-simple-security 1.x.
+ * <p></p>
+ * Prefer a PRF whose output covers {@link PasswordHash#HASH_BYTE_SIZE}: PBKDF2 computes the full iteration count for
+ * every output-sized block, while an attacker only needs the first block to test a password.
+ */
+public final class Pbkdf2PasswordHasher implements PasswordHasher {
+    /**
+     * The pseudorandom function used by PBKDF2.
+     */
+    public enum Prf {
+        SHA1("PBKDF2WithHmacSHA1", "pbkdf2-sha1"),
+        SHA256("PBKDF2WithHmacSHA256", "pbkdf2-sha256"),
+        SHA512("PBKDF2WithHmacSHA512", "pbkdf2-sha512");
+
+        /**
+         * The JCA algorithm name.
+         */
+        @NotNull
+        private final String algorithm;
+        /**
+         * The PHC identifier.
+         */
+        @NotNull
+        private final String id;
+
+        Prf(@NotNull String algorithm, @NotNull String id) {
+            this.algorithm = algorithm;
+            this.id = id;
+        }
+
+        /**
+         * @return the JCA algorithm name, e.g. <code>PBKDF2WithHmacSHA256</code>.
+         */
+        @NotNull
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        /**
+         * @return the PHC identifier, e.g. <code>pbkdf2-sha256</code>.
+         */
+        @NotNull
+        public String getId() {
+            return id;
+        }
+    }
+
+    @NotNull
+    private final Prf prf;
+    @NotNull
+    private final IntSupplier iterations;
+
+    /**
+     * Creates the hasher which uses {@link PasswordHash#PBKDF2_ITERATIONS} iterations,
+     * {@link PasswordHash#SALT_BYTE_SIZE} and {@link PasswordHash#HASH_BYTE_SIZE}.
+     * @param prf the pseudorandom function.
+     */
+    public Pbkdf2PasswordHasher(@NotNull Prf prf) {
+        this.prf = Objects.requireNonNull(prf);
+        this.iterations = () -> PasswordHash.PBKDF2_ITERATIONS;
+    }
+
+    /**
+     * Creates the hasher.
+     * @param prf the pseudorandom function.
+     * @param iterations the iteration count (slowness factor). Must be 1 or greater.
+     */
+    public Pbkdf2PasswordHasher(@NotNull Prf prf, int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Parameter iterations: invalid value " + iterations + ": must be 1 or greater");
+        }
+        this.prf = Objects.requireNonNull(prf);
+        this.iterations = () -> iterations;
+    }
+
+    /**
+     * @return the pseudorandom function.
+     */
+    @NotNull
+    public Prf getPrf() {
+        return prf;
+    }
+
+    /**
+     * @return the current iteration count.
+     */
+    public int getIterations() {
+        return iterations.getAsInt();
+    }
+
+    @Override
+    @NotNull
+    public String getId() {
+        return prf.getId();
+    }
+
+    @Override
+    public boolean canVerify(@NotNull String hash) {
+        return prf.getId().equals(PhcHash.idOf(hash)) || (prf == Prf.SHA1 && PasswordHash.isLegacyHash(hash));
+    }
+
+    @Override
+    @NotNull
+    public String createHash(char @NotNull [] password) {
+        final byte[] salt = PasswordHashers.randomSalt(PasswordHash.SALT_BYTE_SIZE);
+        final int iterations = getIterations();
+        final byte[] hash = PasswordHash.pbkdf2(prf, password, salt, iterations, PasswordHash.HASH_BYTE_SIZE);
+        return new PhcHash(prf.getId(), "i=" + iterations, salt, hash).format();
+    }
+
+    @Override
+    public boolean verify(char @NotNull [] password, @NotNull String hash) {
+        if (PasswordHash.isLegacyHash(hash)) {
+            return PasswordHash.validateLegacyPassword(password, hash);
+        }
+        final PhcHash phc = PhcHash.parse(hash);
+        final byte[] testHash = PasswordHash.pbkdf2(prf, password, phc.salt(), phc.intParam("i"), phc.hash().length);
+        return PasswordHash.slowEquals(phc.hash(), testHash);
+    }
+
+    @Override
+    public boolean needsRehash(@NotNull String hash) {
+        if (PasswordHash.isLegacyHash(hash)) {
+            return true;
+        }
+        final PhcHash phc = PhcHash.parse(hash);
+        return phc.intParam("i") < getIterations() || phc.hash().length < PasswordHash.HASH_BYTE_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return "Pbkdf2PasswordHasher{" + prf.getId() + ", iterations=" + getIterations() + '}';
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A parsed <a href="https://github.com/P-H-C/phc-string-format/blob/master/phc-sf-spec.md">PHC string</a>:
+ * <code>$id$param=value,...$salt$hash</code>.
+ * @param id the hasher identifier, e.g. <code>pbkdf2-sha256</code>.
+ * @param params the parameters, e.g. <code>i=185000</code>. May be empty.
+ * @param salt the salt.
+ * @param hash the hash.
+ */
+record PhcHash(@NotNull String id, @NotNull String params, byte @NotNull [] salt, byte @NotNull [] hash) {
+    /**
+     * Returns the identifier of given PHC string, without parsing the rest of it.
+     * @param hash the hash, not null.
+     * @return the identifier or null if given string isn't in the PHC format.
+     */
+    static String idOf(@NotNull String hash) {
+        if (!hash.startsWith("$")) {
+            return null;
+        }
+        final int end = hash.indexOf('$', 1);
+        return end < 0 ? null : hash.substring(1, end);
+    }
+
+    /**
+     * Parses a PHC string.
+     * @param hash the hash in the <code>$id$params$salt$hash</code> format.
+     * @return the parsed hash.
+     * @throws IllegalArgumentException if the string isn't in the expected format.
+     */
+    @NotNull
+    static PhcHash parse(@NotNull String hash) {
+        final int idEnd = hash.indexOf('$', 1);
+        final int paramsEnd = idEnd < 0 ? -1 : hash.indexOf('$', idEnd + 1);
+        final int saltEnd = paramsEnd < 0 ? -1 : hash.indexOf('$', paramsEnd + 1);
+        if (!hash.startsWith("$") || saltEnd < 0 || hash.indexOf('$', saltEnd + 1) >= 0) {
+            throw new IllegalArgumentException("Parameter hash: invalid value: not in the $id$params$salt$hash format");
+        }
+        return new PhcHash(hash.substring(1, idEnd), hash.substring(idEnd + 1, paramsEnd),
+                HashCodec.fromBase64(hash, paramsEnd + 1, saltEnd), HashCodec.fromBase64(hash, saltEnd + 1, hash.length()));
+    }
+
+    /**
+     * Returns the value of given integer parameter.
+     * @param name the parameter name, e.g. <code>i</code>.
+     * @return the parameter value.
+     * @throws IllegalArgumentException if there's no such parameter.
+     */
+    int intParam(@NotNull String name) {
+        int start = 0;
+        while (start < params.length()) {
+            int end = params.indexOf(',', start);
+            if (end < 0) {
+                end = params.length();
+            }
+            final int eq = start + name.length();
+            if (eq < end && params.charAt(eq) == '=' && params.startsWith(name, start)) {
+                return Integer.parseInt(params, eq + 1, end, 10);
+            }
+            start = end + 1;
+        }
+        throw new IllegalArgumentException("Parameter hash: invalid value: missing parameter " + name + " in " + params);
+    }
+
+    /**
+     * @return the PHC string.
+     */
+    @NotNull
+    String format() {
+        return "$" + id + "$" + params + "$" + HashCodec.toBase64(salt) + "$" + HashCodec.toBase64(hash);
+    }
+}
@@ -0,0 +1,211 @@
+package com.github.mvysny.vaadinsimplesecurity.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Hashes passwords with the memory-hard <a href="https://www.rfc-editor.org/rfc/rfc7914">scrypt</a> function.
+ * Produces hashes in the <code>$scrypt$ln=15,r=8,p=1$salt$hash</code> format, where
+ * <code>ln</code> is the base-2 logarithm of the CPU/memory cost parameter N.
+ * <p></p>
+ * Every hash computation allocates <code>128 * r * N</code> bytes (32 MiB with the default parameters), which makes
+ * brute-forcing on GPUs and ASICs expensive. Keep that in mind when configuring {@link PasswordHashingService}:
+ * the memory needed is this amount times {@link PasswordHashingService#getMaxConcurrency()}.
+ */
+public final class ScryptPasswordHasher implements PasswordHasher {
+    /**
+     * The PHC identifier.
+     */
+    @NotNull
+    public static final String ID = "scrypt";
+
+    private final int log2N;
+    private final int r;
+    private final int p;
+
+    /**
+     * Creates the hasher with N=2^15, r=8, p=1: 32 MiB of memory per hash.
+     */
+    public ScryptPasswordHasher() {
+        this(15, 8, 1);
+    }
+
+    /**
+     * Creates the hasher.
+     * @param log2N base-2 logarithm of the CPU/memory cost parameter N, 1..30.
+     * @param r the block size parameter, 1 or greater.
+     * @param p the parallelization parameter, 1 or greater.
+     */
+    public ScryptPasswordHasher(int log2N, int r, int p) {
+        checkParams(log2N, r, p);
+        this.log2N = log2N;
+        this.r = r;
+        this.p = p;
+    }
+
+    private static void checkParams(int log2N, int r, int p) {
+        if (log2N < 1 || log2N > 30) {
+            throw new IllegalArgumentException("Parameter log2N: invalid value " + log2N + ": must be 1..30");
+        }
+        if (r < 1 || p < 1 || (long) r * p >= 1 << 30 || (long) r << log2N >= 1L << 24) {
+            throw new IllegalArgumentException("Invalid parameters r=" + r + ", p=" + p + ", log2N=" + log2N);
+        }
+    }
+
+    @Override
+    @NotNull
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public boolean canVerify(@NotNull String hash) {
+        return ID.equals(PhcHash.idOf(hash));
+    }
+
+    @Override
+    @NotNull
+    public String createHash(char @NotNull [] password) {
+        final byte[] salt = PasswordHashers.randomSalt(Math.max(16, PasswordHash.SALT_BYTE_SIZE));
+        final byte[] hash = scrypt(password, salt, log2N, r, p, PasswordHash.HASH_BYTE_SIZE);
+        return new PhcHash(ID, "ln=" + log2N + ",r=" + r + ",p=" + p, salt, hash).format();
+    }
+
+    @Override
+    public boolean verify(char @NotNull [] password, @NotNull String hash) {
+        final PhcHash phc = PhcHash.parse(hash);
+        final int log2N = phc.intParam("ln");
+        final int r = phc.intParam("r");
+        final int p = phc.intParam("p");
+        checkParams(log2N, r, p);
+        final byte[] testHash = scrypt(password, phc.salt(), log2N, r, p, phc.hash().length);
+        return PasswordHash.slowEquals(phc.hash(), testHash);
+    }
+
+    @Override
+    public boolean needsRehash(@NotNull String hash) {
+        final PhcHash phc = PhcHash.parse(hash);
+        return phc.intParam("ln") < log2N || phc.intParam("r") < r || phc.intParam("p") < p
+                || phc.hash().length < PasswordHash.HASH_BYTE_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return "ScryptPasswordHasher{ln=" + log2N + ", r=" + r + ", p=" + p + '}';
+    }
+
+    /**
+     * Computes the scrypt hash of a password, as specified by RFC 7914.
+     * @param password the password, encoded as UTF-8.
+     * @param salt the salt, not empty.
+     * @param log2N base-2 logarithm of the CPU/memory cost parameter N.
+     * @param r the block size parameter.
+     * @param p the parallelization parameter.
+     * @param bytes the length of the hash to compute in bytes
+     * @return the scrypt hash of the password
+     */
+    static byte @NotNull [] scrypt(char @NotNull [] password, byte @NotNull [] salt, int log2N, int r, int p, int bytes) {
+        final int n = 1 << log2N;
+        final int blockInts = 32 * r;
+        final byte[] b = PasswordHash.pbkdf2(Pbkdf2PasswordHasher.Prf.SHA256, password, salt, 1, p * 128 * r);
+        final int[] x = new int[blockInts];
+        final int[] y = new int[blockInts];
+        final int[] v = new int[blockInts * n];
+        final int[] scratch = new int[16];
+        for (int i = 0; i < p; i++) {
+            final int offset = i * 128 * r;
+            for (int k = 0; k < blockInts; k++) {
+                x[k] = littleEndianToInt(b, offset + k * 4);
+            }
+            for (int k = 0; k < n; k++) {
+                System.arraycopy(x, 0, v, k * blockInts, blockInts);
+                blockMix(x, y, scratch, r);
+            }
+            for (int k = 0; k < n; k++) {
+                final int j = x[(2 * r - 1) * 16] & (n - 1);
+                for (int l = 0; l < blockInts; l++) {
+                    x[l] ^= v[j * blockInts + l];
+                }
+                blockMix(x, y, scratch, r);
+            }
+            for (int k = 0; k < blockInts; k++) {
+                intToLittleEndian(x[k], b, offset + k * 4);
+            }
+        }
+        return PasswordHash.pbkdf2(Pbkdf2PasswordHasher.Prf.SHA256, password, b, 1, bytes);
+    }
+
+    /**
+     * The scryptBlockMix function; mixes <code>b</code> in place.
+     */
+    private static void blockMix(int @NotNull [] b, int @NotNull [] y, int @NotNull [] x, int r) {
+        System.arraycopy(b, (2 * r - 1) * 16, x, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                x[k] ^= b[i * 16 + k];
+            }
+            salsa20_8(x);
+            System.arraycopy(x, 0, y, i * 16, 16);
+        }
+        for (int i = 0; i < r; i++) {
+            System.arraycopy(y, (2 * i) * 16, b, i * 16, 16);
+            System.arraycopy(y, (2 * i + 1) * 16, b, (i + r) * 16, 16);
+        }
+    }
+
+    /**
+     * The Salsa20/8 core; transforms <code>b</code> in place.
+     */
+    private static void salsa20_8(int @NotNull [] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            // columns
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            // rows
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+    private static int littleEndianToInt(byte @NotNull [] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static void intToLittleEndian(int value, byte @NotNull [] bytes, int offset) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.mvysny.vaadinsimplesecurity
+
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.kaributesting.v10.Routes
+import com.vaadin.flow.internal.CurrentInstance
+import com.vaadin.flow.server.VaadinRequest
+import org.junit.jupiter.api.*
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.Serializable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.expect
+
+/**
+ * A large database entity.
+ */
+class BigUser(val id: Long, val name: String) : Serializable {
+    val payload = ByteArray(100_000)
+}
+
+/**
+ * Stores only [BigUser.id] in the session.
+ */
+class KeyedLoginService : AbstractKeyedLoginService<BigUser, Long>() {
+    val loads = AtomicInteger()
+    fun loginUser(user: BigUser) { login(user) }
+    override fun toUserWithRoles(user: BigUser): SimpleUserWithRoles = SimpleUserWithRoles(user.name, setOf("user"))
+    override fun toUserKey(user: BigUser): Long = user.id
+    override fun loadUser(userKey: Long): BigUser? {
+        loads.incrementAndGet()
+        return users[userKey]
+    }
+    companion object {
+        val users = ConcurrentHashMap<Long, BigUser>()
+    }
+}
+
+class AbstractLoginServiceTest {
+    companion object {
+        private lateinit var routes: Routes
+        @BeforeAll @JvmStatic fun setup() {
+            routes = Routes().autoDiscoverViews("com.github.mvysny.vaadinsimplesecurity")
+        }
+    }
+    @BeforeEach fun setupVaadin() { MockVaadin.setup(routes) }
+    @AfterEach fun teardownVaadin() {
+        MockVaadin.tearDown()
+        KeyedLoginService.users.clear()
+    }
+
+    private fun serializedSize(o: Any): Int {
+        val bytes = ByteArrayOutputStream()
+        ObjectOutputStream(bytes).use { it.writeObject(o) }
+        return bytes.size()
+    }
+
+    @Nested inner class `user key` {
+        @Test fun `session stores only the key`() {
+            val user = BigUser(25, "admin")
+            KeyedLoginService.users[25L] = user
+            val service = KeyedLoginService()
+            service.loginUser(user)
+            expect(true) { service.isLoggedIn }
+            expect("admin") { service.currentPrincipal!!.username }
+            expect(true) { serializedSize(service) < 10_000 }
+        }
+
+        @Test fun `key survives serialization`() {
+            val user = BigUser(25, "admin")
+            KeyedLoginService.users[25L] = user
+            val service = KeyedLoginService()
+            service.loginUser(user)
+            val bytes = ByteArrayOutputStream()
+            ObjectOutputStream(bytes).use { it.writeObject(service) }
+            val clone = ObjectInputStream(ByteArrayInputStream(bytes.toByteArray())).use { it.readObject() } as KeyedLoginService
+            expect("admin") { clone.currentPrincipal!!.username }
+            expect(user) { clone.currentUser }
+        }
+
+        @Test fun `user is reloaded once per request`() {
+            val user = BigUser(25, "admin")
+            KeyedLoginService.users[25L] = user
+            val service = KeyedLoginService()
+            service.loginUser(user)
+            // remembered for the rest of the login request
+            expect(user) { service.currentUser }
+            expect(user) { service.currentUser }
+            expect(0) { service.loads.get() }
+
+            // outside of a request the user is reloaded on every call
+            val request = CurrentInstance.get(VaadinRequest::class.java)
+            CurrentInstance.set(VaadinRequest::class.java, null)
+            try {
+                expect(user) { service.currentUser }
+                expect(user) { service.currentUser }
+                expect(2) { service.loads.get() }
+            } finally {
+                CurrentInstance.set(VaadinRequest::class.java, request)
+            }
+        }
+
+        @Test fun `access checks don't reload the user`() {
+            val user = BigUser(25, "admin")
+            KeyedLoginService.users[25L] = user
+            val service = KeyedLoginService()
+            service.loginUser(user)
+            val request = CurrentInstance.get(VaadinRequest::class.java)
+            CurrentInstance.set(VaadinRequest::class.java, null)
+            try {
+                expect(true) { service.isLoggedIn }
+                expect("admin") { service.currentPrincipal!!.username }
+                expect(setOf("user")) { service.currentUserRoles }
+                expect(0) { service.loads.get() }
+            } finally {
+                CurrentInstance.set(VaadinRequest::class.java, request)
+            }
+        }
+
+        @Test fun `deleted user is logged out on reload`() {
+            val service = KeyedLoginService()
+            service.loginUser(BigUser(25, "admin"))
+            val request = CurrentInstance.get(VaadinRequest::class.java)
+            CurrentInstance.set(VaadinRequest::class.java, null)
+            try {
+                expect(true) { service.isLoggedIn }
+                expect(null) { service.currentUser }
+                expect(false) { service.isLoggedIn }
+                expect(null) { service.currentPrincipal }
+                expect(setOf()) { service.currentUserRoles }
+                expect(false) { ActiveSessionRegistry.get().isLoggedIn("admin") }
+            } finally {
+                CurrentInstance.set(VaadinRequest::class.java, request)
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.mvysny.vaadinsimplesecurity
+
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.kaributesting.v10.Routes
+import com.vaadin.flow.server.VaadinSession
+import org.junit.jupiter.api.*
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import kotlin.test.expect
+
+class ActiveSessionRegistryTest {
+    companion object {
+        private lateinit var routes: Routes
+        @BeforeAll @JvmStatic fun setup() {
+            routes = Routes().autoDiscoverViews("com.github.mvysny.vaadinsimplesecurity")
+        }
+    }
+    @BeforeEach fun setupVaadin() { MockVaadin.setup(routes) }
+    @AfterEach fun teardownVaadin() { MockVaadin.tearDown() }
+
+    private val registry get() = ActiveSessionRegistry.get()
+
+    @Test fun `login registers the session`() {
+        val activeUsers = registry.activeUserCount
+        DirectLoginService.get().login("registry-login", setOf("user"))
+        expect(listOf(VaadinSession.getCurrent())) { registry.getSessions("registry-login") }
+        expect(true) { registry.isLoggedIn("registry-login") }
+        expect(true) { registry.activeUsernames.contains("registry-login") }
+        expect(activeUsers + 1) { registry.activeUserCount }
+    }
+
+    @Test fun `logging in as another user moves the session`() {
+        DirectLoginService.get().login("registry-first", setOf("user"))
+        DirectLoginService.get().login("registry-second", setOf("user"))
+        expect(listOf()) { registry.getSessions("registry-first") }
+        expect(false) { registry.isLoggedIn("registry-first") }
+        expect(listOf(VaadinSession.getCurrent())) { registry.getSessions("registry-second") }
+    }
+
+    @Test fun `logout unregisters the session`() {
+        DirectLoginService.get().login("registry-logout", setOf("user"))
+        DirectLoginService.get().logout()
+        expect(listOf()) { registry.getSessions("registry-logout") }
+        expect(false) { registry.isLoggedIn("registry-logout") }
+    }
+
+    @Test fun `unknown user`() {
+        expect(listOf()) { registry.getSessions("registry-nobody") }
+        expect(0) { registry.forceLogout("registry-nobody") }
+    }
+
+    @Test fun forceLogout() {
+        DirectLoginService.get().login("registry-forced", setOf("user"))
+        val session = VaadinSession.getCurrent()
+        expect(1) { registry.forceLogout("registry-forced") }
+        // runs the pending VaadinSession.access() tasks
+        MockVaadin.clientRoundtrip()
+        expect(false) { registry.isLoggedIn("registry-forced") }
+        expect(true) { VaadinSession.getCurrent() !== session }
+        expect(false) { DirectLoginService.get().isLoggedIn }
+    }
+
+    @Nested inner class `deserialized session` {
+        /**
+         * Simulates a session which has been deserialized: it carries the login service and the username, yet the
+         * registry doesn't know it.
+         */
+        private fun deserialize(username: String) {
+            DirectLoginService.get().login(username, setOf("user"))
+            val session = VaadinSession.getCurrent()
+            val bytes = ByteArrayOutputStream()
+            ObjectOutputStream(bytes).use { it.writeObject(DirectLoginService.get()) }
+            val clone = ObjectInputStream(ByteArrayInputStream(bytes.toByteArray())).use { it.readObject() } as DirectLoginService
+            registry.unregister(session)
+            session.setAttribute(ActiveSessionRegistry::class.java.name + ".username", username)
+            session.setAttribute(DirectLoginService::class.java, clone)
+            expect(false) { registry.isLoggedIn(username) }
+        }
+
+        @Test fun `login service registers the session again`() {
+            deserialize("registry-restored")
+            expect(true) { DirectLoginService.get().isLoggedIn }
+            expect(listOf(VaadinSession.getCurrent())) { registry.getSessions("registry-restored") }
+            expect(1) { registry.updatePrincipal(SimpleUserWithRoles("registry-restored", setOf("admin"))) }
+            MockVaadin.clientRoundtrip()
+            expect(setOf("admin")) { DirectLoginService.get().currentUserRoles }
+        }
+
+        @Test fun restore() {
+            deserialize("registry-restore")
+            expect(true) { registry.restore(VaadinSession.getCurrent()) }
+            expect(false) { registry.restore(VaadinSession.getCurrent()) }
+            expect(listOf(VaadinSession.getCurrent())) { registry.getSessions("registry-restore") }
+        }
+
+        @Test fun `logged out session isn't restored`() {
+            expect(false) { registry.restore(VaadinSession.getCurrent()) }
+        }
+    }
+
+    @Nested inner class updatePrincipal {
+        @Test fun `replaces the principal`() {
+            DirectLoginService.get().login("registry-push", setOf("user"))
+            expect(1) { registry.updatePrincipal(DirectLoginService::class.java, SimpleUserWithRoles("registry-push", setOf("admin"))) }
+            MockVaadin.clientRoundtrip()
+            expect(setOf("admin")) { DirectLoginService.get().currentUserRoles }
+            // DirectLoginService stores the principal as the user
+            expect(setOf("admin")) { DirectLoginService.get().currentUser!!.roles }
+        }
+
+        @Test fun `other users are left alone`() {
+            DirectLoginService.get().login("registry-push-login", setOf("user"))
+            expect(false) { DirectLoginService.get().updateCurrentPrincipal(SimpleUserWithRoles("registry-other", setOf("admin"))) }
+            expect(setOf("user")) { DirectLoginService.get().currentUserRoles }
+        }
+
+        @Test fun `logged out`() {
+            expect(false) { DirectLoginService.get().updateCurrentPrincipal(SimpleUserWithRoles("registry-push", setOf("admin"))) }
+            expect(null) { DirectLoginService.get().currentPrincipal }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.mvysny.vaadinsimplesecurity
 
 import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUser
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordCheckResult
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import kotlin.test.expect
@@ -27,4 +28,23 @@ class HasPasswordTest {
         expect(false) { user.passwordMatches("foo") }
         expect(false) { user.passwordMatches("bar") }
     }
+
+    @Test
+    fun checkPassword() {
+        val user = InMemoryUser("foo", "foo", setOf())
+        expect(PasswordCheckResult.MATCH) { user.checkPassword("foo") }
+        expect(PasswordCheckResult.MISMATCH) { user.checkPassword("bar") }
+        user.setPassword(null)
+        expect(PasswordCheckResult.MISMATCH) { user.checkPassword("foo") }
+    }
+
+    @Test
+    fun legacyHashNeedsRehash() {
+        val user = InMemoryUser("foo", null, setOf())
+        // PBKDF2-SHA1 hash in the iterations:salt:hash format, produced by vaadin-simple-security 1.x
+        user.hashedPassword = "185000:3072b99c26b395bf:f66df51b1ba1528beaa50384631243681e439d3feb6b8f728775e45066d0de7f"
+        expect(PasswordCheckResult.MATCH_NEEDS_REHASH) { user.checkPassword("foo") }
+        user.setPassword("foo")
+        expect(PasswordCheckResult.MATCH) { user.checkPassword("foo") }
+    }
 }
@@ -6,12 +6,16 @@ import com.github.mvysny.kaributools.navigateTo
 import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryLoginService
 import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUser
 import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUserRegistry
+import com.github.mvysny.vaadinsimplesecurity.access.AccessDecisionCache
+import com.github.mvysny.vaadinsimplesecurity.access.RolesExpression
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleHierarchy
 import com.vaadin.flow.component.UI
 import com.vaadin.flow.component.orderedlayout.VerticalLayout
 import com.vaadin.flow.router.AccessDeniedException
 import com.vaadin.flow.router.Route
 import com.vaadin.flow.router.RouterLayout
 import com.vaadin.flow.server.VaadinRequest
+import com.vaadin.flow.server.VaadinService
 import jakarta.annotation.security.PermitAll
 import jakarta.annotation.security.RolesAllowed
 import org.junit.jupiter.api.AfterAll
@@ -62,6 +66,13 @@ class SalesView : VerticalLayout()
 @Route("rejectall")
 class RejectAllView : VerticalLayout()
 
+/**
+ * Only checked by [SimpleNavigationAccessControl]: Vaadin doesn't know [RolesExpression].
+ */
+@RolesExpression("admin or (user and not sales)")
+@Route("audit")
+class AuditView : VerticalLayout()
+
 class SimpleNavigationAccessControlTest {
     companion object {
         private lateinit var routes: Routes
@@ -144,6 +155,21 @@ class SimpleNavigationAccessControlTest {
         navigateTo<LoginView>()
         expectView<LoginView>()
     }
+    @Test fun `roles pushed to the session take effect`() {
+        InMemoryLoginService.get().login("user", "user")
+        navigateTo<UserView>()
+        expectThrows<MockAccessDeniedException>("Access is denied by annotations on the view.") {
+            navigateTo<AdminView>()
+        }
+
+        // "user" may still be registered in the sessions of the previous tests
+        expect(true) { ActiveSessionRegistry.get().updatePrincipal(InMemoryLoginService::class.java, SimpleUserWithRoles("user", setOf("user", "admin"))) >= 1 }
+        // runs the pending VaadinSession.access() tasks, refreshing UserView
+        MockVaadin.clientRoundtrip()
+        expectView<UserView>()
+        navigateTo<AdminView>()
+        expectView<AdminView>()
+    }
     @Test fun `sales logged in`() {
         InMemoryLoginService.get().login("sales", "sales")
 
@@ -167,6 +193,54 @@ class SimpleNavigationAccessControlTest {
         navigateTo<LoginView>()
         expectView<LoginView>()
     }
+    @Test fun `role hierarchy`() {
+        RoleHierarchy.setGlobal(RoleHierarchy.parse("admin > user"))
+        try {
+            InMemoryLoginService.get().login("admin", "admin")
+            navigateTo<UserView>()
+            expectView<UserView>()
+            navigateTo<SalesView>()
+            expectView<SalesView>()
+        } finally {
+            RoleHierarchy.setGlobal(RoleHierarchy.NONE)
+        }
+    }
+    @Test fun `decisions are cached`() {
+        AccessDecisionCache.get(VaadinService.getCurrent(), SimpleNavigationAccessControl::class.java).clear()
+        InMemoryLoginService.get().login("user", "user")
+        navigateTo<UserView>()
+        val hits = AccessDecisionCache.get(VaadinService.getCurrent(), SimpleNavigationAccessControl::class.java).hitCount
+        navigateTo<WelcomeView>()
+        navigateTo<UserView>()
+        expectView<UserView>()
+        expect(true) { AccessDecisionCache.get(VaadinService.getCurrent(), SimpleNavigationAccessControl::class.java).hitCount > hits }
+        expectThrows<MockAccessDeniedException>("Access is denied by annotations on the view.") {
+            navigateTo<AdminView>()
+        }
+        expectThrows<MockAccessDeniedException>("Access is denied by annotations on the view.") {
+            navigateTo<AdminView>()
+        }
+    }
+    @Test fun `roles expression`() {
+        InMemoryLoginService.get().login("user", "user")
+        navigateTo<AuditView>()
+        expectView<AuditView>()
+        InMemoryLoginService.get().login("sales", "sales")
+        expectThrows<MockAccessDeniedException>("Access is denied by annotations on the view.") {
+            navigateTo<AuditView>()
+        }
+    }
+    @Test fun `user is looked up once per navigation`() {
+        InMemoryLoginService.get().login("user", "user")
+        val accessControl = SimpleNavigationAccessControl.usingService { InMemoryLoginService.get() }
+        accessControl.setDecisionCacheEnabled(false)
+        UI.getCurrent().addBeforeEnterListener(accessControl)
+        navigateTo<UserView>()
+        navigateTo<WelcomeView>()
+        expectView<WelcomeView>()
+        expect(2L) { accessControl.navigationCount }
+        expect(2L) { accessControl.supplierInvocationCount }
+    }
     @Test fun `error route not hijacked by the LoginView`() {
         UI.getCurrent().addBeforeEnterListener { e ->
             e.rerouteToError(RuntimeException("Simulated"), "Simulated")
@@ -1,6 +1,10 @@
 package com.github.mvysny.vaadinsimplesecurity
 
 import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
 import kotlin.test.expect
 
 class SimpleUserWithRolesTest {
@@ -20,4 +24,16 @@ class SimpleUserWithRolesTest {
         expect(true) { SimpleUserWithRoles("foo", setOf("foo", "bar")).hasRole("foo") }
         expect(true) { SimpleUserWithRoles("foo", setOf("foo", "bar")).hasRole("bar") }
     }
+    @Test fun `users with the same roles share the role set`() {
+        expect(true) { SimpleUserWithRoles("foo", setOf("admin", "user")).roleSet === SimpleUserWithRoles("bar", setOf("user", "admin")).roleSet }
+        expect(setOf("admin", "user")) { SimpleUserWithRoles("foo", setOf("admin", "user")).roles }
+    }
+    @Test fun serialization() {
+        val user = SimpleUserWithRoles("foo", setOf("admin", "user"))
+        val bout = ByteArrayOutputStream()
+        ObjectOutputStream(bout).use { it.writeObject(user) }
+        val clone = ObjectInputStream(ByteArrayInputStream(bout.toByteArray())).use { it.readObject() } as SimpleUserWithRoles
+        expect("foo") { clone.username }
+        expect(true) { clone.roleSet === user.roleSet }
+    }
 }
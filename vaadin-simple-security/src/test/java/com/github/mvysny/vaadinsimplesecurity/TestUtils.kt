@@ -1,9 +1,24 @@
 package com.github.mvysny.vaadinsimplesecurity
 
+import com.github.mvysny.kaributesting.v10.MockVaadin
 import org.junit.jupiter.api.assertThrows
+import java.util.concurrent.CompletableFuture
 import kotlin.test.expect
 
 inline fun <reified E: Throwable> expectThrows(expectedExceptionMessage: String, block: () -> Unit) {
     val ex = assertThrows<E>(block)
     expect(expectedExceptionMessage) { ex.message!! }
+}
+
+/**
+ * Waits until the future completes, running the UI.access() tasks queued by the background threads.
+ */
+fun <T> CompletableFuture<T>.await(): T {
+    val deadline = System.currentTimeMillis() + 30_000
+    while (!isDone) {
+        check(System.currentTimeMillis() < deadline) { "Timed out waiting for $this" }
+        MockVaadin.clientRoundtrip()
+        Thread.sleep(10)
+    }
+    return get()
 }
\ No newline at end of file
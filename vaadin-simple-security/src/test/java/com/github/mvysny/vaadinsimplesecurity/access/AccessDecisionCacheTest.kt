@@ -0,0 +1,46 @@
+package com.github.mvysny.vaadinsimplesecurity.access
+
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.vaadinsimplesecurity.AdminView
+import com.github.mvysny.vaadinsimplesecurity.SimpleNavigationAccessControl
+import com.github.mvysny.vaadinsimplesecurity.UserView
+import com.github.mvysny.vaadinsimplesecurity.WelcomeView
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet
+import com.vaadin.flow.server.VaadinService
+import com.vaadin.flow.server.auth.AccessCheckResult
+import org.junit.jupiter.api.Test
+import kotlin.test.expect
+
+class AccessDecisionCacheTest {
+    private fun key(target: Class<*>) = AccessDecisionCache.Key(target, RoleSet.of("user"), false, false)
+
+    @Test fun `least recently used decision is evicted`() {
+        val cache = AccessDecisionCache()
+        cache.maxSize = 2
+        cache.get(key(AdminView::class.java)) { AccessCheckResult.deny("admin") }
+        cache.get(key(UserView::class.java)) { AccessCheckResult.allow() }
+        // touches AdminView, so that UserView becomes the least recently used one
+        cache.get(key(AdminView::class.java)) { error("should be cached") }
+        cache.get(key(WelcomeView::class.java)) { AccessCheckResult.allow() }
+        expect(2) { cache.size() }
+        expect(1L) { cache.evictionCount }
+        expect("admin") { cache.get(key(AdminView::class.java)) { error("should be cached") }.reason() }
+        var computed = false
+        cache.get(key(UserView::class.java)) { computed = true; AccessCheckResult.allow() }
+        expect(true) { computed }
+    }
+
+    @Test fun `one cache per access control class`() {
+        MockVaadin.setup()
+        try {
+            val service = VaadinService.getCurrent()
+            val cache = AccessDecisionCache.get(service, SimpleNavigationAccessControl::class.java)
+            expect(true) { cache === AccessDecisionCache.get(service, SimpleNavigationAccessControl::class.java) }
+            expect(false) { cache === AccessDecisionCache.get(service, CustomAccessControl::class.java) }
+        } finally {
+            MockVaadin.tearDown()
+        }
+    }
+}
+
+class CustomAccessControl : SimpleNavigationAccessControl({ null })
@@ -0,0 +1,200 @@
+package com.github.mvysny.vaadinsimplesecurity.access
+
+import com.github.mvysny.kaributesting.v10.*
+import com.github.mvysny.kaributools.navigateTo
+import com.github.mvysny.vaadinsimplesecurity.*
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryLoginService
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUser
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUserRegistry
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet
+import com.vaadin.flow.component.orderedlayout.VerticalLayout
+import com.vaadin.flow.router.RouteConfiguration
+import com.vaadin.flow.server.VaadinService
+import com.vaadin.flow.server.auth.AccessCheckDecision
+import com.vaadin.flow.server.auth.AnonymousAllowed
+import jakarta.annotation.security.PermitAll
+import jakarta.annotation.security.RolesAllowed
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Nested
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import kotlin.test.expect
+
+@PermitAll
+@RolesAllowed("admin")
+class ConflictingView : VerticalLayout()
+
+@AnonymousAllowed
+open class AnonymousBaseView : VerticalLayout()
+
+/**
+ * Vaadin would let anonymous users in, since `@AnonymousAllowed` is inherited and takes precedence.
+ */
+@RolesAllowed("admin")
+class InheritedConflictView : AnonymousBaseView()
+
+class NotAnnotatedView : VerticalLayout()
+
+class RouteAccessTableTest {
+    @Nested inner class builder {
+        @Test fun decisions() {
+            val table = RouteAccessTable.builder()
+                .addRoute(AdminView::class.java, listOf())
+                .addRoute(UserView::class.java, listOf(MyLayout::class.java))
+                .addRoute(SalesView::class.java, listOf(SalesLayout::class.java))
+                .addRoute(NotAnnotatedView::class.java, listOf())
+                .build()
+            expect(4) { table.size() }
+            expect(AccessCheckDecision.ALLOW) { table.check(AdminView::class.java, RoleSet.of("admin"))!!.decision() }
+            expect(AccessCheckDecision.DENY) { table.check(AdminView::class.java, RoleSet.of("user"))!!.decision() }
+            expect(AccessCheckDecision.DENY) { table.check(AdminView::class.java, null)!!.decision() }
+            expect(AccessCheckDecision.ALLOW) { table.check(UserView::class.java, RoleSet.of("user"))!!.decision() }
+            expect("Denied access to view 'SalesView' due to parent layout 'SalesLayout' access rules. Consider adding one of the following annotations to make the parent layout accessible: @AnonymousAllowed, @PermitAll, or @RolesAllowed.") {
+                table.check(SalesView::class.java, RoleSet.of("admin"))!!.reason()
+            }
+            expect("Consider adding one of the following annotations to make the view accessible: @AnonymousAllowed, @PermitAll, or @RolesAllowed.") {
+                table.check(NotAnnotatedView::class.java, RoleSet.of("admin"))!!.reason()
+            }
+            expect(null) { table.check(WelcomeView::class.java, RoleSet.of("admin")) }
+        }
+
+        @Test fun `routes with different layouts are left out`() {
+            val table = RouteAccessTable.builder()
+                .addRoute(UserView::class.java, listOf(MyLayout::class.java))
+                .addRoute(UserView::class.java, listOf())
+                .build()
+            expect(false) { table.contains(UserView::class.java) }
+        }
+
+        @Test fun `conflicting annotations fail the build`() {
+            val ex = assertThrows<IllegalStateException> {
+                RouteAccessTable.builder()
+                    .addRoute(ConflictingView::class.java, listOf())
+                    .addRoute(InheritedConflictView::class.java, listOf())
+                    .build()
+            }
+            expect("""Invalid route security annotations:
+com.github.mvysny.vaadinsimplesecurity.access.ConflictingView has conflicting security annotations [@PermitAll, @RolesAllowed]; keep only one of them
+com.github.mvysny.vaadinsimplesecurity.access.InheritedConflictView has conflicting security annotations [@AnonymousAllowed, @RolesAllowed]; keep only one of them""") { ex.message }
+        }
+
+        @Test fun `accessible routes`() {
+            val table = RouteAccessTable.builder()
+                .addRoute(AdminView::class.java, listOf())
+                .addRoute(UserView::class.java, listOf(MyLayout::class.java))
+                .addRoute(SalesView::class.java, listOf(SalesLayout::class.java))
+                .addRoute(WelcomeView::class.java, listOf(MyLayout::class.java))
+                .build()
+            expect(listOf(AdminView::class.java, WelcomeView::class.java)) { table.getAccessibleRoutes(RoleSet.of("admin")) }
+            expect(listOf(UserView::class.java, SalesView::class.java, WelcomeView::class.java)) { table.getAccessibleRoutes(RoleSet.of("user")) }
+            expect(listOf()) { table.getAccessibleRoutes(null) }
+            expect(true) { table.getAccessibleRoutes(RoleSet.of("user")) === table.getAccessibleRoutes(RoleSet.of("user")) }
+        }
+
+        @Test fun `known rules are used instead of the annotations`() {
+            val table = RouteAccessTable.builder()
+                .addRules(mapOf(ConflictingView::class.java to AccessRule.of(ConflictingView::class.java, AccessRule.Kind.PERMIT_ALL)))
+                .addRoute(ConflictingView::class.java, listOf())
+                .addRoute(AdminView::class.java, listOf())
+                .build()
+            expect(AccessRule.Kind.PERMIT_ALL) { table.getRule(ConflictingView::class.java)!!.kind }
+            expect(AccessRule.Kind.ROLES_ALLOWED) { table.getRule(AdminView::class.java)!!.kind }
+        }
+    }
+
+    @Nested inner class navigation {
+        @BeforeEach fun setupVaadin() {
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("admin", "admin", setOf("admin")))
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("user", "user", setOf("user")))
+            MockVaadin.setup(Routes().autoDiscoverViews("com.github.mvysny.vaadinsimplesecurity"), uiFactory = { MockedUIWithViewAccessChecker() })
+            SimpleNavigationAccessControl.precompileRouteAccess(VaadinService.getCurrent())
+            AccessDecisionCache.get(VaadinService.getCurrent(), SimpleNavigationAccessControl::class.java).clear()
+        }
+        @AfterEach fun teardownVaadin() {
+            MockVaadin.tearDown()
+            InMemoryUserRegistry.get().clear()
+        }
+
+        @Test fun `table is installed`() {
+            expect(true) { RouteAccessTable.get(VaadinService.getCurrent())!!.contains(AdminView::class.java) }
+        }
+
+        @Test fun `accessible routes`() {
+            val accessControl = SimpleNavigationAccessControl.usingService { InMemoryLoginService.get() }
+            expect(listOf()) { accessControl.accessibleRoutes }
+            InMemoryLoginService.get().login("user", "user")
+            expect(true) { accessControl.accessibleRoutes.containsAll(listOf(UserView::class.java, SalesView::class.java, WelcomeView::class.java)) }
+            expect(false) { accessControl.accessibleRoutes.contains(AdminView::class.java) }
+        }
+
+        @Test fun anonymous() {
+            navigateTo<AdminView>()
+            expectView<LoginView>()
+            navigateTo<WelcomeView>()
+            expectView<LoginView>()
+        }
+
+        @Test fun user() {
+            InMemoryLoginService.get().login("user", "user")
+            navigateTo<UserView>()
+            expectView<UserView>()
+            navigateTo<SalesView>()
+            expectView<SalesView>()
+            expectThrows<MockAccessDeniedException>("Access is denied by annotations on the view.") {
+                navigateTo<AdminView>()
+            }
+        }
+
+        @Test fun admin() {
+            InMemoryLoginService.get().login("admin", "admin")
+            navigateTo<AdminView>()
+            expectView<AdminView>()
+            expectThrows<MockAccessDeniedException>("Denied access to view 'SalesView' due to parent layout 'SalesLayout' access rules. Consider adding one of the following annotations to make the parent layout accessible: @AnonymousAllowed, @PermitAll, or @RolesAllowed.") {
+                navigateTo<SalesView>()
+            }
+        }
+    }
+
+    @Nested inner class `conflicting annotations` {
+        @BeforeEach fun setupVaadin() {
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("user", "user", setOf("user")))
+            MockVaadin.setup(Routes().autoDiscoverViews("com.github.mvysny.vaadinsimplesecurity"), uiFactory = { MockedUIWithViewAccessChecker() })
+            InMemoryLoginService.get().login("user", "user")
+        }
+        @AfterEach fun teardownVaadin() {
+            MockVaadin.tearDown()
+            InMemoryUserRegistry.get().clear()
+        }
+
+        @Test fun `precompileRouteAccess fails`() {
+            RouteConfiguration.forApplicationScope().setRoute("conflicting", ConflictingView::class.java)
+            assertThrows<IllegalStateException> {
+                SimpleNavigationAccessControl.precompileRouteAccess(VaadinService.getCurrent())
+            }
+        }
+
+        @Test fun `navigation falls back to the annotations`() {
+            RouteConfiguration.forApplicationScope().setRoute("conflicting", ConflictingView::class.java)
+            navigateTo<UserView>()
+            expectView<UserView>()
+            // the table can't be built; Vaadin doesn't know @RolesExpression and denies access
+            repeat(2) {
+                assertThrows<MockAccessDeniedException> { navigateTo<AuditView>() }
+            }
+            expect(null) { RouteAccessTable.get(VaadinService.getCurrent()) }
+        }
+
+        @Test fun `routes changed to conflicting`() {
+            SimpleNavigationAccessControl.precompileRouteAccess(VaadinService.getCurrent())
+            navigateTo<AuditView>()
+            expectView<AuditView>()
+            RouteConfiguration.forApplicationScope().setRoute("conflicting", ConflictingView::class.java)
+            expect(null) { RouteAccessTable.get(VaadinService.getCurrent()) }
+            navigateTo<UserView>()
+            expectView<UserView>()
+            RouteConfiguration.forApplicationScope().removeRoute(ConflictingView::class.java)
+            expect(true) { RouteAccessTable.get(VaadinService.getCurrent())!!.contains(AuditView::class.java) }
+        }
+    }
+}
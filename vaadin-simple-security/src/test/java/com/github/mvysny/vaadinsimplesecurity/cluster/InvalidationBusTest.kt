@@ -0,0 +1,203 @@
+package com.github.mvysny.vaadinsimplesecurity.cluster
+
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.kaributesting.v10.Routes
+import com.github.mvysny.vaadinsimplesecurity.ActiveSessionRegistry
+import com.github.mvysny.vaadinsimplesecurity.DirectLoginService
+import com.github.mvysny.vaadinsimplesecurity.SimpleUserWithRoles
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import com.github.mvysny.vaadinsimplesecurity.roles.RoleSet
+import org.junit.jupiter.api.*
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.test.expect
+
+/**
+ * Waits until [condition] holds.
+ * @param roundtrip if true, runs the pending `VaadinSession.access()` tasks while waiting.
+ */
+private fun waitUntil(roundtrip: Boolean = false, condition: () -> Boolean) {
+    val deadline = System.currentTimeMillis() + 10_000
+    while (!condition()) {
+        check(System.currentTimeMillis() < deadline) { "Timed out" }
+        if (roundtrip) MockVaadin.clientRoundtrip()
+        Thread.sleep(10)
+    }
+}
+
+class InvalidationBusTest {
+    @Nested inner class invalidation {
+        @Test fun coalesce() {
+            val logout = Invalidation.logout("admin")
+            val principal = Invalidation.updatePrincipal(SimpleUserWithRoles("admin", setOf("user")))
+            val principal2 = Invalidation.updatePrincipal(SimpleUserWithRoles("admin", setOf("admin")))
+            expect(logout) { logout.coalesce(principal) }
+            expect(logout) { principal.coalesce(logout) }
+            expect(principal2) { principal.coalesce(principal2) }
+            expectThrows<IllegalArgumentException>("Parameter later: invalid value Invalidation[type=LOGOUT, username=user, roles=null]: a different user than admin") {
+                logout.coalesce(Invalidation.logout("user"))
+            }
+        }
+
+        @Test fun validation() {
+            expectThrows<IllegalArgumentException>("Parameter roles: invalid value null: PRINCIPAL requires roles") {
+                Invalidation(Invalidation.Type.PRINCIPAL, "admin", null)
+            }
+            expectThrows<IllegalArgumentException>("Parameter roles: invalid value [admin]: LOGOUT requires no roles") {
+                Invalidation(Invalidation.Type.LOGOUT, "admin", RoleSet.of("admin"))
+            }
+        }
+    }
+
+    @Nested inner class local {
+        @Test fun `mass revocation is batched and coalesced`() {
+            LocalInvalidationBus(Duration.ofMillis(100), 1000).use { bus ->
+                val batches = CopyOnWriteArrayList<List<Invalidation>>()
+                bus.addListener { batches.add(it) }
+                repeat(10_000) { bus.publish(Invalidation.logout("user${it % 100}")) }
+                waitUntil { bus.sentCount == 100L }
+                expect(100) { batches.sumOf { it.size } }
+                expect(10_000L) { bus.publishedCount }
+                expect(true) { bus.sentBatchCount < 10 }
+            }
+        }
+
+        @Test fun `full batch is sent early`() {
+            LocalInvalidationBus(Duration.ofHours(1), 2).use { bus ->
+                val received = CopyOnWriteArrayList<Invalidation>()
+                bus.addListener { received.addAll(it) }
+                bus.publish(Invalidation.logout("admin"))
+                bus.publish(Invalidation.logout("user"))
+                waitUntil { received.size == 2 }
+            }
+        }
+
+        @Test fun `close sends the pending invalidations`() {
+            val received = CopyOnWriteArrayList<Invalidation>()
+            val bus = LocalInvalidationBus(Duration.ofHours(1), 1000)
+            bus.addListener { received.addAll(it) }
+            bus.publish(Invalidation.logout("admin"))
+            bus.close()
+            expect(listOf(Invalidation.logout("admin"))) { received }
+            expectThrows<IllegalStateException>("Closed") { bus.publish(Invalidation.logout("admin")) }
+        }
+    }
+
+    @Nested inner class udp {
+        private val secret = "0123456789abcdef".toByteArray()
+
+        @Test fun `delivered to all nodes`() {
+            UdpInvalidationBus.loopback(0, secret).use { node2 ->
+                UdpInvalidationBus.loopback(0, secret, node2.localPort).use { node1 ->
+                    val received1 = CopyOnWriteArrayList<Invalidation>()
+                    val received2 = CopyOnWriteArrayList<Invalidation>()
+                    node1.addListener { received1.addAll(it) }
+                    node2.addListener { received2.addAll(it) }
+                    // more than fits into a single datagram
+                    repeat(2000) { node1.publish(Invalidation.logout("user$it")) }
+                    node1.publish(Invalidation.updatePrincipal(SimpleUserWithRoles("admin", setOf("admin", "user"))))
+                    waitUntil { received1.size == 2001 && received2.size == 2001 }
+                    expect(received1) { received2 }
+                    expect(SimpleUserWithRoles("admin", setOf("admin", "user")).roleSet) { received2.last().toPrincipal().roleSet }
+                }
+            }
+        }
+
+        @Test fun `unreachable peer doesn't block the other nodes`() {
+            UdpInvalidationBus.loopback(0, secret).use { node2 ->
+                val loopback = InetAddress.getLoopbackAddress()
+                // nothing can be sent to port 0
+                val peers = listOf(InetSocketAddress(loopback, 0), InetSocketAddress(loopback, node2.localPort))
+                UdpInvalidationBus(InetSocketAddress(loopback, 0), peers, secret).use { node1 ->
+                    val received1 = CopyOnWriteArrayList<Invalidation>()
+                    val received2 = CopyOnWriteArrayList<Invalidation>()
+                    node1.addListener { received1.addAll(it) }
+                    node2.addListener { received2.addAll(it) }
+                    node1.publish(Invalidation.logout("admin"))
+                    waitUntil { received1.isNotEmpty() && received2.isNotEmpty() }
+                    expect(listOf(Invalidation.logout("admin"))) { received1 }
+                    expect(listOf(Invalidation.logout("admin"))) { received2 }
+                }
+            }
+        }
+
+        @Test fun `forged datagrams are dropped`() {
+            UdpInvalidationBus.loopback(0, secret).use { node ->
+                val received = CopyOnWriteArrayList<Invalidation>()
+                node.addListener { received.addAll(it) }
+                UdpInvalidationBus.loopback(0, "not the right secret".toByteArray(), node.localPort).use { attacker ->
+                    attacker.publish(Invalidation.updatePrincipal(SimpleUserWithRoles("attacker", setOf("admin"))))
+                }
+                UdpInvalidationBus.loopback(0, secret, node.localPort).use { peer ->
+                    peer.publish(Invalidation.logout("admin"))
+                }
+                waitUntil { received.isNotEmpty() }
+                expect(listOf(Invalidation.logout("admin"))) { received }
+            }
+        }
+
+        @Test fun `replayed and reordered datagrams are dropped`() {
+            DatagramSocket(0, InetAddress.getLoopbackAddress()).use { tap ->
+                val captured = mutableListOf<DatagramPacket>()
+                fun capture() = DatagramPacket(ByteArray(65536), 65536).also { tap.receive(it); captured.add(it) }
+                UdpInvalidationBus.loopback(0, secret, tap.localPort).use { sender ->
+                    sender.publish(Invalidation.updatePrincipal(SimpleUserWithRoles("admin", setOf("admin"))))
+                    capture()
+                    sender.publish(Invalidation.logout("admin"))
+                    capture()
+                }
+                UdpInvalidationBus.loopback(0, secret).use { node ->
+                    val received = CopyOnWriteArrayList<Invalidation>()
+                    node.addListener { received.addAll(it) }
+                    val address = InetSocketAddress(InetAddress.getLoopbackAddress(), node.localPort)
+                    // the logout arrives first, then the older principal, then both again
+                    for (i in listOf(1, 0, 1, 0)) {
+                        tap.send(DatagramPacket(captured[i].data, captured[i].length, address))
+                    }
+                    UdpInvalidationBus.loopback(0, secret, node.localPort).use { peer ->
+                        peer.publish(Invalidation.logout("user"))
+                    }
+                    waitUntil { received.size >= 2 }
+                    expect(listOf(Invalidation.logout("admin"), Invalidation.logout("user"))) { received }
+                }
+            }
+        }
+
+        @Test fun `short secret`() {
+            expectThrows<IllegalArgumentException>("Parameter sharedSecret: invalid value: 3 bytes long, must be at least 16 bytes") {
+                UdpInvalidationBus.loopback(0, "abc".toByteArray())
+            }
+        }
+    }
+
+    @Nested inner class sessions {
+        private lateinit var bus: LocalInvalidationBus
+        @BeforeEach fun setupVaadin() {
+            MockVaadin.setup(Routes().autoDiscoverViews("com.github.mvysny.vaadinsimplesecurity"))
+            bus = LocalInvalidationBus()
+            ActiveSessionRegistry.get().setInvalidationBus(bus)
+        }
+        @AfterEach fun teardownVaadin() {
+            ActiveSessionRegistry.get().setInvalidationBus(null)
+            bus.close()
+            MockVaadin.tearDown()
+        }
+
+        @Test fun forceLogoutEverywhere() {
+            DirectLoginService.get().login("bus-logout", setOf("user"))
+            ActiveSessionRegistry.get().forceLogoutEverywhere("bus-logout")
+            waitUntil(roundtrip = true) { !ActiveSessionRegistry.get().isLoggedIn("bus-logout") }
+            expect(1L) { bus.publishedCount }
+        }
+
+        @Test fun updatePrincipalEverywhere() {
+            DirectLoginService.get().login("bus-principal", setOf("user"))
+            ActiveSessionRegistry.get().updatePrincipalEverywhere(SimpleUserWithRoles("bus-principal", setOf("admin")))
+            waitUntil(roundtrip = true) { DirectLoginService.get().currentUserRoles == setOf("admin") }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.mvysny.vaadinsimplesecurity.filestore
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUser
+import com.github.mvysny.vaadinsimplesecurity.inmemory.InMemoryUserRegistry
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.api.io.TempDir
+import java.io.IOException
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.time.Duration
+import kotlin.test.expect
+
+class FileUserStoreTest {
+    @TempDir lateinit var dir: Path
+    @BeforeEach @AfterEach fun clearUserRegistry() { InMemoryUserRegistry.get().clear() }
+
+    private val registry: InMemoryUserRegistry get() = InMemoryUserRegistry.get()
+
+    /**
+     * Simulates an application restart: forgets all users, then loads them from [dir].
+     */
+    private fun reopen(compactionThreshold: Int = 1000): FileUserStore {
+        registry.clear()
+        return FileUserStore.open(dir, Duration.ofSeconds(10), compactionThreshold)
+    }
+
+    @Test fun `empty directory`() {
+        FileUserStore.open(dir).close()
+        reopen().close()
+        expect(0) { registry.size() }
+    }
+
+    @Test fun `modifications survive restart`() {
+        reopen().use {
+            registry.registerUser(InMemoryUser("admin", "admin", setOf("ROLE_ADMIN")))
+            registry.registerUser(InMemoryUser("user", "user", setOf("ROLE_USER")))
+            registry.registerUser(InMemoryUser("guest", "guest", setOf()))
+            registry.unregisterUser("guest")
+            registry.replaceUser(InMemoryUser("user", "user2", setOf("ROLE_USER", "ROLE_SALES")))
+            expect(5) { it.journalRecordCount }
+        }
+        reopen().use {
+            expect(setOf("admin", "user")) { registry.users.map { it.username }.toSet() }
+            expect(true) { registry.findByUsername("admin")!!.passwordMatches("admin") }
+            val user = registry.findByUsername("user")!!
+            expect(setOf("ROLE_USER", "ROLE_SALES")) { user.roles }
+            expect(true) { user.passwordMatches("user2") }
+        }
+    }
+
+    @Test fun compaction() {
+        reopen().use {
+            registry.registerUser(InMemoryUser("admin", "admin", setOf("ROLE_ADMIN")))
+            registry.clear()
+            registry.registerUser(InMemoryUser("user", "user", setOf("ROLE_USER")))
+            it.compact()
+            expect(0) { it.journalRecordCount }
+            registry.registerUser(InMemoryUser("guest", null, setOf()))
+        }
+        reopen().use {
+            expect(setOf("user", "guest")) { registry.users.map { it.username }.toSet() }
+        }
+    }
+
+    @Test fun `compacts automatically`() {
+        reopen(compactionThreshold = 3).use {
+            repeat(10) { i -> registry.registerUser(InMemoryUser("user$i", null, setOf())) }
+            val snapshot = dir.resolve(FileUserStore.SNAPSHOT_FILE)
+            val deadline = System.currentTimeMillis() + 10_000
+            while (!Files.exists(snapshot)) {
+                check(System.currentTimeMillis() < deadline) { "Timed out waiting for the compaction" }
+                Thread.sleep(10)
+            }
+        }
+        reopen(compactionThreshold = 3).use {
+            expect(10) { registry.size() }
+        }
+    }
+
+    @Test fun `torn journal tail is discarded`() {
+        reopen().use {
+            registry.registerUser(InMemoryUser("admin", "admin", setOf("ROLE_ADMIN")))
+            registry.registerUser(InMemoryUser("user", "user", setOf("ROLE_USER")))
+        }
+        val journal = dir.resolve(FileUserStore.JOURNAL_FILE)
+        val bytes = Files.readAllBytes(journal)
+        Files.write(journal, bytes.copyOf(bytes.size - 5))
+        reopen().use {
+            expect(listOf("admin")) { registry.users.map { it.username } }
+            // the store keeps appending after the last intact record
+            registry.registerUser(InMemoryUser("guest", null, setOf()))
+        }
+        reopen().use {
+            expect(setOf("admin", "guest")) { registry.users.map { it.username }.toSet() }
+        }
+    }
+
+    @Test fun `corrupt files are rejected`() {
+        val snapshot = dir.resolve(FileUserStore.SNAPSHOT_FILE)
+        Files.writeString(snapshot, "not a snapshot")
+        expectThrows<IOException>("$snapshot is not a FileUserStore file") { reopen() }
+    }
+
+    @Test fun `registry must be empty`() {
+        registry.registerUser(InMemoryUser("admin", "admin", setOf("ROLE_ADMIN")))
+        expectThrows<IllegalStateException>("The registry already contains 1 users; open the store before registering users") {
+            FileUserStore.open(dir)
+        }
+    }
+
+    @Test fun `failed journal write doesn't break the registry`() {
+        val store = reopen()
+        // simulates an I/O failure: every journal write now fails with ClosedChannelException
+        val journal = FileUserStore::class.java.getDeclaredField("journal")
+        journal.isAccessible = true
+        (journal.get(store) as FileChannel).close()
+        registry.registerUser(InMemoryUser("admin", "admin", setOf("ROLE_ADMIN")))
+        registry.registerUser(InMemoryUser("user", "user", setOf("ROLE_USER")))
+        expect(2) { registry.size() }
+        expect(true) { store.failure is ClosedChannelException }
+        expect(0) { store.journalRecordCount }
+        assertThrows<IOException> { store.close() }
+    }
+
+    @Test fun `recovers from a transient journal write failure`() {
+        val store = reopen()
+        // simulates a transient I/O failure: swaps in a closed channel, then puts the working one back
+        val journal = FileUserStore::class.java.getDeclaredField("journal")
+        journal.isAccessible = true
+        val working = journal.get(store) as FileChannel
+        val broken = FileChannel.open(dir.resolve("broken"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+        broken.close()
+        journal.set(store, broken)
+        registry.registerUser(InMemoryUser("admin", "admin", setOf("ROLE_ADMIN")))
+        expect(true) { store.failure is ClosedChannelException }
+        journal.set(store, working)
+        val deadline = System.currentTimeMillis() + 10_000
+        while (store.failure != null) {
+            check(System.currentTimeMillis() < deadline) { "Timed out" }
+            Thread.sleep(10)
+        }
+        registry.registerUser(InMemoryUser("user", "user", setOf("ROLE_USER")))
+        store.close()
+        reopen().close()
+        expect(setOf("admin", "user")) { registry.users.map { it.username }.toSet() }
+    }
+
+    @Test fun `close detaches the store`() {
+        reopen().close()
+        registry.registerUser(InMemoryUser("admin", "admin", setOf("ROLE_ADMIN")))
+        reopen().close()
+        expect(0) { registry.size() }
+    }
+}
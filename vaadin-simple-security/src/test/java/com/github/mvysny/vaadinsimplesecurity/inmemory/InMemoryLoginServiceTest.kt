@@ -2,11 +2,38 @@ package com.github.mvysny.vaadinsimplesecurity.inmemory
 
 import com.github.mvysny.kaributesting.v10.MockVaadin
 import com.github.mvysny.kaributesting.v10.Routes
+import com.github.mvysny.vaadinsimplesecurity.await
 import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordCheckResult
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHasher
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashers
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashingOverloadedException
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashingService
+import com.github.mvysny.vaadinsimplesecurity.util.Pbkdf2PasswordHasher
+import com.vaadin.flow.internal.CurrentInstance
+import com.vaadin.flow.server.VaadinRequest
+import com.vaadin.flow.server.VaadinSession
 import org.junit.jupiter.api.*
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.Serializable
+import java.time.Duration
+import java.util.concurrent.ExecutionException
 import javax.security.auth.login.FailedLoginException
+import javax.security.auth.login.LoginException
+import kotlin.concurrent.thread
 import kotlin.test.expect
 
+/**
+ * The logged-in [InMemoryLoginService] in the default Java serialized form, field by field, as it used to be
+ * stored in the session before the compact serialized forms.
+ */
+class DefaultFormLoginService(val mainRoutePath: String, val currentUser: DefaultFormUser?, val userKey: Serializable?, val currentUserWithRoles: DefaultFormPrincipal?) : Serializable
+class DefaultFormUser(val hashedPassword: String?, val username: String, val roles: HashSet<String>) : Serializable
+class DefaultFormPrincipal(val username: String, val roles: Array<String>) : Serializable
+
 class InMemoryLoginServiceTest {
     companion object {
         private lateinit var routes: Routes
@@ -55,6 +82,64 @@ class InMemoryLoginServiceTest {
             expect(setOf()) { InMemoryLoginService.get().currentUserRoles }
             expect(null) { InMemoryLoginService.get().currentPrincipal }
         }
+        @Test fun `upgrades an outdated hash`() {
+            val legacy = InMemoryUser.withHashedPassword("legacy", Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA1, 1000).createHash("legacy".toCharArray()), setOf("user"))
+            InMemoryUserRegistry.get().registerUser(legacy)
+            try {
+                InMemoryLoginService.get().login("legacy", "legacy")
+                val rehashed = InMemoryUserRegistry.get().findByUsername("legacy")!!
+                expect(PasswordCheckResult.MATCH) { rehashed.checkPassword("legacy") }
+                expect(true) { rehashed !== legacy }
+                expect(true) { InMemoryLoginService.get().currentUser === rehashed }
+                // the registered user itself is never modified
+                expect(PasswordCheckResult.MATCH_NEEDS_REHASH) { legacy.checkPassword("legacy") }
+            } finally {
+                InMemoryUserRegistry.get().unregisterUser("legacy")
+            }
+        }
+        @Test fun `logs in even if the hash can't be upgraded`() {
+            val legacy = InMemoryUser.withHashedPassword("legacy", Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA1, 1000).createHash("legacy".toCharArray()), setOf("user"))
+            InMemoryUserRegistry.get().registerUser(legacy)
+            val previous = PasswordHashers.getDefault()
+            // simulates the password hashing being saturated right after the password has been verified
+            PasswordHashers.setDefault(object : PasswordHasher {
+                override fun getId() = "overloaded"
+                override fun canVerify(hash: String) = false
+                override fun createHash(password: CharArray): String = throw PasswordHashingOverloadedException("Too many login attempts, please try again later")
+                override fun verify(password: CharArray, hash: String) = false
+                override fun needsRehash(hash: String) = false
+            })
+            try {
+                InMemoryLoginService.get().login("legacy", "legacy")
+                expect(true) { InMemoryLoginService.get().currentUser === legacy }
+                expect(true) { InMemoryUserRegistry.get().findByUsername("legacy") === legacy }
+            } finally {
+                PasswordHashers.setDefault(previous)
+                InMemoryUserRegistry.get().unregisterUser("legacy")
+            }
+        }
+        @Test fun `fails with LoginException when overloaded`() {
+            val previous = PasswordHashingService.get()
+            val service = PasswordHashingService(1, 0, Duration.ofSeconds(1))
+            PasswordHashingService.set(service)
+            try {
+                // a hash with 2M iterations keeps the only slot busy for a couple of seconds
+                val slowHash = "2000000:0011223344556677:" + "00".repeat(32)
+                val occupant = thread { service.validatePassword("foo", slowHash) }
+                while (service.activeCount == 0) {
+                    Thread.onSpinWait()
+                }
+                val ex = assertThrows<LoginException> {
+                    InMemoryLoginService.get().login("admin", "admin")
+                }
+                expect("Too many login attempts, please try again later") { ex.message }
+                expect(true) { ex.cause is PasswordHashingOverloadedException }
+                expect(false) { InMemoryLoginService.get().isLoggedIn }
+                occupant.join()
+            } finally {
+                PasswordHashingService.set(previous)
+            }
+        }
         @Test fun succeeds() {
             InMemoryLoginService.get().login("admin", "admin")
             expect("admin") { InMemoryLoginService.get().currentUser?.username }
@@ -62,4 +147,69 @@ class InMemoryLoginServiceTest {
             expect("admin") { InMemoryLoginService.get().currentPrincipal?.username }
         }
     }
+    @Nested inner class loginAsync {
+        @Test fun succeeds() {
+            InMemoryLoginService.get().loginAsync("admin", "admin").await()
+            expect("admin") { InMemoryLoginService.get().currentUser?.username }
+            expect(setOf("admin")) { InMemoryLoginService.get().currentUserRoles }
+        }
+        @Test fun `rejects incorrect password`() {
+            val ex = assertThrows<ExecutionException> {
+                InMemoryLoginService.get().loginAsync("admin", "admin22").await()
+            }
+            expect(true) { ex.cause is FailedLoginException }
+            expect(false) { InMemoryLoginService.get().isLoggedIn }
+        }
+        @Test fun `changes the session ID right away`() {
+            val sessionId = VaadinSession.getCurrent().session.id
+            val login = InMemoryLoginService.get().loginAsync("admin", "admin")
+            expect(false) { sessionId == VaadinSession.getCurrent().session.id }
+            login.await()
+        }
+        @Test fun `fails outside of a servlet request`() {
+            val request = VaadinRequest.getCurrent()
+            CurrentInstance.set(VaadinRequest::class.java, null)
+            try {
+                expectThrows<IllegalStateException>("Not called from a servlet request: the session ID can't be changed") {
+                    InMemoryLoginService.get().loginAsync("admin", "admin")
+                }
+            } finally {
+                CurrentInstance.set(VaadinRequest::class.java, request)
+            }
+        }
+    }
+    @Nested inner class serialization {
+        private fun serialize(o: Any): ByteArray {
+            val bytes = ByteArrayOutputStream()
+            ObjectOutputStream(bytes).use { it.writeObject(o) }
+            return bytes.toByteArray()
+        }
+
+        @Test fun `logged-in session is smaller than with the default serialization`() {
+            InMemoryLoginService.get().login("admin", "admin")
+            val service = InMemoryLoginService.get()
+            val user = service.currentUser!!
+            val before = serialize(DefaultFormLoginService("", DefaultFormUser(user.hashedPassword, user.username, HashSet(user.roles)),
+                null, DefaultFormPrincipal(user.username, user.roles.toTypedArray()))).size
+            val after = serialize(service).size
+            expect(true, "serialized bytes per logged-in session: $before before, $after after") { after < before }
+        }
+
+        @Test fun roundtrip() {
+            InMemoryLoginService.get().login("admin", "admin")
+            val service = InMemoryLoginService.get()
+            val clone = ObjectInputStream(ByteArrayInputStream(serialize(service))).use { it.readObject() } as InMemoryLoginService
+            expect(true) { clone.isLoggedIn }
+            expect("admin") { clone.currentUser!!.username }
+            expect(service.currentUser!!.hashedPassword) { clone.currentUser!!.hashedPassword }
+            expect(setOf("admin")) { clone.currentUser!!.roles }
+            expect(true) { clone.currentPrincipal!!.roleSet === service.currentPrincipal!!.roleSet }
+        }
+
+        @Test fun `logged out`() {
+            val clone = ObjectInputStream(ByteArrayInputStream(serialize(InMemoryLoginService.get()))).use { it.readObject() } as InMemoryLoginService
+            expect(false) { clone.isLoggedIn }
+            expect(null) { clone.currentUser }
+        }
+    }
 }
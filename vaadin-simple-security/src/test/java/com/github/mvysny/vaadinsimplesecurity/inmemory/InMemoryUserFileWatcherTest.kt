@@ -0,0 +1,69 @@
+package com.github.mvysny.vaadinsimplesecurity.inmemory
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.expect
+
+class InMemoryUserFileWatcherTest {
+    @TempDir lateinit var dir: Path
+    @BeforeEach @AfterEach fun clearUserRegistry() { InMemoryUserRegistry.get().clear() }
+
+    private val registry: InMemoryUserRegistry get() = InMemoryUserRegistry.get()
+    private val file: Path get() = dir.resolve("accounts.csv")
+
+    @Test fun `reload applies only the differences`() {
+        registry.registerUser(InMemoryUser("other", null, setOf()))
+        Files.writeString(file, "username,password,roles\nadmin,admin,ROLE_ADMIN\nsvc,secret,ROLE_SVC\nold,old,\n")
+        val watcher = InMemoryUserFileWatcher(file)
+        expect(InMemoryUserFileWatcher.Changes(3, 0, 0, 0)) { watcher.reload() }
+        val admin = registry.findByUsername("admin")!!
+        val svc = registry.findByUsername("svc")!!
+
+        expect(InMemoryUserFileWatcher.Changes(0, 0, 0, 3)) { watcher.reload() }
+        expect(true) { registry.findByUsername("admin") === admin }
+
+        Files.writeString(file, "username,password,roles\nadmin,admin,ROLE_ADMIN;ROLE_USER\nsvc,secret2,ROLE_SVC\nnew,new,\n")
+        expect(InMemoryUserFileWatcher.Changes(1, 2, 1, 0)) { watcher.reload() }
+        // the unchanged password is not hashed again
+        expect(admin.hashedPassword) { registry.findByUsername("admin")!!.hashedPassword }
+        expect(setOf("ROLE_ADMIN", "ROLE_USER")) { registry.findByUsername("admin")!!.roles }
+        expect(false) { svc.hashedPassword == registry.findByUsername("svc")!!.hashedPassword }
+        expect(true) { registry.findByUsername("svc")!!.passwordMatches("secret2") }
+        // users not loaded by the watcher are left alone
+        expect(setOf("other", "admin", "svc", "new")) { registry.users.map { it.username }.toSet() }
+    }
+
+    @Test fun `malformed file leaves the registry intact`() {
+        Files.writeString(file, "username,roles\nadmin,ROLE_ADMIN\n")
+        val watcher = InMemoryUserFileWatcher(file)
+        watcher.reload()
+        Files.writeString(file, "username,roles\nadmin\n")
+        expectThrows<IOException>("Line 2: expected 2 values but got 1") { watcher.reload() }
+        expect(setOf("ROLE_ADMIN")) { registry.findByUsername("admin")!!.roles }
+    }
+
+    @Test fun `picks up file changes`() {
+        Files.writeString(file, "username,roles\nadmin,ROLE_ADMIN\n")
+        InMemoryUserFileWatcher(file).start().use {
+            expect(1) { registry.size() }
+            Files.writeString(file, "username,roles\nadmin,ROLE_ADMIN\nuser,ROLE_USER\n")
+            val deadline = System.currentTimeMillis() + 30_000
+            while (registry.findByUsername("user") == null) {
+                check(System.currentTimeMillis() < deadline) { "Timed out waiting for the reload" }
+                Thread.sleep(10)
+            }
+        }
+    }
+
+    @Test fun json() {
+        val file = dir.resolve("accounts.json")
+        Files.writeString(file, """[{"username": "admin", "roles": ["ROLE_ADMIN"]}]""")
+        expect(InMemoryUserFileWatcher.Changes(1, 0, 0, 0)) { InMemoryUserFileWatcher(file).reload() }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.mvysny.vaadinsimplesecurity.inmemory
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import com.github.mvysny.vaadinsimplesecurity.util.PasswordHashingService
+import com.github.mvysny.vaadinsimplesecurity.util.ScryptPasswordHasher
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Nested
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.concurrent.thread
+import kotlin.test.expect
+
+class InMemoryUserImporterTest {
+    @BeforeEach @AfterEach fun clearUserRegistry() { InMemoryUserRegistry.get().clear() }
+
+    private val scryptHash = ScryptPasswordHasher(10, 8, 1).createHash("secret".toCharArray())
+
+    @Nested inner class csv {
+        @Test fun smoke() {
+            val csv = """
+                username,password,hashedPassword,roles
+                admin,admin,,ROLE_ADMIN;ROLE_USER
+                "sales,eu",,"$scryptHash",ROLE_USER
+                sso,,,
+            """.trimIndent()
+            val progress = CopyOnWriteArrayList<Int>()
+            expect(3) { InMemoryUserImporter().setProgressListener { processed, _ -> progress.add(processed) }.importCsv(csv.byteInputStream()) }
+            expect(listOf(1, 2, 3)) { progress.sorted() }
+            val admin = InMemoryUserRegistry.get().findByUsername("admin")!!
+            expect(setOf("ROLE_ADMIN", "ROLE_USER")) { admin.roles }
+            expect(true) { admin.passwordMatches("admin") }
+            val sales = InMemoryUserRegistry.get().findByUsername("sales,eu")!!
+            expect(scryptHash) { sales.hashedPassword }
+            expect(true) { sales.passwordMatches("secret") }
+            expect(null) { InMemoryUserRegistry.get().findByUsername("sso")!!.hashedPassword }
+        }
+
+        @Test fun `doesn't use the login hashing slots`() {
+            val previous = PasswordHashingService.get()
+            val service = PasswordHashingService(1, 0, Duration.ofSeconds(1))
+            PasswordHashingService.set(service)
+            try {
+                // a hash with 2M iterations keeps the only slot busy for a couple of seconds
+                val slowHash = "2000000:0011223344556677:" + "00".repeat(32)
+                val occupant = thread { service.validatePassword("foo", slowHash) }
+                while (service.activeCount == 0) {
+                    Thread.onSpinWait()
+                }
+                expect(2) { InMemoryUserImporter().importCsv("username,password\nadmin,admin\nuser,user\n".byteInputStream()) }
+                expect(0L) { service.rejectedCount }
+                occupant.join()
+            } finally {
+                PasswordHashingService.set(previous)
+            }
+            expect(true) { InMemoryUserRegistry.get().findByUsername("user")!!.passwordMatches("user") }
+        }
+
+        @Test fun `malformed input registers nobody`() {
+            expectThrows<IOException>("Line 3: expected 2 values but got 1") {
+                InMemoryUserImporter().importCsv("username,roles\nadmin,ROLE_ADMIN\nuser\n".byteInputStream())
+            }
+            expect(0) { InMemoryUserRegistry.get().size() }
+            expectThrows<IOException>("Line 1: unknown column 'pwd'") {
+                InMemoryUserImporter().importCsv("username,pwd\n".byteInputStream())
+            }
+        }
+    }
+
+    @Nested inner class json {
+        @Test fun smoke() {
+            val json = """[
+                {"username": "admin", "password": "admin", "roles": ["ROLE_ADMIN", "ROLE_USER"]},
+                {"username": "salés", "hashedPassword": "$scryptHash", "roles": []},
+                {"username": "sso", "password": null}
+            ]"""
+            expect(3) { InMemoryUserImporter().importJson(json.byteInputStream()) }
+            expect(true) { InMemoryUserRegistry.get().findByUsername("admin")!!.passwordMatches("admin") }
+            expect(true) { InMemoryUserRegistry.get().findByUsername("salés")!!.passwordMatches("secret") }
+            expect(null) { InMemoryUserRegistry.get().findByUsername("sso")!!.hashedPassword }
+        }
+
+        @Test fun `both password and hash`() {
+            expectThrows<IOException>("User admin: both password and hashedPassword are present") {
+                InMemoryUserImporter().importJson("""[{"username": "admin", "password": "admin", "hashedPassword": "$scryptHash"}]""".byteInputStream())
+            }
+        }
+
+        @Test fun `duplicate usernames register nobody`() {
+            expectThrows<IllegalArgumentException>("Parameter user: invalid value InMemoryUser{'a', roles=[]}: username clashes with already registered InMemoryUser{'a', roles=[]}") {
+                InMemoryUserImporter().importJson("""[{"username": "a"}, {"username": "b"}, {"username": "a"}]""".byteInputStream())
+            }
+            expect(0) { InMemoryUserRegistry.get().size() }
+        }
+    }
+}
@@ -1,14 +1,107 @@
 package com.github.mvysny.vaadinsimplesecurity.inmemory
 
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Nested
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
 import kotlin.test.expect
 
 class InMemoryUserRegistryTest {
-    @BeforeEach @AfterEach fun clearUserRegistry() { InMemoryUserRegistry.get().clear() }
+    @BeforeEach @AfterEach fun clearUserRegistry() {
+        InMemoryUserRegistry.get().clear()
+        InMemoryUserRegistry.get().usernameNormalizer = UsernameNormalizer.EXACT
+    }
     @Test fun smoke() {
         InMemoryUserRegistry.get().registerUser(InMemoryUser("foo", "bar", setOf()))
         expect("foo") { InMemoryUserRegistry.get().findByUsername("foo")?.username }
+        expect(null) { InMemoryUserRegistry.get().findByUsername("Foo") }
+    }
+
+    @Test fun `duplicate username fails`() {
+        InMemoryUserRegistry.get().registerUser(InMemoryUser("foo", null, setOf()))
+        expectThrows<IllegalArgumentException>("Parameter user: invalid value InMemoryUser{'foo', roles=[admin]}: username clashes with already registered InMemoryUser{'foo', roles=[]}") {
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("foo", null, setOf("admin")))
+        }
+        expect(setOf()) { InMemoryUserRegistry.get().findByUsername("foo")!!.roles }
+    }
+
+    @Test fun `bulk registration is all or nothing`() {
+        InMemoryUserRegistry.get().registerUsers((0 until 1000).map { InMemoryUser("user$it", null, setOf()) })
+        expect(1000) { InMemoryUserRegistry.get().size() }
+        expectThrows<IllegalArgumentException>("Parameter user: invalid value InMemoryUser{'bar', roles=[]}: username clashes with already registered InMemoryUser{'bar', roles=[]}") {
+            InMemoryUserRegistry.get().registerUsers(listOf(InMemoryUser("bar", null, setOf()), InMemoryUser("bar", null, setOf())))
+        }
+        expect(null) { InMemoryUserRegistry.get().findByUsername("bar") }
+        expect(1000) { InMemoryUserRegistry.get().size() }
+    }
+
+    @Test fun `replace and unregister`() {
+        InMemoryUserRegistry.get().registerUser(InMemoryUser("foo", null, setOf()))
+        expect("foo") { InMemoryUserRegistry.get().replaceUser(InMemoryUser("foo", null, setOf("admin"))).username }
+        expect(setOf("admin")) { InMemoryUserRegistry.get().findByUsername("foo")!!.roles }
+        expectThrows<IllegalArgumentException>("Parameter user: invalid value InMemoryUser{'bar', roles=[]}: no such user registered") {
+            InMemoryUserRegistry.get().replaceUser(InMemoryUser("bar", null, setOf()))
+        }
+        expect(setOf("admin")) { InMemoryUserRegistry.get().unregisterUser("foo")!!.roles }
+        expect(null) { InMemoryUserRegistry.get().findByUsername("foo") }
+        expect(null) { InMemoryUserRegistry.get().unregisterUser("foo") }
+    }
+
+    @Test fun `conditional replace`() {
+        val foo = InMemoryUser("foo", null, setOf())
+        InMemoryUserRegistry.get().registerUser(foo)
+        val admin = InMemoryUser("foo", null, setOf("admin"))
+        expect(true) { InMemoryUserRegistry.get().replaceUser(foo, admin) }
+        // foo is stale now, even though it equals admin
+        expect(false) { InMemoryUserRegistry.get().replaceUser(foo, InMemoryUser("foo", null, setOf("user"))) }
+        expect(setOf("admin")) { InMemoryUserRegistry.get().findByUsername("foo")!!.roles }
+        expect(false) { InMemoryUserRegistry.get().replaceUser(foo, InMemoryUser("bar", null, setOf())) }
+    }
+
+    @Test fun update() {
+        InMemoryUserRegistry.get().registerUsers(listOf(InMemoryUser("foo", null, setOf()), InMemoryUser("bar", null, setOf())))
+        InMemoryUserRegistry.get().update(listOf(InMemoryUser("foo", null, setOf("admin")), InMemoryUser("baz", null, setOf())), listOf("bar", "nonexisting"))
+        expect(setOf("foo", "baz")) { InMemoryUserRegistry.get().users.map { it.username }.toSet() }
+        expect(setOf("admin")) { InMemoryUserRegistry.get().findByUsername("foo")!!.roles }
+        expectThrows<IllegalArgumentException>("Parameter user: invalid value InMemoryUser{'foo', roles=[]}: username clashes with already registered InMemoryUser{'foo', roles=[]}") {
+            InMemoryUserRegistry.get().update(listOf(InMemoryUser("foo", null, setOf()), InMemoryUser("foo", null, setOf())), listOf("baz"))
+        }
+        expect(setOf("foo", "baz")) { InMemoryUserRegistry.get().users.map { it.username }.toSet() }
+    }
+
+    @Nested inner class usernameNormalizer {
+        @Test fun `case insensitive`() {
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("Straße", null, setOf()))
+            InMemoryUserRegistry.get().usernameNormalizer = UsernameNormalizer.CASE_INSENSITIVE
+            expect("Straße") { InMemoryUserRegistry.get().findByUsername("STRASSE")?.username }
+            expect("Straße") { InMemoryUserRegistry.get().findByUsername("straße")?.username }
+            expectThrows<IllegalArgumentException>("Parameter user: invalid value InMemoryUser{'strasse', roles=[]}: username clashes with already registered InMemoryUser{'Straße', roles=[]}") {
+                InMemoryUserRegistry.get().registerUser(InMemoryUser("strasse", null, setOf()))
+            }
+        }
+
+        @Test fun nfkc() {
+            InMemoryUserRegistry.get().usernameNormalizer = UsernameNormalizer.NFKC_CASE_INSENSITIVE
+            // precomposed 'é'
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("Ren\u00e9", null, setOf()))
+            // 'e' + combining acute accent
+            expect("Ren\u00e9") { InMemoryUserRegistry.get().findByUsername("rene\u0301")?.username }
+            // full-width letters
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("ren", null, setOf()))
+            expect("ren") { InMemoryUserRegistry.get().findByUsername("\uff32\uff25\uff2e")?.username }
+        }
+
+        @Test fun `clashing users prevent the change`() {
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("foo", null, setOf()))
+            InMemoryUserRegistry.get().registerUser(InMemoryUser("FOO", null, setOf()))
+            val ex = assertThrows<IllegalArgumentException> {
+                InMemoryUserRegistry.get().usernameNormalizer = UsernameNormalizer.CASE_INSENSITIVE
+            }
+            expect(true, ex.message) { ex.message!!.contains("username clashes with already registered") }
+            expect(UsernameNormalizer.EXACT) { InMemoryUserRegistry.get().usernameNormalizer }
+            expect(2) { InMemoryUserRegistry.get().size() }
+        }
     }
 }
@@ -0,0 +1,54 @@
+package com.github.mvysny.vaadinsimplesecurity.roles
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import org.junit.jupiter.api.Test
+import kotlin.test.expect
+
+class RoleExpressionTest {
+    @Test fun evaluation() {
+        val expression = RoleExpression.parse("ADMIN or (AUDITOR and not CONTRACTOR)")
+        expect(true) { expression.test(RoleSet.of("ADMIN")) }
+        expect(true) { expression.test(RoleSet.of("ADMIN", "CONTRACTOR")) }
+        expect(true) { expression.test(RoleSet.of("AUDITOR")) }
+        expect(false) { expression.test(RoleSet.of("AUDITOR", "CONTRACTOR")) }
+        expect(false) { expression.test(RoleSet.EMPTY) }
+    }
+
+    @Test fun `operator precedence`() {
+        val expression = RoleExpression.parse("a && b && !c || d OR e")
+        expect(true) { expression.test(RoleSet.of("a", "b")) }
+        expect(false) { expression.test(RoleSet.of("a", "b", "c")) }
+        expect(false) { expression.test(RoleSet.of("a")) }
+        expect(true) { expression.test(RoleSet.of("e")) }
+        expect(true) { RoleExpression.parse("not not (x or y) and z").test(RoleSet.of("y", "z")) }
+        expect(false) { RoleExpression.parse("not not (x or y) and z").test(RoleSet.of("y")) }
+    }
+
+    @Test fun `roles containing keywords`() {
+        val expression = RoleExpression.parse("orders and not notes")
+        expect(true) { expression.test(RoleSet.of("orders")) }
+        expect(false) { expression.test(RoleSet.of("orders", "notes")) }
+    }
+
+    @Test fun cached() {
+        expect(true) { RoleExpression.parse("a or b") === RoleExpression.parse("a or b") }
+    }
+
+    @Test fun `malformed expression`() {
+        expectThrows<IllegalArgumentException>("Parameter expression: invalid value '': expected a role at position 0") {
+            RoleExpression.parse("")
+        }
+        expectThrows<IllegalArgumentException>("Parameter expression: invalid value 'a and': expected a role at position 5") {
+            RoleExpression.parse("a and")
+        }
+        expectThrows<IllegalArgumentException>("Parameter expression: invalid value '(a': expected ')' at position 2") {
+            RoleExpression.parse("(a")
+        }
+        expectThrows<IllegalArgumentException>("Parameter expression: invalid value 'a b': unexpected 'b' at position 2") {
+            RoleExpression.parse("a b")
+        }
+        expectThrows<IllegalArgumentException>("Parameter expression: invalid value 'a & b': unexpected '&' at position 2") {
+            RoleExpression.parse("a & b")
+        }
+    }
+}
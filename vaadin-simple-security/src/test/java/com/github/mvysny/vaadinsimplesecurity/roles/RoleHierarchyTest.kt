@@ -0,0 +1,59 @@
+package com.github.mvysny.vaadinsimplesecurity.roles
+
+import com.github.mvysny.vaadinsimplesecurity.SimpleUserWithRoles
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import kotlin.test.expect
+
+class RoleHierarchyTest {
+    @AfterEach fun resetGlobal() { RoleHierarchy.setGlobal(RoleHierarchy.NONE) }
+
+    @Test fun `transitive closure`() {
+        val hierarchy = RoleHierarchy.parse("""
+            ROLE_ADMIN > ROLE_USER > ROLE_GUEST
+            ROLE_ADMIN > ROLE_AUDITOR
+        """)
+        expect(setOf("ROLE_ADMIN", "ROLE_USER", "ROLE_GUEST", "ROLE_AUDITOR")) { hierarchy.getImpliedRoles("ROLE_ADMIN") }
+        expect(setOf("ROLE_USER", "ROLE_GUEST")) { hierarchy.getImpliedRoles("ROLE_USER") }
+        expect(setOf("ROLE_GUEST")) { hierarchy.getImpliedRoles("ROLE_GUEST") }
+        expect(true) { hierarchy.implies("ROLE_ADMIN", "ROLE_GUEST") }
+        expect(false) { hierarchy.implies("ROLE_GUEST", "ROLE_USER") }
+        expect(setOf("ROLE_USER", "ROLE_GUEST", "ROLE_SALES")) { hierarchy.expand(RoleSet.of("ROLE_USER", "ROLE_SALES")) }
+        expect(true) { hierarchy.expand(RoleSet.of("ROLE_USER")) === hierarchy.expand(RoleSet.of("ROLE_USER")) }
+    }
+
+    @Test fun cycles() {
+        val hierarchy = RoleHierarchy.builder().implies("a", "b").implies("b", "c").implies("c", "a").build()
+        expect(setOf("a", "b", "c")) { hierarchy.getImpliedRoles("b") }
+    }
+
+    @Test fun none() {
+        val roles = RoleSet.of("ROLE_ADMIN")
+        expect(true) { RoleHierarchy.NONE.expand(roles) === roles }
+    }
+
+    @Test fun `malformed definition`() {
+        expectThrows<IllegalArgumentException>("Parameter definition: invalid value 'ROLE_ADMIN >': expected ROLE_A > ROLE_B") {
+            RoleHierarchy.parse("ROLE_ADMIN >")
+        }
+    }
+
+    @Test fun `replacing the hierarchy invalidates the cached expansions`() {
+        val roles = RoleSet.of("ROLE_ADMIN")
+        val first = RoleHierarchy.parse("ROLE_ADMIN > ROLE_USER")
+        val second = RoleHierarchy.parse("ROLE_ADMIN > ROLE_AUDITOR")
+        expect(setOf("ROLE_ADMIN", "ROLE_USER")) { first.expand(roles) }
+        expect(setOf("ROLE_ADMIN", "ROLE_AUDITOR")) { second.expand(roles) }
+        expect(setOf("ROLE_ADMIN", "ROLE_USER")) { first.expand(roles) }
+    }
+
+    @Test fun `SimpleUserWithRoles uses the global hierarchy`() {
+        val user = SimpleUserWithRoles("admin", setOf("ROLE_ADMIN"))
+        expect(false) { user.hasRole("ROLE_USER") }
+        RoleHierarchy.setGlobal(RoleHierarchy.parse("ROLE_ADMIN > ROLE_USER"))
+        expect(true) { user.hasRole("ROLE_USER") }
+        expect(setOf("ROLE_ADMIN")) { user.roles }
+        expect(setOf("ROLE_ADMIN", "ROLE_USER")) { user.effectiveRoles }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.mvysny.vaadinsimplesecurity.roles
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import kotlin.test.expect
+
+class RoleSetTest {
+    @Test fun smoke() {
+        val roles = RoleSet.of("ROLE_ADMIN", "ROLE_USER", "ROLE_ADMIN")
+        expect(2) { roles.size }
+        expect(true) { roles.contains("ROLE_ADMIN") }
+        expect(true) { roles.contains(RoleDictionary.get().find("ROLE_USER")) }
+        expect(false) { roles.contains("ROLE_NONEXISTING") }
+        expect(-1) { RoleDictionary.get().find("ROLE_NONEXISTING") }
+        expect(setOf("ROLE_ADMIN", "ROLE_USER")) { roles }
+        expect(roles) { setOf("ROLE_ADMIN", "ROLE_USER") }
+        expect(setOf("ROLE_ADMIN", "ROLE_USER").hashCode()) { roles.hashCode() }
+        assertThrows<UnsupportedOperationException> { (roles as MutableSet<String>).add("ROLE_SALES") }
+    }
+
+    @Test fun canonical() {
+        expect(true) { RoleSet.of("a", "b") === RoleSet.of(listOf("b", "a")) }
+        expect(true) { RoleSet.of() === RoleSet.EMPTY }
+        expect(true) { RoleSet.of(setOf()) === RoleSet.EMPTY }
+        expect(0) { RoleSet.EMPTY.size }
+    }
+
+    @Test fun `many roles`() {
+        val names = (0 until 200).map { "many$it" }
+        val roles = RoleSet.of(names)
+        expect(200) { roles.size }
+        expect(names.toSet()) { roles }
+        expect(true) { roles.contains("many199") }
+        expect(false) { RoleSet.of(names.take(100)).contains("many199") }
+        expect(listOf("many199")) { RoleSet.of("many199").toList() }
+    }
+
+    @Test fun `full dictionary`() {
+        val dictionary = RoleDictionary(1)
+        expect(0) { dictionary.tryIntern("a") }
+        expect(-1) { dictionary.tryIntern("b") }
+        expect(0) { dictionary.tryIntern("a") }
+        expect(1) { dictionary.size() }
+        expectThrows<IllegalStateException>("Too many distinct roles: 1, can't add b") { dictionary.intern("b") }
+    }
+
+    @Test fun `roles which didn't fit into the dictionary`() {
+        val admin = RoleSet.of("ROLE_ADMIN")
+        // as if the dictionary was full when the tenant roles were seen
+        val roles = RoleSet.of(LongArray(0), setOf("tenant-1", "tenant-2")).union(admin)
+        expect(3) { roles.size }
+        expect(setOf("ROLE_ADMIN", "tenant-1", "tenant-2")) { roles }
+        expect(setOf("ROLE_ADMIN", "tenant-1", "tenant-2").hashCode()) { roles.hashCode() }
+        expect(true) { roles.contains("tenant-1") }
+        expect(false) { roles.contains("tenant-3") }
+        expect(true) { roles.containsAll(admin) }
+        expect(false) { admin.containsAll(roles) }
+        expect(true) { roles.intersects(RoleSet.of(LongArray(0), setOf("tenant-2"))) }
+        expect(setOf("ROLE_ADMIN", "ROLE_USER", "tenant-1", "tenant-2")) { roles.union(RoleSet.of("ROLE_USER")) }
+        expect(setOf("ROLE_ADMIN", "ROLE_USER", "tenant-1", "tenant-2")) { RoleHierarchy.parse("ROLE_ADMIN > ROLE_USER").expand(roles) }
+    }
+
+    @Test fun serialization() {
+        val roles = RoleSet.of("ROLE_ADMIN", "ROLE_USER")
+        val bout = ByteArrayOutputStream()
+        ObjectOutputStream(bout).use { it.writeObject(roles) }
+        val clone = ObjectInputStream(ByteArrayInputStream(bout.toByteArray())).use { it.readObject() }
+        expect(true) { clone === roles }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.mvysny.vaadinsimplesecurity.util
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import org.junit.jupiter.api.Nested
+import org.junit.jupiter.api.Test
+import java.util.Base64
+import java.util.HexFormat
+import kotlin.random.Random
+import kotlin.test.expect
+
+class HashCodecTest {
+    @Nested inner class hex {
+        @Test fun roundtrip() {
+            val random = Random(1)
+            repeat(100) {
+                val bytes = random.nextBytes(random.nextInt(40))
+                val hex = HexFormat.of().formatHex(bytes)
+                expect(hex) { HashCodec.toHex(bytes) }
+                expect(bytes.toList()) { HashCodec.fromHex("x${hex.uppercase()}x", 1, hex.length + 1).toList() }
+            }
+        }
+
+        @Test fun `invalid hex`() {
+            expectThrows<IllegalArgumentException>("Parameter hex: invalid value: not a hex digit: g") { HashCodec.fromHex("0g", 0, 2) }
+            expectThrows<IllegalArgumentException>("Parameter hex: invalid value: odd number of hex digits") { HashCodec.fromHex("012", 0, 3) }
+        }
+    }
+
+    @Nested inner class base64 {
+        @Test fun roundtrip() {
+            val random = Random(1)
+            repeat(100) {
+                val bytes = random.nextBytes(random.nextInt(40))
+                val base64 = Base64.getEncoder().withoutPadding().encodeToString(bytes)
+                expect(base64) { HashCodec.toBase64(bytes) }
+                expect(bytes.toList()) { HashCodec.fromBase64("$$base64$", 1, base64.length + 1).toList() }
+                val padded = Base64.getEncoder().encodeToString(bytes)
+                expect(bytes.toList()) { HashCodec.fromBase64(padded, 0, padded.length).toList() }
+            }
+        }
+
+        @Test fun `invalid base64`() {
+            expectThrows<IllegalArgumentException>("Parameter base64: invalid value: not a Base64 digit: -") { HashCodec.fromBase64("ab-d", 0, 4) }
+            expectThrows<IllegalArgumentException>("Parameter base64: invalid value: truncated Base64") { HashCodec.fromBase64("abcde", 0, 5) }
+        }
+    }
+
+    @Nested inner class toCompact {
+        private val legacy = "185000:3072b99c26b395bf:f66df51b1ba1528beaa50384631243681e439d3feb6b8f728775e45066d0de7f"
+
+        @Test fun `converts legacy hash`() {
+            val compact = HashCodec.toCompact(legacy)
+            expect("\$pbkdf2-sha1\$i=185000\$MHK5nCazlb8\$9m31GxuhUovqpQOEYxJDaB5DnT/ra49yh3XkUGbQ3n8") { compact }
+            expect(true) { PasswordHash.validatePassword("foo", compact) }
+            expect(false) { PasswordHash.validatePassword("bar", compact) }
+        }
+
+        @Test fun `keeps PHC hashes`() {
+            val hash = PasswordHash.createHash("foo")
+            expect(hash) { HashCodec.toCompact(hash) }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.github.mvysny.vaadinsimplesecurity.util
 
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
+import java.time.Duration
 import kotlin.test.expect
 
 class PasswordHashTest {
@@ -44,4 +45,37 @@ class PasswordHashTest {
             expect(true) { PasswordHash.validatePassword(password, hash) }
         }
     }
+
+    @Test fun `new hashes use PBKDF2 with SHA-256`() {
+        val hash = PasswordHash.createHash("foo")
+        expect(true, hash) { hash.startsWith("\$pbkdf2-sha256\$i=${PasswordHash.PBKDF2_ITERATIONS}\$") }
+    }
+
+    @Test fun `legacy hashes still verify`() {
+        val hash = PasswordHash.createLegacyHash("foo".toCharArray(), "salt1".toByteArray())
+        expect(true, hash) { hash.startsWith("${PasswordHash.PBKDF2_ITERATIONS}:") }
+        expect(true) { PasswordHash.validatePassword("foo", hash) }
+        expect(false) { PasswordHash.validatePassword("bar", hash) }
+        // PBKDF2-SHA1 hash produced by vaadin-simple-security 1.x
+        expect(true) { PasswordHash.validatePassword("foo", "185000:3072b99c26b395bf:f66df51b1ba1528beaa50384631243681e439d3feb6b8f728775e45066d0de7f") }
+    }
+
+    @Test fun calibrateIterations() {
+        val original = PasswordHash.PBKDF2_ITERATIONS
+        try {
+            // 1ms is way below the security floor on any hardware
+            expect(PasswordHash.MIN_PBKDF2_ITERATIONS) { PasswordHash.calibrateIterations(Duration.ofMillis(1)) }
+            expect(PasswordHash.MIN_PBKDF2_ITERATIONS) { PasswordHash.PBKDF2_ITERATIONS }
+
+            val iterations = PasswordHash.calibrateIterations(Duration.ofMillis(20), 1000)
+            expect(true, "$iterations") { iterations >= 1000 }
+            expect(iterations) { PasswordHash.PBKDF2_ITERATIONS }
+            val hash = PasswordHash.createHash("foo")
+            expect(true, hash) { hash.startsWith("\$pbkdf2-sha256\$i=$iterations\$") }
+        } finally {
+            PasswordHash.PBKDF2_ITERATIONS = original
+        }
+        // hashes record their iteration count: the calibrated hashes keep working
+        expect(true) { PasswordHash.validatePassword("foo", PasswordHash.createHash("foo")) }
+    }
 }
@@ -0,0 +1,60 @@
+package com.github.mvysny.vaadinsimplesecurity.util
+
+import org.junit.jupiter.api.Test
+import java.util.HexFormat
+import kotlin.test.expect
+
+class PasswordHashersTest {
+    @Test fun `picks hasher from the stored hash`() {
+        expect("pbkdf2-sha256") { PasswordHashers.forHash(PasswordHash.createHash("foo")).id }
+        expect("pbkdf2-sha1") { PasswordHashers.forHash(PasswordHash.createLegacyHash("foo".toCharArray(), "salt".toByteArray())).id }
+        for (hasher in listOf(
+            Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA1, 1000),
+            Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA256, 1000),
+            Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA512, 1000),
+            ScryptPasswordHasher(10, 8, 1),
+        )) {
+            val hash = hasher.createHash("foo".toCharArray())
+            expect(true, hash) { hash.startsWith("$" + hasher.id + "$") }
+            expect(hasher.id) { PasswordHashers.forHash(hash).id }
+            expect(true) { hasher.verify("foo".toCharArray(), hash) }
+            expect(false) { hasher.verify("bar".toCharArray(), hash) }
+        }
+    }
+
+    @Test fun `legacy hashes still verify`() {
+        val hash = PasswordHash.createLegacyHash("foo".toCharArray(), "salt".toByteArray())
+        expect(PasswordCheckResult.MATCH_NEEDS_REHASH) { PasswordHashers.checkPassword("foo".toCharArray(), hash) }
+        expect(PasswordCheckResult.MISMATCH) { PasswordHashers.checkPassword("bar".toCharArray(), hash) }
+    }
+
+    @Test fun `PasswordHash creates hashes with the default hasher`() {
+        val original = PasswordHashers.getDefault()
+        try {
+            PasswordHashers.setDefault(ScryptPasswordHasher(10, 8, 1))
+            expect("scrypt") { PasswordHashers.forHash(PasswordHash.createHash("foo")).id }
+        } finally {
+            PasswordHashers.register(ScryptPasswordHasher())
+            PasswordHashers.setDefault(original)
+        }
+        expect("pbkdf2-sha256") { PasswordHashers.forHash(PasswordHash.createHash("foo")).id }
+    }
+
+    @Test fun `current hashes need no rehash`() {
+        val hash = PasswordHashers.getDefault().createHash("foo".toCharArray())
+        expect(PasswordCheckResult.MATCH) { PasswordHashers.checkPassword("foo".toCharArray(), hash) }
+    }
+
+    @Test fun `weaker parameters need rehash`() {
+        val hasher = Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA256, 2000)
+        expect(true) { hasher.needsRehash(Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.Prf.SHA256, 1000).createHash("foo".toCharArray())) }
+        expect(false) { hasher.needsRehash(hasher.createHash("foo".toCharArray())) }
+        expect(true) { ScryptPasswordHasher(11, 8, 1).needsRehash(ScryptPasswordHasher(10, 8, 1).createHash("foo".toCharArray())) }
+    }
+
+    @Test fun `scrypt RFC 7914 test vector`() {
+        expect("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640") {
+            HexFormat.of().formatHex(ScryptPasswordHasher.scrypt("password".toCharArray(), "NaCl".toByteArray(), 10, 8, 16, 64))
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.mvysny.vaadinsimplesecurity.util
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import kotlin.concurrent.thread
+import kotlin.test.expect
+
+class PasswordHashingServiceTest {
+    @Test fun validatePassword() {
+        val service = PasswordHashingService(1, 0, Duration.ofSeconds(1))
+        val hash = service.createHash("foo")
+        expect(true) { service.validatePassword("foo", hash) }
+        expect(false) { service.validatePassword("bar", hash) }
+        expect(3L) { service.completedCount }
+        expect(0L) { service.rejectedCount }
+        expect(0) { service.activeCount }
+    }
+
+    @Test fun `fails fast when the queue is full`() {
+        val service = PasswordHashingService(1, 0, Duration.ofSeconds(1))
+        // a hash with 2M iterations keeps the only slot busy for a couple of seconds
+        val slowHash = "2000000:0011223344556677:" + "00".repeat(32)
+        val occupant = thread { service.validatePassword("foo", slowHash) }
+        while (service.activeCount == 0) {
+            Thread.onSpinWait()
+        }
+        expectThrows<PasswordHashingOverloadedException>("Too many login attempts, please try again later") {
+            service.validatePassword("foo", PasswordHash.createHash("foo"))
+        }
+        expect(1L) { service.rejectedCount }
+        occupant.join()
+    }
+
+    @Test fun `createHash fails fast when the queue is full`() {
+        val service = PasswordHashingService(1, 0, Duration.ofSeconds(1))
+        val slowHash = "2000000:0011223344556677:" + "00".repeat(32)
+        val occupant = thread { service.validatePassword("foo", slowHash) }
+        while (service.activeCount == 0) {
+            Thread.onSpinWait()
+        }
+        expectThrows<PasswordHashingOverloadedException>("Too many login attempts, please try again later") {
+            service.createHash("foo")
+        }
+        expect(1L) { service.rejectedCount }
+        occupant.join()
+    }
+
+    @Test fun `fails when waiting for too long`() {
+        val service = PasswordHashingService(1, 10, Duration.ofMillis(10))
+        val slowHash = "2000000:0011223344556677:" + "00".repeat(32)
+        val occupant = thread { service.validatePassword("foo", slowHash) }
+        while (service.activeCount == 0) {
+            Thread.onSpinWait()
+        }
+        expectThrows<PasswordHashingOverloadedException>("Too many login attempts, please try again later") {
+            service.validatePassword("foo", PasswordHash.createHash("foo"))
+        }
+        expect(0) { service.queueDepth }
+        expect(true) { service.totalWaitTime >= Duration.ofMillis(10) }
+        occupant.join()
+    }
+}
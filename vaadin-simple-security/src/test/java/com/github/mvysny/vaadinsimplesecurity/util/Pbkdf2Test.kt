@@ -0,0 +1,45 @@
+package com.github.mvysny.vaadinsimplesecurity.util
+
+import com.github.mvysny.vaadinsimplesecurity.expectThrows
+import org.junit.jupiter.api.Test
+import java.util.HexFormat
+import javax.crypto.SecretKeyFactory
+import javax.crypto.spec.PBEKeySpec
+import kotlin.random.Random
+import kotlin.test.expect
+
+class Pbkdf2Test {
+    private fun provider(prf: Pbkdf2PasswordHasher.Prf, password: CharArray, salt: ByteArray, iterations: Int, bytes: Int): ByteArray =
+        SecretKeyFactory.getInstance(prf.algorithm).generateSecret(PBEKeySpec(password, salt, iterations, bytes * 8)).encoded
+
+    @Test fun `RFC 6070 test vector`() {
+        expect("4b007901b765489abead49d926f721d065a429c1") {
+            HexFormat.of().formatHex(Pbkdf2.derive(Pbkdf2PasswordHasher.Prf.SHA1, "password".toCharArray(), "salt".toByteArray(), 4096, 20))
+        }
+    }
+
+    @Test fun `same output as the JDK provider`() {
+        val random = Random(1)
+        repeat(100) {
+            // covers multi-block output, non-ASCII passwords and passwords longer than the HMAC block
+            val password = CharArray(random.nextInt(1, 200)) { if (random.nextBoolean()) ' ' + random.nextInt(95) else Char(random.nextInt(0x80, 0xd000)) }
+            val salt = random.nextBytes(random.nextInt(1, 100))
+            val iterations = random.nextInt(1, 50)
+            val bytes = random.nextInt(1, 150)
+            for (prf in Pbkdf2PasswordHasher.Prf.entries) {
+                expect(HexFormat.of().formatHex(provider(prf, password, salt, iterations, bytes)), "$prf") {
+                    HexFormat.of().formatHex(Pbkdf2.derive(prf, password, salt, iterations, bytes))
+                }
+            }
+        }
+    }
+
+    @Test fun `invalid parameters`() {
+        expectThrows<IllegalArgumentException>("Parameter iterations: invalid value 0: must be 1 or greater") {
+            Pbkdf2.derive(Pbkdf2PasswordHasher.Prf.SHA256, "foo".toCharArray(), ByteArray(8), 0, 32)
+        }
+        expectThrows<IllegalArgumentException>("Parameter bytes: invalid value 0: must be 1 or greater") {
+            Pbkdf2.derive(Pbkdf2PasswordHasher.Prf.SHA256, "foo".toCharArray(), ByteArray(8), 1, 0)
+        }
+    }
+}